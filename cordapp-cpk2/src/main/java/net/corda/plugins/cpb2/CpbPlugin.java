@@ -18,7 +18,7 @@ import org.jetbrains.annotations.NotNull;
 import static net.corda.plugins.cpk2.CordappUtils.ALL_CORDAPPS_CONFIGURATION_NAME;
 import static net.corda.plugins.cpk2.CordappUtils.copyJarEnabledTo;
 import static net.corda.plugins.cpk2.CordappUtils.setCannotBeDeclared;
-import static net.corda.plugins.cpk2.SignJar.sign;
+import static net.corda.plugins.cpk2.SignJar.signWithoutCache;
 import static net.corda.plugins.cpk2.SigningProperties.nested;
 import static org.gradle.api.artifacts.Dependency.ARCHIVES_CONFIGURATION;
 import static org.gradle.api.plugins.JavaPlugin.JAR_TASK_NAME;
@@ -76,7 +76,7 @@ public final class CpbPlugin implements Plugin<Project> {
 
             cpbTask.doLast(task -> {
                 if (cordappExtension.getSigning().getEnabled().get()) {
-                    sign(task, cordappExtension.getSigning().getOptions(), cpbTask.getArchiveFile().get().getAsFile());
+                    signWithoutCache(task, cordappExtension.getSigning().getOptions(), cpbTask.getArchiveFile().get().getAsFile());
                 }
             });
 
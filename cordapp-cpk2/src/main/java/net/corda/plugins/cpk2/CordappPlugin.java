@@ -2,6 +2,7 @@ package net.corda.plugins.cpk2;
 
 import aQute.bnd.gradle.BndBuilderPlugin;
 import aQute.bnd.gradle.BundleTaskExtension;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
@@ -478,7 +479,12 @@ public final class CordappPlugin implements Plugin<Project> {
             }).doLast(t -> {
                 final Signing signing = cordapp.getSigning();
                 if (signing.getEnabled().get()) {
-                    SignJar.sign(t, signing.getOptions(), ((Jar) t).getArchiveFile().get().getAsFile());
+                    final File jarFile = ((Jar) t).getArchiveFile().get().getAsFile();
+                    if (signing.getSinglePass().get()) {
+                        SignJar.signSinglePass(t, signing.getOptions(), jarFile);
+                    } else {
+                        SignJar.signWithoutCache(t, signing.getOptions(), jarFile);
+                    }
                 } else {
                     t.getLogger().lifecycle("CorDapp JAR signing is disabled, the CorDapp's contracts will not use signature constraints.");
                 }
@@ -0,0 +1,254 @@
+package net.corda.plugins.cpk2;
+
+import net.corda.plugins.cpk2.signing.SigningOptions;
+import net.corda.plugins.cpk2.signing.SigningOptions.Key;
+import org.gradle.api.InvalidUserDataException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.KeyStore.PasswordProtection;
+import java.security.KeyStore.PrivateKeyEntry;
+import java.util.Map;
+import java.util.zip.ZipFile;
+
+import static java.lang.invoke.MethodType.methodType;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Arrays.asList;
+
+/**
+ * Signs jars inside the current JVM using {@code jdk.security.jarsigner.JarSigner},
+ * which avoids launching Ant's {@code signjar} task for every jar. This API only
+ * exists in Java 9+, whereas this plugin is compiled for Java 8, and so we access
+ * it via {@link MethodHandle}s instead.
+ * <p>
+ * A {@link InProcessSigner} loads its keystore once, and is immutable and
+ * thread-safe thereafter.
+ */
+final class InProcessSigner {
+    private static final String JAR_SIGNER_CLASS = "jdk.security.jarsigner.JarSigner";
+    private static final String TRUE = "true";
+    private static final JarSignerApi API = JarSignerApi.load();
+
+    /**
+     * {@code jdk.security.jarsigner.JarSigner} cannot honour these
+     * options, and so the jar must be signed by Ant instead.
+     */
+    private static final Iterable<String> UNSUPPORTED_OPTIONS = asList(
+        Key.EXECUTABLE,
+        Key.MAXMEMORY,
+        Key.TSACERT,
+        Key.TSAPROXYHOST,
+        Key.TSAPROXYPORT
+    );
+
+    /**
+     * {@code jdk.security.jarsigner.JarSigner} has no equivalent of the
+     * {@code jarsigner} tool's strict checks or verbose output either.
+     */
+    private static final Iterable<String> UNSUPPORTED_FLAGS = asList(
+        Key.LAZY,
+        Key.PRESERVELASTMODIFIED,
+        Key.STRICT,
+        Key.VERBOSE
+    );
+
+    /**
+     * @return true if we can sign jars in-process with these Ant {@code signjar} options.
+     */
+    static boolean canSign(@NotNull Map<String, String> options) {
+        if (API == null) {
+            return false;
+        }
+        for (String flag : UNSUPPORTED_FLAGS) {
+            if (TRUE.equals(options.get(flag))) {
+                return false;
+            }
+        }
+        for (String option : UNSUPPORTED_OPTIONS) {
+            if (options.containsKey(option)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final Object signer;
+
+    /**
+     * @param options The Ant {@code signjar} options. A missing {@link Key#KEYSTORE}
+     *                means "use the Corda development keystore".
+     */
+    InProcessSigner(@NotNull Map<String, String> options) {
+        if (!canSign(options)) {
+            throw new IllegalStateException("Cannot sign jars in-process with these options");
+        }
+        final PrivateKeyEntry privateKey = loadPrivateKey(options);
+        try {
+            Object builder = API.newBuilder.invoke(privateKey);
+            builder = API.signerName.invoke(builder, options.get(Key.SIGFILE));
+            final String digestAlgorithm = options.get(Key.DIGESTALG);
+            if (digestAlgorithm != null) {
+                builder = API.digestAlgorithm.invoke(builder, digestAlgorithm);
+            }
+            final String signatureAlgorithm = options.get(Key.SIGALG);
+            if (signatureAlgorithm != null) {
+                builder = API.signatureAlgorithm.invoke(builder, signatureAlgorithm);
+            }
+            final String tsaUrl = options.get(Key.TSAURL);
+            if (tsaUrl != null) {
+                builder = API.tsa.invoke(builder, URI.create(tsaUrl));
+            }
+            final String tsaDigestAlgorithm = options.get(Key.TSADIGESTALG);
+            if (tsaDigestAlgorithm != null) {
+                builder = API.setProperty.invoke(builder, "tsadigestalg", tsaDigestAlgorithm);
+            }
+            builder = API.setProperty.invoke(builder, "internalsf", String.valueOf(TRUE.equals(options.get(Key.INTERNALSF))));
+            builder = API.setProperty.invoke(builder, "sectionsonly", String.valueOf(TRUE.equals(options.get(Key.SECTIONSONLY))));
+            signer = API.build.invoke(builder);
+        } catch (IllegalArgumentException e) {
+            throw new InvalidUserDataException("Invalid signing options: " + e.getMessage(), e);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new InvalidUserDataException("Cannot create jar signer", e);
+        }
+    }
+
+    /**
+     * Signs {@code input}, writing the result to {@code output}. These can both
+     * be the same file, in which case the jar is signed "in place".
+     */
+    void sign(@NotNull File input, @NotNull File output) throws IOException {
+        final Path target = output.toPath().toAbsolutePath();
+        final Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                sign(input, out);
+            }
+            Files.move(temporary, target, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Signs {@code input}, writing the result to {@code output}.
+     */
+    void sign(@NotNull File input, @NotNull OutputStream output) throws IOException {
+        try (ZipFile zip = new ZipFile(input)) {
+            API.sign.invoke(signer, zip, output);
+        } catch (IOException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Ant's signjar resolves a relative keystore path against the project directory,
+     * and so we must too, rather than against the Gradle daemon's working directory.
+     */
+    @NotNull
+    static Map<String, String> resolveKeyStore(@NotNull Map<String, String> options, @NotNull File projectDir) {
+        final String location = options.get(Key.KEYSTORE);
+        if (location != null && !URI.create(location).isAbsolute() && !new File(location).isAbsolute()) {
+            options.put(Key.KEYSTORE, new File(projectDir, location).toURI().toString());
+        }
+        return options;
+    }
+
+    @NotNull
+    private static PrivateKeyEntry loadPrivateKey(@NotNull Map<String, String> options) {
+        final String alias = options.get(Key.ALIAS);
+        final String storePassword = options.get(Key.STOREPASS);
+        final String keyPassword = options.getOrDefault(Key.KEYPASS, storePassword);
+        final String keyStoreLocation = options.get(Key.KEYSTORE);
+        try (InputStream input = openKeyStore(keyStoreLocation)) {
+            final KeyStore keyStore = KeyStore.getInstance(options.getOrDefault(Key.STORETYPE, KeyStore.getDefaultType()));
+            keyStore.load(input, toChars(storePassword));
+            final KeyStore.Entry entry = keyStore.getEntry(alias, new PasswordProtection(toChars(keyPassword)));
+            if (!(entry instanceof PrivateKeyEntry)) {
+                throw new InvalidUserDataException("Keystore " + describe(keyStoreLocation) + " has no private key for alias '" + alias + '\'');
+            }
+            return (PrivateKeyEntry) entry;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (GeneralSecurityException e) {
+            throw new InvalidUserDataException("Cannot load key '" + alias + "' from keystore " + describe(keyStoreLocation), e);
+        }
+    }
+
+    @NotNull
+    private static InputStream openKeyStore(@Nullable String location) throws IOException {
+        if (location == null) {
+            final InputStream input = InProcessSigner.class.getClassLoader().getResourceAsStream(SigningOptions.DEFAULT_KEYSTORE);
+            if (input == null) {
+                throw new InvalidUserDataException("Default keystore " + SigningOptions.DEFAULT_KEYSTORE + " is missing");
+            }
+            return input;
+        }
+        final URI uri = URI.create(location);
+        return uri.isAbsolute() ? uri.toURL().openStream() : Files.newInputStream(Paths.get(location));
+    }
+
+    @NotNull
+    private static String describe(@Nullable String keyStoreLocation) {
+        return keyStoreLocation == null ? SigningOptions.DEFAULT_KEYSTORE : keyStoreLocation;
+    }
+
+    @Nullable
+    private static char[] toChars(@Nullable String value) {
+        return value == null ? null : value.toCharArray();
+    }
+
+    /**
+     * The {@link MethodHandle}s for the parts of the
+     * {@code jdk.security.jarsigner} API that we need.
+     */
+    private static final class JarSignerApi {
+        @Nullable
+        static JarSignerApi load() {
+            try {
+                return new JarSignerApi(MethodHandles.publicLookup());
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return null;
+            }
+        }
+
+        final MethodHandle newBuilder;
+        final MethodHandle signerName;
+        final MethodHandle digestAlgorithm;
+        final MethodHandle signatureAlgorithm;
+        final MethodHandle tsa;
+        final MethodHandle setProperty;
+        final MethodHandle build;
+        final MethodHandle sign;
+
+        private JarSignerApi(@NotNull MethodHandles.Lookup lookup) throws ReflectiveOperationException {
+            final Class<?> signerClass = Class.forName(JAR_SIGNER_CLASS);
+            final Class<?> builderClass = Class.forName(JAR_SIGNER_CLASS + "$Builder");
+            newBuilder = lookup.findConstructor(builderClass, methodType(void.class, PrivateKeyEntry.class));
+            signerName = lookup.findVirtual(builderClass, "signerName", methodType(builderClass, String.class));
+            digestAlgorithm = lookup.findVirtual(builderClass, "digestAlgorithm", methodType(builderClass, String.class));
+            signatureAlgorithm = lookup.findVirtual(builderClass, "signatureAlgorithm", methodType(builderClass, String.class));
+            tsa = lookup.findVirtual(builderClass, "tsa", methodType(builderClass, URI.class));
+            setProperty = lookup.findVirtual(builderClass, "setProperty", methodType(builderClass, String.class, String.class));
+            build = lookup.findVirtual(builderClass, "build", methodType(signerClass));
+            sign = lookup.findVirtual(signerClass, "sign", methodType(void.class, ZipFile.class, OutputStream.class));
+        }
+    }
+}
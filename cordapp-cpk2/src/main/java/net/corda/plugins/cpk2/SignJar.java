@@ -1,5 +1,6 @@
 package net.corda.plugins.cpk2;
 
+import net.corda.plugins.cpk2.signing.SignatureCache;
 import net.corda.plugins.cpk2.signing.SigningOptions;
 import net.corda.plugins.cpk2.signing.SigningOptions.Key;
 import org.gradle.api.Action;
@@ -22,6 +23,8 @@ import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.SkipWhenEmpty;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.work.DisableCachingByDefault;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -39,6 +42,7 @@ import javax.inject.Inject;
 
 import static net.corda.plugins.cpk2.CordappUtils.CORDAPP_TASK_GROUP;
 import static net.corda.plugins.cpk2.CordappUtils.map;
+import static net.corda.plugins.cpk2.SigningService.SIGNING_SERVICE_NAME;
 import static org.gradle.api.tasks.PathSensitivity.RELATIVE;
 import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 
@@ -46,6 +50,7 @@ import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
 @DisableCachingByDefault
 public class SignJar extends DefaultTask {
     private static final String DUMMY_VALUE = "****";
+    static final String SIGNATURE_CACHE_DIR = "signatures";
 
     @SuppressWarnings("SameParameterValue")
     private static void writeResourceToFile(@NotNull String resourcePath, @NotNull Path path) {
@@ -73,9 +78,92 @@ public class SignJar extends DefaultTask {
         @NotNull File file,
         @Nullable File outputFile
     ) {
-        final Map<String, String> options = signing.getSignJarOptions().get();
+        final SignatureCache cache = new SignatureCache(new File(task.getTemporaryDir(), SIGNATURE_CACHE_DIR));
+        try {
+            final boolean restored = cache.sign(file, outputFile == null ? file : outputFile, signing.getSignJarOptions().get(), () ->
+                signUncached(task, signing, file, outputFile)
+            );
+            if (restored) {
+                task.getLogger().info("Restored signed {} from signature cache", file.getName());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Signs {@code file} in place without the {@link SignatureCache}. A task's
+     * own archive has usually just changed, and so would always miss the cache,
+     * paying to hash it and to copy it into the cache for nothing.
+     */
+    public static void signWithoutCache(
+        @NotNull Task task,
+        @NotNull SigningOptions signing,
+        @NotNull File file
+    ) {
+        signUncached(task, signing, file, null);
+    }
+
+    /**
+     * Signs {@code file} in place with {@link SinglePassSigner}, which reads the jar
+     * only once to compute its digests. We do not use the {@link SignatureCache} here,
+     * because hashing the whole jar for its key would read it again. We fall back to
+     * {@link #signWithoutCache(Task, SigningOptions, File)} whenever {@link SinglePassSigner}
+     * cannot handle this jar.
+     */
+    public static void signSinglePass(
+        @NotNull Task task,
+        @NotNull SigningOptions signing,
+        @NotNull File file
+    ) {
+        final Map<String, String> options = InProcessSigner.resolveKeyStore(signing.getSignJarOptions().get(), task.getProject().getProjectDir());
+        if (!InProcessSigner.canSign(options)) {
+            signWithoutCache(task, signing, file);
+            return;
+        }
+
+        if (!signing.getKeyStore().isPresent()) {
+            task.getLogger().info("CorDapp JAR signing with the default Corda development key, suitable for Corda running in development mode only.");
+        }
+        task.getLogger().info("Jar signing in a single pass with following options: {}", toSanitized(options));
+        final boolean signed;
+        try {
+            signed = SinglePassSigner.sign(new InProcessSigner(options), options.get(Key.DIGESTALG), file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            throw new InvalidUserDataException("Exception while signing " + file.getName() + ": " + e.getMessage(), e);
+        }
+        if (!signed) {
+            task.getLogger().info("Cannot sign {} in a single pass, rewriting it instead", file.getName());
+            signWithoutCache(task, signing, file);
+        }
+    }
+
+    private static void signUncached(
+        @NotNull Task task,
+        @NotNull SigningOptions signing,
+        @NotNull File file,
+        @Nullable File outputFile
+    ) {
+        final Map<String, String> options = InProcessSigner.resolveKeyStore(signing.getSignJarOptions().get(), task.getProject().getProjectDir());
         final boolean useDefaultKeyStore = !signing.getKeyStore().isPresent();
         final Logger logger = task.getLogger();
+        if (InProcessSigner.canSign(options)) {
+            if (useDefaultKeyStore) {
+                logger.info("CorDapp JAR signing with the default Corda development key, suitable for Corda running in development mode only.");
+            }
+            logger.info("Jar signing in-process with following options: {}", toSanitized(options));
+            try {
+                new InProcessSigner(options).sign(file, outputFile == null ? file : outputFile);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } catch (RuntimeException e) {
+                throw new InvalidUserDataException("Exception while signing " + file.getName() + ": " + e.getMessage(), e);
+            }
+            return;
+        }
+
         try {
             if (useDefaultKeyStore) {
                 logger.info("CorDapp JAR signing with the default Corda development key, suitable for Corda running in development mode only.");
@@ -127,13 +215,16 @@ public class SignJar extends DefaultTask {
         return result;
     }
 
+    private final WorkerExecutor workers;
+    private final Provider<SigningService> signingService;
     private final SigningOptions signing;
     private final Property<String> postfix;
     private final ConfigurableFileCollection _inputJars;
     private final ConfigurableFileCollection _outputJars;
+    private final File projectDir;
 
     @Inject
-    public SignJar(@NotNull ObjectFactory objects) {
+    public SignJar(@NotNull ObjectFactory objects, @NotNull WorkerExecutor workers) {
         setDescription("Signs the given jars, using the cordapp.signing.options key by default.");
         setGroup(CORDAPP_TASK_GROUP);
 
@@ -141,6 +232,11 @@ public class SignJar extends DefaultTask {
         if (cordapp == null) {
             throw new GradleException("Please apply cordapp-cpk2 plugin to create cordapp DSL extension.");
         }
+        this.workers = workers;
+        projectDir = getProject().getProjectDir();
+        signingService = getProject().getGradle().getSharedServices()
+            .registerIfAbsent(SIGNING_SERVICE_NAME, SigningService.class, spec -> {});
+        usesService(signingService);
         signing = objects.newInstance(SigningOptions.class).values(cordapp.getSigning().getOptions());
         postfix = objects.property(String.class).convention("-signed");
         _inputJars = objects.fileCollection();
@@ -207,8 +303,28 @@ public class SignJar extends DefaultTask {
 
     @TaskAction
     public void build() {
-        for (File file : getInputJars()) {
-            sign(this, signing, file, toSigned(file).get());
+        final Map<String, String> options = InProcessSigner.resolveKeyStore(signing.getSignJarOptions().get(), projectDir);
+        if (InProcessSigner.canSign(options)) {
+            // Sign these jars concurrently, sharing the same keystore.
+            if (!signing.getKeyStore().isPresent()) {
+                getLogger().info("CorDapp JAR signing with the default Corda development key, suitable for Corda running in development mode only.");
+            }
+            getLogger().info("Jar signing in-process with following options: {}", toSanitized(options));
+            final WorkQueue queue = workers.noIsolation();
+            for (File file : getInputJars()) {
+                final File outputFile = toSigned(file).get();
+                queue.submit(SignJarAction.class, parameters -> {
+                    parameters.getInputJar().set(file);
+                    parameters.getOutputJar().set(outputFile);
+                    parameters.getOptions().set(options);
+                    parameters.getCacheDir().set(new File(getTemporaryDir(), SIGNATURE_CACHE_DIR));
+                    parameters.getSigningService().set(signingService);
+                });
+            }
+        } else {
+            for (File file : getInputJars()) {
+                sign(this, signing, file, toSigned(file).get());
+            }
         }
     }
 }
@@ -0,0 +1,55 @@
+package net.corda.plugins.cpk2;
+
+import net.corda.plugins.cpk2.signing.SignatureCache;
+import org.gradle.api.InvalidUserDataException;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Map;
+
+/**
+ * Signs a single jar using an {@link InProcessSigner}, so
+ * that Gradle can sign many jars concurrently.
+ */
+public abstract class SignJarAction implements WorkAction<SignJarAction.Parameters> {
+    public interface Parameters extends WorkParameters {
+        RegularFileProperty getInputJar();
+        RegularFileProperty getOutputJar();
+        MapProperty<String, String> getOptions();
+        DirectoryProperty getCacheDir();
+        Property<SigningService> getSigningService();
+    }
+
+    private static final Logger LOGGER = Logging.getLogger(SignJarAction.class);
+
+    @Override
+    public void execute() {
+        final Parameters parameters = getParameters();
+        final File inputJar = parameters.getInputJar().get().getAsFile();
+        final File outputJar = parameters.getOutputJar().get().getAsFile();
+        final Map<String, String> options = parameters.getOptions().get();
+        final SignatureCache cache = new SignatureCache(parameters.getCacheDir().get().getAsFile());
+        try {
+            final boolean restored = cache.sign(inputJar, outputJar, options, () -> {
+                LOGGER.info("Signing {} as {}", inputJar, outputJar);
+                parameters.getSigningService().get().getSigner(options).sign(inputJar, outputJar);
+            });
+            if (restored) {
+                LOGGER.info("Restored signed {} from signature cache", inputJar.getName());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            throw new InvalidUserDataException("Exception while signing " + inputJar.getName() + ": " + e.getMessage(), e);
+        }
+    }
+}
@@ -16,6 +16,7 @@ import static net.corda.plugins.cpk2.signing.SigningOptions.SYSTEM_PROPERTY_PREF
 @SuppressWarnings("unused")
 public class Signing {
     private final Property<Boolean> enabled;
+    private final Property<Boolean> singlePass;
     private final SigningOptions options;
 
     @Inject
@@ -23,6 +24,9 @@ public class Signing {
         enabled = objects.property(Boolean.class).convention(
             providers.systemProperty(SYSTEM_PROPERTY_PREFIX + "enabled").orElse("true").map(Boolean::parseBoolean)
         );
+        singlePass = objects.property(Boolean.class).convention(
+            providers.systemProperty(SYSTEM_PROPERTY_PREFIX + "singlePass").orElse("false").map(Boolean::parseBoolean)
+        );
         options = objects.newInstance(SigningOptions.class);
     }
 
@@ -32,6 +36,19 @@ public class Signing {
         return enabled;
     }
 
+    /**
+     * Sign the CorDapp jar without compressing its entries again. The signer
+     * writes a new jar whose first entries are the manifest and signature files,
+     * followed by the original compressed bytes of every other entry, so that
+     * both {@link java.util.jar.JarFile} and {@link java.util.jar.JarInputStream}
+     * verify it. This saves CPU time, but still reads and writes the whole jar.
+     */
+    @Input
+    @NotNull
+    public Property<Boolean> getSinglePass() {
+        return singlePass;
+    }
+
     @Nested
     @NotNull
     public SigningOptions getOptions() {
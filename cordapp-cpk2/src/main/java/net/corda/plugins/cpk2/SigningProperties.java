@@ -17,6 +17,7 @@ public final class SigningProperties {
      */
     public static void nested(@NotNull TaskInputs inputs, @NotNull String nestName, @NotNull Signing signing) {
         inputs.property(nestName + ".enabled", signing.getEnabled());
+        inputs.property(nestName + ".singlePass", signing.getSinglePass());
         SigningOptionsProperties.nested(inputs, nestName + ".options", signing.getOptions());
     }
 }
@@ -0,0 +1,29 @@
+package net.corda.plugins.cpk2;
+
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares {@link InProcessSigner} instances between concurrent {@link SignJarAction}s,
+ * so that each keystore is only loaded once per build. Gradle discards this service
+ * (and its private keys) when the build finishes.
+ */
+public abstract class SigningService implements BuildService<BuildServiceParameters.None> {
+    static final String SIGNING_SERVICE_NAME = "cordappSigningService";
+
+    private final ConcurrentMap<Map<String, String>, InProcessSigner> signers = new ConcurrentHashMap<>();
+
+    /**
+     * @param options The Ant {@code signjar} options, excluding the input and output jars.
+     * @return An {@link InProcessSigner} for these options.
+     */
+    @NotNull
+    InProcessSigner getSigner(@NotNull Map<String, String> options) {
+        return signers.computeIfAbsent(options, InProcessSigner::new);
+    }
+}
@@ -0,0 +1,554 @@
+package net.corda.plugins.cpk2;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static net.corda.plugins.cpk2.CordappUtils.digestFor;
+
+/**
+ * Signs a jar without deflating its entries again. We read and inflate each entry once
+ * to compute its digest, and sign only the resulting manifest. We then write the new
+ * {@code MANIFEST.MF}, {@code .SF} and signature block entries, followed by the raw bytes
+ * of every other original entry and a new central directory. The signature files are
+ * the first entries, just as {@code jarsigner} writes them, so that both {@link JarFile}
+ * and {@link java.util.jar.JarInputStream} verify these jars.
+ * <p>
+ * We write the signed jar to a temporary file, and then move it over the original jar.
+ * This still reads the jar twice and writes it once, just as {@code JarSigner} does,
+ * and so it saves only the CPU time of compressing every entry again, not any I/O.
+ * <p>
+ * We only handle archives without ZIP64 records or a preamble that are not already signed.
+ * Otherwise the caller must sign the jar some other way.
+ */
+final class SinglePassSigner {
+    private static final String META_INF = "META-INF/";
+    private static final String MANIFEST_NAME = JarFile.MANIFEST_NAME;
+    private static final String DEFAULT_DIGEST_ALGORITHM = "SHA-256";
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_OF_CENTRAL_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int CENTRAL_HEADER_OFFSET = 42;
+    private static final int END_OF_CENTRAL_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int ZIP64_MAGIC_SHORT = 0xffff;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    private static final int VERSION_DEFLATED = 20;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int EOF = -1;
+
+    private SinglePassSigner() {
+    }
+
+    /**
+     * @param signer The {@link InProcessSigner} that will sign our manifest.
+     * @param digestAlgorithm The entry digest algorithm, or {@code null} for {@code JarSigner}'s default.
+     * @return false if we cannot sign this jar in a single pass, in which case it is unchanged.
+     */
+    static boolean sign(
+        @NotNull InProcessSigner signer,
+        @Nullable String digestAlgorithm,
+        @NotNull File jar
+    ) throws IOException {
+        final Path jarPath = jar.toPath().toAbsolutePath();
+        final Path temporary = Files.createTempFile(jarPath.getParent(), jarPath.getFileName().toString(), ".tmp");
+        try {
+            if (!writeSigned(signer, digestAlgorithm, jarPath, temporary)) {
+                return false;
+            }
+            // Replace the jar only after we have closed it.
+            Files.move(temporary, jarPath, REPLACE_EXISTING, ATOMIC_MOVE);
+            return true;
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static boolean writeSigned(
+        @NotNull InProcessSigner signer,
+        @Nullable String digestAlgorithm,
+        @NotNull Path jar,
+        @NotNull Path signedJar
+    ) throws IOException {
+        try (FileChannel input = FileChannel.open(jar, READ)) {
+            final CentralDirectory directory = CentralDirectory.read(input);
+            if (directory == null) {
+                return false;
+            }
+
+            final String algorithm = digestAlgorithm == null ? DEFAULT_DIGEST_ALGORITHM : digestAlgorithm;
+            final Manifest manifest = digestEntries(jar.toFile(), algorithm);
+            if (manifest == null) {
+                return false;
+            }
+
+            final List<LocalEntry> signatureEntries = directory.toLocalEntries(signManifest(signer, manifest, jar));
+            try (FileChannel output = FileChannel.open(signedJar, WRITE)) {
+                return directory.write(input, output, signatureEntries);
+            }
+        }
+    }
+
+    /**
+     * Computes the digests of this jar's entries in a single pass, adding them
+     * to a copy of its manifest.
+     * @return the updated {@link Manifest}, or {@code null} if the jar is already signed.
+     */
+    @Nullable
+    private static Manifest digestEntries(@NotNull File jar, @NotNull String algorithm) throws IOException {
+        final MessageDigest digest = digestFor(algorithm);
+        final String digestAttribute = algorithm + "-Digest";
+        final Base64.Encoder base64 = Base64.getEncoder();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        try (JarFile jarFile = new JarFile(jar, false)) {
+            final Manifest original = jarFile.getManifest();
+            final Manifest manifest = original == null ? new Manifest() : new Manifest(original);
+            final Attributes mainAttributes = manifest.getMainAttributes();
+            if (!mainAttributes.containsKey(Attributes.Name.MANIFEST_VERSION)) {
+                mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+            }
+
+            final Enumeration<? extends ZipEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final String name = entry.getName();
+                if (isSignatureRelated(name)) {
+                    if (!MANIFEST_NAME.equalsIgnoreCase(name)) {
+                        return null;
+                    }
+                } else if (!entry.isDirectory()) {
+                    try (InputStream input = jarFile.getInputStream(entry)) {
+                        int length;
+                        while ((length = input.read(buffer)) != EOF) {
+                            digest.update(buffer, 0, length);
+                        }
+                    }
+                    manifest.getEntries()
+                        .computeIfAbsent(name, k -> new Attributes())
+                        .putValue(digestAttribute, base64.encodeToString(digest.digest()));
+                }
+            }
+            return manifest;
+        }
+    }
+
+    /**
+     * Signs a jar containing only our manifest. The signer has no entries to digest,
+     * and so generates the signature files from the manifest's existing sections.
+     * @return The new {@code MANIFEST.MF}, {@code .SF} and signature block entries.
+     */
+    @NotNull
+    private static Map<String, byte[]> signManifest(
+        @NotNull InProcessSigner signer,
+        @NotNull Manifest manifest,
+        @NotNull Path jar
+    ) throws IOException {
+        final Path manifestJar = Files.createTempFile(jar.getParent(), jar.getFileName().toString(), ".mf");
+        try {
+            try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(manifestJar))) {
+                zip.putNextEntry(new ZipEntry(MANIFEST_NAME));
+                manifest.write(zip);
+                zip.closeEntry();
+            }
+
+            final ByteArrayOutputStream signed = new ByteArrayOutputStream();
+            signer.sign(manifestJar.toFile(), signed);
+
+            final Path signedJar = Files.write(manifestJar, signed.toByteArray());
+            final Map<String, byte[]> signatureFiles = new LinkedHashMap<>();
+            try (ZipFile zip = new ZipFile(signedJar.toFile())) {
+                final Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    final ZipEntry entry = entries.nextElement();
+                    if (isSignatureRelated(entry.getName())) {
+                        try (InputStream input = zip.getInputStream(entry)) {
+                            signatureFiles.put(entry.getName(), readAll(input));
+                        }
+                    }
+                }
+            }
+            if (!signatureFiles.containsKey(MANIFEST_NAME)) {
+                throw new IOException("Signed manifest is missing");
+            }
+            return signatureFiles;
+        } finally {
+            Files.deleteIfExists(manifestJar);
+        }
+    }
+
+    /**
+     * The same files that {@code JarSigner} excludes from its digests.
+     */
+    private static boolean isSignatureRelated(@NotNull String name) {
+        final String upperName = name.toUpperCase(Locale.ROOT);
+        if (!upperName.startsWith(META_INF) || upperName.indexOf('/', META_INF.length()) != -1) {
+            return false;
+        }
+        return upperName.equals(MANIFEST_NAME)
+            || upperName.endsWith(".SF")
+            || upperName.endsWith(".DSA")
+            || upperName.endsWith(".RSA")
+            || upperName.endsWith(".EC")
+            || upperName.startsWith(META_INF + "SIG-");
+    }
+
+    @NotNull
+    private static byte[] readAll(@NotNull InputStream input) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = input.read(buffer)) != EOF) {
+            output.write(buffer, 0, length);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * A new entry's local header and compressed data, and its central directory record.
+     */
+    private static final class LocalEntry {
+        final ByteBuffer header;
+        final byte[] data;
+        final ByteBuffer record;
+
+        LocalEntry(@NotNull ByteBuffer header, @NotNull byte[] data, @NotNull ByteBuffer record) {
+            this.header = header;
+            this.data = data;
+            this.record = record;
+        }
+
+        long size() {
+            return header.remaining() + (long) data.length;
+        }
+    }
+
+    /**
+     * The raw central directory records of a ZIP archive.
+     */
+    private static final class CentralDirectory {
+        /**
+         * @return The archive's {@link CentralDirectory}, or {@code null} if we cannot
+         * find it, the archive contains ZIP64 records or its entries are not contiguous.
+         */
+        @Nullable
+        static CentralDirectory read(@NotNull FileChannel channel) throws IOException {
+            final long size = channel.size();
+            if (size < END_OF_CENTRAL_SIZE) {
+                return null;
+            }
+            final int tailSize = (int) Math.min(size, END_OF_CENTRAL_SIZE + MAX_COMMENT_SIZE + ZIP64_LOCATOR_SIZE);
+            final ByteBuffer tail = readFully(channel, size - tailSize, tailSize);
+
+            int endOffset = tailSize - END_OF_CENTRAL_SIZE;
+            while (endOffset >= 0 && tail.getInt(endOffset) != END_OF_CENTRAL_SIGNATURE) {
+                --endOffset;
+            }
+            if (endOffset < 0
+                || (endOffset >= ZIP64_LOCATOR_SIZE && tail.getInt(endOffset - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR_SIGNATURE)) {
+                return null;
+            }
+
+            final int entryCount = Short.toUnsignedInt(tail.getShort(endOffset + 10));
+            final long directorySize = Integer.toUnsignedLong(tail.getInt(endOffset + 12));
+            final long directoryOffset = Integer.toUnsignedLong(tail.getInt(endOffset + 16));
+            final int commentLength = Short.toUnsignedInt(tail.getShort(endOffset + 20));
+            if (entryCount == ZIP64_MAGIC_SHORT || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC
+                || directoryOffset + directorySize > size
+                || endOffset + END_OF_CENTRAL_SIZE + commentLength > tailSize) {
+                return null;
+            }
+
+            final byte[] comment = new byte[commentLength];
+            tail.position(endOffset + END_OF_CENTRAL_SIZE);
+            tail.get(comment);
+
+            final ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+            final List<ByteBuffer> records = new ArrayList<>(entryCount);
+            final TreeMap<Long, Long> entryRanges = new TreeMap<>();
+            ByteBuffer manifestRecord = null;
+            int offset = 0;
+            for (int idx = 0; idx < entryCount; ++idx) {
+                if (offset + CENTRAL_HEADER_SIZE > directorySize || directory.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+                    return null;
+                }
+                final int nameLength = Short.toUnsignedInt(directory.getShort(offset + 28));
+                final int recordSize = CENTRAL_HEADER_SIZE
+                    + nameLength
+                    + Short.toUnsignedInt(directory.getShort(offset + 30))
+                    + Short.toUnsignedInt(directory.getShort(offset + 32));
+                if (offset + recordSize > directorySize) {
+                    return null;
+                }
+                final ByteBuffer record = slice(directory, offset, recordSize);
+                final long localOffset = Integer.toUnsignedLong(record.getInt(CENTRAL_HEADER_OFFSET));
+                if (localOffset >= directoryOffset || entryRanges.put(localOffset, localOffset) != null) {
+                    return null;
+                }
+                final byte[] name = new byte[nameLength];
+                ((ByteBuffer) record.duplicate().position(CENTRAL_HEADER_SIZE)).get(name);
+                if (MANIFEST_NAME.equalsIgnoreCase(new String(name, UTF_8))) {
+                    if (manifestRecord != null) {
+                        return null;
+                    }
+                    manifestRecord = record;
+                } else {
+                    records.add(record);
+                }
+                offset += recordSize;
+            }
+
+            // Each entry extends until the next one, or until the central directory.
+            // Any preamble before the first entry would separate our signature files
+            // from the start of the archive.
+            long end = directoryOffset;
+            for (Long start : entryRanges.descendingKeySet()) {
+                if (readFully(channel, start, Integer.BYTES).getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                    return null;
+                }
+                entryRanges.put(start, end);
+                end = start;
+            }
+            if (end != 0 && !entryRanges.isEmpty()) {
+                return null;
+            }
+            return new CentralDirectory(records, manifestRecord, entryRanges, comment);
+        }
+
+        private final List<ByteBuffer> records;
+        private final ByteBuffer manifestRecord;
+        private final Map<Long, Long> entryRanges;
+        private final byte[] comment;
+
+        private CentralDirectory(
+            @NotNull List<ByteBuffer> records,
+            @Nullable ByteBuffer manifestRecord,
+            @NotNull Map<Long, Long> entryRanges,
+            @NotNull byte[] comment
+        ) {
+            this.records = records;
+            this.manifestRecord = manifestRecord;
+            this.entryRanges = entryRanges;
+            this.comment = comment;
+        }
+
+        /**
+         * Creates the local headers and central directory records for these new files.
+         * Their offsets are relative to the start of the archive, where we will write them.
+         */
+        @NotNull
+        List<LocalEntry> toLocalEntries(@NotNull Map<String, byte[]> files) {
+            // Reuse the original manifest's timestamp, to keep our output reproducible.
+            final int dosTime = manifestRecord == null ? 0 : manifestRecord.getInt(12);
+            final List<LocalEntry> entries = new ArrayList<>(files.size());
+            long position = 0;
+            for (Map.Entry<String, byte[]> file : files.entrySet()) {
+                final byte[] name = file.getKey().getBytes(UTF_8);
+                final byte[] data = file.getValue();
+                final CRC32 crc = new CRC32();
+                crc.update(data, 0, data.length);
+                final byte[] compressed = deflate(data);
+
+                final ByteBuffer header = newBuffer(LOCAL_HEADER_SIZE + name.length)
+                    .putInt(LOCAL_HEADER_SIGNATURE)
+                    .putShort((short) VERSION_DEFLATED)
+                    .putShort((short) 0)
+                    .putShort((short) ZipEntry.DEFLATED)
+                    .putInt(dosTime)
+                    .putInt((int) crc.getValue())
+                    .putInt(compressed.length)
+                    .putInt(data.length)
+                    .putShort((short) name.length)
+                    .putShort((short) 0)
+                    .put(name);
+                final ByteBuffer record = newBuffer(CENTRAL_HEADER_SIZE + name.length)
+                    .putInt(CENTRAL_HEADER_SIGNATURE)
+                    .putShort((short) VERSION_DEFLATED)
+                    .putShort((short) VERSION_DEFLATED)
+                    .putShort((short) 0)
+                    .putShort((short) ZipEntry.DEFLATED)
+                    .putInt(dosTime)
+                    .putInt((int) crc.getValue())
+                    .putInt(compressed.length)
+                    .putInt(data.length)
+                    .putShort((short) name.length)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putShort((short) 0)
+                    .putInt(0)
+                    .putInt((int) position)
+                    .put(name);
+                final LocalEntry entry = new LocalEntry((ByteBuffer) header.flip(), compressed, (ByteBuffer) record.flip());
+                entries.add(entry);
+                position += entry.size();
+            }
+            return entries;
+        }
+
+        /**
+         * Writes these new entries, followed by every original entry except the manifest,
+         * and then a central directory that lists the new entries first.
+         * @return false if the signed archive would need ZIP64 records.
+         */
+        boolean write(
+            @NotNull FileChannel input,
+            @NotNull FileChannel output,
+            @NotNull List<LocalEntry> newEntries
+        ) throws IOException {
+            long position = 0;
+            for (LocalEntry entry : newEntries) {
+                position += entry.size();
+            }
+            final long manifestOffset = manifestRecord == null ? -1 : Integer.toUnsignedLong(manifestRecord.getInt(CENTRAL_HEADER_OFFSET));
+            final Map<Long, Long> newOffsets = new TreeMap<>();
+            for (Map.Entry<Long, Long> range : entryRanges.entrySet()) {
+                if (range.getKey() != manifestOffset) {
+                    newOffsets.put(range.getKey(), position);
+                    position += range.getValue() - range.getKey();
+                }
+            }
+
+            final List<ByteBuffer> newRecords = new ArrayList<>(newEntries.size() + records.size());
+            long directorySize = 0;
+            for (LocalEntry entry : newEntries) {
+                newRecords.add(entry.record);
+                directorySize += entry.record.remaining();
+            }
+            for (ByteBuffer record : records) {
+                final ByteBuffer newRecord = newBuffer(record.remaining()).put(record.duplicate());
+                newRecord.putInt(CENTRAL_HEADER_OFFSET, newOffsets.get(Integer.toUnsignedLong(record.getInt(CENTRAL_HEADER_OFFSET))).intValue());
+                newRecords.add((ByteBuffer) newRecord.flip());
+                directorySize += newRecord.remaining();
+            }
+            if (newRecords.size() >= ZIP64_MAGIC_SHORT || position >= ZIP64_MAGIC || directorySize >= ZIP64_MAGIC) {
+                return false;
+            }
+
+            for (LocalEntry entry : newEntries) {
+                writeFully(output, entry.header.duplicate());
+                writeFully(output, ByteBuffer.wrap(entry.data));
+            }
+            for (Map.Entry<Long, Long> range : entryRanges.entrySet()) {
+                if (range.getKey() != manifestOffset) {
+                    transferFully(input, range.getKey(), range.getValue() - range.getKey(), output);
+                }
+            }
+            for (ByteBuffer record : newRecords) {
+                writeFully(output, record.duplicate());
+            }
+
+            final ByteBuffer end = newBuffer(END_OF_CENTRAL_SIZE + comment.length)
+                .putInt(END_OF_CENTRAL_SIGNATURE)
+                .putShort((short) 0)
+                .putShort((short) 0)
+                .putShort((short) newRecords.size())
+                .putShort((short) newRecords.size())
+                .putInt((int) directorySize)
+                .putInt((int) position)
+                .putShort((short) comment.length)
+                .put(comment);
+            writeFully(output, (ByteBuffer) end.flip());
+            output.force(false);
+            return true;
+        }
+
+        @NotNull
+        private static byte[] deflate(@NotNull byte[] data) {
+            final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                final ByteArrayOutputStream output = new ByteArrayOutputStream(data.length / 2 + 64);
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                while (!deflater.finished()) {
+                    output.write(buffer, 0, deflater.deflate(buffer));
+                }
+                return output.toByteArray();
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @NotNull
+        private static ByteBuffer newBuffer(int capacity) {
+            return ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @NotNull
+        private static ByteBuffer slice(@NotNull ByteBuffer buffer, int offset, int length) {
+            final ByteBuffer duplicate = buffer.duplicate();
+            duplicate.position(offset).limit(offset + length);
+            return duplicate.slice().order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        @NotNull
+        private static ByteBuffer readFully(@NotNull FileChannel channel, long position, int length) throws IOException {
+            final ByteBuffer buffer = newBuffer(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) == EOF) {
+                    throw new IOException("Unexpected end of archive");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+
+        private static void writeFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+
+        private static void transferFully(
+            @NotNull FileChannel input,
+            long position,
+            long count,
+            @NotNull FileChannel output
+        ) throws IOException {
+            while (count > 0) {
+                final long transferred = input.transferTo(position, count, output);
+                if (transferred <= 0) {
+                    throw new IOException("Unexpected end of archive");
+                }
+                position += transferred;
+                count -= transferred;
+            }
+        }
+    }
+}
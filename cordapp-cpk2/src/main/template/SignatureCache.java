@@ -0,0 +1,322 @@
+package @root_package@.signing;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * !!! GENERATED FILE - DO NOT EDIT !!!
+ * See cordapp-cpk2/src/main/template/SignatureCache.java instead.
+ * <p>
+ * Remembers the jars we have already signed, keyed by the hash of the unsigned
+ * jar and of the options for ANT task "signjar". Signing an identical jar again
+ * with identical options restores the previously signed jar instead.
+ * <p>
+ * We also remember the hash of each signed jar, so that signing a jar "in place"
+ * a second time is a no-op. Setting the "force" option bypasses this cache.
+ * <p>
+ * Every miss hashes the unsigned jar and copies the signed jar into this cache,
+ * and so it only pays for jars that we expect to sign again unchanged. A jar
+ * that a task has only just written will always miss, and should be signed
+ * without this cache.
+ */
+public final class SignatureCache {
+    // These are the option keys for ANT task "signjar".
+    private static final String JAR = "jar";
+    private static final String SIGNEDJAR = "signedjar";
+    private static final String KEYSTORE = "keystore";
+    private static final String VERBOSE = "verbose";
+    private static final String FORCE = "force";
+    private static final Collection<String> IGNORED_OPTIONS = Arrays.asList(JAR, SIGNEDJAR, VERBOSE);
+
+    private static final String HASH_ALGORITHM = "SHA-256";
+    private static final String SIGNED_JAR_EXTENSION = ".jar";
+    private static final String ALREADY_SIGNED_EXTENSION = ".signed";
+    private static final int DEFAULT_MAX_ENTRIES = 64;
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final int BUFFER_SIZE = 8192;
+    private static final int EOF = -1;
+
+    /**
+     * Signs a single jar, e.g. by invoking ANT task "signjar".
+     */
+    @FunctionalInterface
+    public interface Signer {
+        void sign() throws IOException;
+    }
+
+    private final Path cacheDir;
+    private final int maxEntries;
+    private final long maxBytes;
+
+    public SignatureCache(@NotNull File cacheDir) {
+        this(cacheDir, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    public SignatureCache(@NotNull File cacheDir, int maxEntries, long maxBytes) {
+        this.cacheDir = cacheDir.toPath();
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Signs {@code input} into {@code output} using {@code signer}, unless we have
+     * signed this jar with these options before. The two files may be the same.
+     *
+     * @param options The options for ANT task "signjar".
+     * @return true if the signed jar was restored from this cache.
+     */
+    public boolean sign(
+        @NotNull File input,
+        @NotNull File output,
+        @NotNull Map<String, String> options,
+        @NotNull Signer signer
+    ) throws IOException {
+        if (Boolean.parseBoolean(options.get(FORCE))) {
+            signer.sign();
+            return false;
+        }
+
+        final Path inputPath = input.toPath();
+        final Path outputPath = output.toPath();
+        final byte[] optionsHash = hashOf(options);
+        final String unsignedKey = keyOf(inputPath, optionsHash);
+        if (restore(unsignedKey, inputPath, outputPath)) {
+            return true;
+        }
+
+        signer.sign();
+        Files.createDirectories(cacheDir);
+        final String signedKey = storeSigned(outputPath, cacheDir.resolve(unsignedKey + SIGNED_JAR_EXTENSION), optionsHash);
+        store(cacheDir.resolve(signedKey + ALREADY_SIGNED_EXTENSION));
+        evict();
+        return false;
+    }
+
+    /**
+     * Another build may evict these entries at any time, in
+     * which case we treat this as a cache miss instead.
+     */
+    private boolean restore(@NotNull String key, @NotNull Path input, @NotNull Path output) throws IOException {
+        final Path signedJar = cacheDir.resolve(key + SIGNED_JAR_EXTENSION);
+        try {
+            touch(signedJar);
+            restoreFrom(signedJar, output);
+            return true;
+        } catch (NoSuchFileException e) {
+            // Not in the cache.
+        }
+
+        final Path alreadySigned = cacheDir.resolve(key + ALREADY_SIGNED_EXTENSION);
+        try {
+            touch(alreadySigned);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!Files.exists(output) || !Files.isSameFile(input, output)) {
+            Files.copy(input, output, REPLACE_EXISTING);
+        }
+        return true;
+    }
+
+    /**
+     * Copies a cached signed jar via a temporary file, so that an
+     * eviction part-way through cannot leave {@code output} incomplete.
+     */
+    private static void restoreFrom(@NotNull Path signedJar, @NotNull Path output) throws IOException {
+        final Path target = output.toAbsolutePath();
+        final Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.copy(signedJar, temporary, REPLACE_EXISTING);
+            Files.move(temporary, target, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Copies the signed jar into this cache, hashing it as we go so that
+     * we need not read it again for its "already signed" key.
+     *
+     * @return The "already signed" key for this signed jar.
+     */
+    @NotNull
+    private String storeSigned(@NotNull Path signedJar, @NotNull Path target, @NotNull byte[] optionsHash) throws IOException {
+        final MessageDigest digest = newDigest();
+        final Path temporary = Files.createTempFile(cacheDir, target.getFileName().toString(), ".tmp");
+        try {
+            try (InputStream input = new DigestInputStream(Files.newInputStream(signedJar), digest)) {
+                Files.copy(input, temporary, REPLACE_EXISTING);
+            }
+            Files.move(temporary, target, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+        digest.update(optionsHash);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Writes an empty cache entry atomically, so that concurrent
+     * builds never observe an incomplete entry.
+     */
+    private void store(@NotNull Path target) throws IOException {
+        final Path temporary = Files.createTempFile(cacheDir, target.getFileName().toString(), ".tmp");
+        try {
+            Files.move(temporary, target, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Discard the least recently used entries beyond {@link #maxEntries},
+     * or once the entries occupy more than {@link #maxBytes} between them.
+     * Entries that another build is still reading may be impossible to
+     * delete on some platforms, and are left for a later eviction.
+     */
+    private void evict() throws IOException {
+        final List<Path> entries;
+        try (Stream<Path> files = Files.list(cacheDir)) {
+            entries = files.filter(SignatureCache::isEntry)
+                .sorted(Comparator.comparing(SignatureCache::lastModified).reversed())
+                .collect(Collectors.toList());
+        }
+        long totalBytes = 0;
+        int retained = 0;
+        for (Path entry : entries) {
+            totalBytes += size(entry);
+            if (retained < maxEntries && totalBytes <= maxBytes) {
+                ++retained;
+                continue;
+            }
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static long size(@NotNull Path path) {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static boolean isEntry(@NotNull Path path) {
+        final String fileName = path.getFileName().toString();
+        return fileName.endsWith(SIGNED_JAR_EXTENSION) || fileName.endsWith(ALREADY_SIGNED_EXTENSION);
+    }
+
+    @NotNull
+    private static FileTime lastModified(@NotNull Path path) {
+        try {
+            return Files.getLastModifiedTime(path);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private static void touch(@NotNull Path path) throws IOException {
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    @NotNull
+    private static String keyOf(@NotNull Path jar, @NotNull byte[] optionsHash) throws IOException {
+        final MessageDigest digest = newDigest();
+        try (InputStream input = Files.newInputStream(jar)) {
+            update(digest, input);
+        }
+        digest.update(optionsHash);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Hash the signing options, including the contents of any
+     * local keystore file in case it has been regenerated.
+     */
+    @NotNull
+    private static byte[] hashOf(@NotNull Map<String, String> options) throws IOException {
+        final MessageDigest digest = newDigest();
+        for (Map.Entry<String, String> option : new TreeMap<>(options).entrySet()) {
+            if (!IGNORED_OPTIONS.contains(option.getKey())) {
+                digest.update((option.getKey() + '=' + option.getValue() + '\n').getBytes(UTF_8));
+            }
+        }
+        final Path keyStore = toLocalPath(options.get(KEYSTORE));
+        if (keyStore != null && Files.isRegularFile(keyStore)) {
+            try (InputStream input = Files.newInputStream(keyStore)) {
+                update(digest, input);
+            }
+        }
+        return digest.digest();
+    }
+
+    @Nullable
+    private static Path toLocalPath(@Nullable String location) {
+        if (location == null) {
+            return null;
+        }
+        try {
+            final URI uri = URI.create(location);
+            // Single-letter "schemes" are really Windows drive letters.
+            if (uri.isAbsolute() && uri.getScheme().length() > 1) {
+                return "file".equals(uri.getScheme()) ? Paths.get(uri) : null;
+            }
+        } catch (IllegalArgumentException ignored) {
+        }
+        return Paths.get(location);
+    }
+
+    private static void update(@NotNull MessageDigest digest, @NotNull InputStream input) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int length;
+        while ((length = input.read(buffer)) != EOF) {
+            digest.update(buffer, 0, length);
+        }
+    }
+
+    @NotNull
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(HASH_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " not available", e);
+        }
+    }
+
+    @NotNull
+    private static String toHex(@NotNull byte[] bytes) {
+        final StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0x0f, 16))
+                .append(Character.forDigit(b & 0x0f, 16));
+        }
+        return builder.toString();
+    }
+}
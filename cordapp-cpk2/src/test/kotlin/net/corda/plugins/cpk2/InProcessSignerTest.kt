@@ -0,0 +1,86 @@
+package net.corda.plugins.cpk2
+
+import net.corda.plugins.cpk2.signing.SigningOptions
+import net.corda.plugins.cpk2.signing.SigningOptions.Key
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.junit.jupiter.params.ParameterizedTest
+import org.junit.jupiter.params.provider.ValueSource
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.jar.JarFile
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class InProcessSignerTest {
+    private companion object {
+        private val DEFAULT_OPTIONS = mapOf(
+            Key.ALIAS to "cordacodesign",
+            Key.STOREPASS to "cordacadevpass",
+            Key.VERBOSE to "false",
+            Key.STRICT to "false",
+            Key.LAZY to "false",
+            Key.PRESERVELASTMODIFIED to "false"
+        )
+    }
+
+    @TempDir
+    lateinit var testDir: Path
+
+    @Test
+    fun testCanSignDefaultOptions() {
+        assertThat(InProcessSigner.canSign(DEFAULT_OPTIONS)).isTrue
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = [ Key.STRICT, Key.VERBOSE, Key.LAZY, Key.PRESERVELASTMODIFIED ])
+    fun testCannotSignWithFlag(flag: String) {
+        assertThat(InProcessSigner.canSign(DEFAULT_OPTIONS + (flag to "true"))).isFalse
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = [ Key.MAXMEMORY, Key.EXECUTABLE, Key.TSACERT, Key.TSAPROXYHOST, Key.TSAPROXYPORT ])
+    fun testCannotSignWithOption(option: String) {
+        assertThat(InProcessSigner.canSign(DEFAULT_OPTIONS + (option to "value"))).isFalse
+    }
+
+    @Test
+    fun testSignWithRelativeKeyStore() {
+        assumeTrue(InProcessSigner.canSign(DEFAULT_OPTIONS), "JarSigner API not available")
+        val projectDir = Files.createDirectory(testDir.resolve("project"))
+        val keyStore = Files.createDirectory(projectDir.resolve("keys")).resolve("dev.p12")
+        InProcessSignerTest::class.java.classLoader.getResourceAsStream(SigningOptions.DEFAULT_KEYSTORE)!!.use { input ->
+            Files.copy(input, keyStore)
+        }
+        val options = InProcessSigner.resolveKeyStore(DEFAULT_OPTIONS + mapOf(
+            Key.KEYSTORE to "keys/dev.p12",
+            Key.STORETYPE to "PKCS12",
+            Key.SIGFILE to "cordapp"
+        ), projectDir.toFile())
+        assertThat(options[Key.KEYSTORE]).isEqualTo(keyStore.toFile().toURI().toString())
+
+        val jar = testDir.resolve("cordapp.jar")
+        ZipOutputStream(Files.newOutputStream(jar)).use { zip ->
+            zip.putNextEntry(ZipEntry("com/example/Example.class"))
+            zip.write("example".toByteArray())
+        }
+        val signedJar = testDir.resolve("cordapp-signed.jar")
+        InProcessSigner(options).sign(jar.toFile(), signedJar.toFile())
+        JarFile(signedJar.toFile()).use { signed ->
+            val entry = signed.getJarEntry("com/example/Example.class")
+            signed.getInputStream(entry).use { it.readBytes() }
+            assertThat(entry.codeSigners).isNotEmpty
+        }
+    }
+
+    @Test
+    fun testKeepAbsoluteKeyStore() {
+        val keyStore = testDir.resolve("dev.p12")
+        val options = mapOf(Key.KEYSTORE to keyStore.toUri().toString())
+        assertThat(InProcessSigner.resolveKeyStore(options.toMutableMap(), testDir.resolve("project").toFile())).isEqualTo(options)
+        val path = mapOf(Key.KEYSTORE to keyStore.toString())
+        assertThat(InProcessSigner.resolveKeyStore(path.toMutableMap(), testDir.resolve("project").toFile())).isEqualTo(path)
+    }
+}
@@ -0,0 +1,201 @@
+package net.corda.plugins.cpk2
+
+import net.corda.plugins.cpk2.signing.SigningOptions.Key
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Assumptions.assumeTrue
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.InputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.TimeUnit.MINUTES
+import java.util.jar.Attributes
+import java.util.jar.JarFile
+import java.util.jar.JarInputStream
+import java.util.jar.Manifest
+import java.util.zip.CRC32
+import java.util.zip.ZipEntry
+import java.util.zip.ZipEntry.STORED
+import java.util.zip.ZipInputStream
+import java.util.zip.ZipOutputStream
+
+class SinglePassSignerTest {
+    private companion object {
+        private const val MAIN_ATTRIBUTE = "Bundle-SymbolicName"
+        private const val SYMBOLIC_NAME = "com.example.signing"
+
+        private val OPTIONS = mapOf(
+            Key.ALIAS to "cordacodesign",
+            Key.STOREPASS to "cordacadevpass",
+            Key.STORETYPE to "PKCS12",
+            Key.SIGFILE to "cordapp"
+        )
+
+        private fun InputStream.consume() {
+            val buffer = ByteArray(8192)
+            while (read(buffer) != -1) {
+                continue
+            }
+        }
+    }
+
+    @TempDir
+    lateinit var testDir: Path
+
+    private lateinit var signer: InProcessSigner
+    private lateinit var jar: Path
+
+    @BeforeEach
+    fun setup() {
+        assumeTrue(InProcessSigner.canSign(OPTIONS), "JarSigner API not available")
+        signer = InProcessSigner(OPTIONS)
+        jar = testDir.resolve("cordapp.jar")
+    }
+
+    private fun writeJar(jar: Path, entryCount: Int = 20) {
+        val manifest = Manifest().apply {
+            mainAttributes[Attributes.Name.MANIFEST_VERSION] = "1.0"
+            mainAttributes.putValue(MAIN_ATTRIBUTE, SYMBOLIC_NAME)
+        }
+        ZipOutputStream(Files.newOutputStream(jar)).use { zip ->
+            zip.putNextEntry(ZipEntry("META-INF/"))
+            zip.putNextEntry(ZipEntry(JarFile.MANIFEST_NAME))
+            manifest.write(zip)
+
+            val stored = "stored contents".toByteArray()
+            zip.putNextEntry(ZipEntry("com/example/stored.txt").apply {
+                method = STORED
+                size = stored.size.toLong()
+                crc = CRC32().apply { update(stored) }.value
+            })
+            zip.write(stored)
+
+            zip.putNextEntry(ZipEntry("com/example/"))
+            for (idx in 0 until entryCount) {
+                // Deflated entries have data descriptors.
+                zip.putNextEntry(ZipEntry("com/example/Class$idx.class"))
+                zip.write("class $idx ".repeat(idx % 8 + 1).toByteArray())
+            }
+        }
+    }
+
+    private fun signSinglePass(jar: Path): Boolean {
+        return SinglePassSigner.sign(signer, null, jar.toFile())
+    }
+
+    @Test
+    fun testJarFileVerifies() {
+        writeJar(jar)
+        assertThat(signSinglePass(jar)).isTrue
+
+        JarFile(jar.toFile(), true).use { jarFile ->
+            assertThat(jarFile.manifest.mainAttributes.getValue(MAIN_ATTRIBUTE)).isEqualTo(SYMBOLIC_NAME)
+            val entries = jarFile.entries().toList().filterNot { it.isDirectory || it.name.startsWith("META-INF/") }
+            assertThat(entries).hasSize(21)
+            for (entry in entries) {
+                jarFile.getInputStream(entry).use { it.consume() }
+                assertThat(entry.codeSigners).describedAs(entry.name).isNotEmpty
+            }
+        }
+    }
+
+    @Test
+    fun testJarInputStreamVerifies() {
+        writeJar(jar)
+        assertThat(signSinglePass(jar)).isTrue
+
+        JarInputStream(Files.newInputStream(jar), true).use { input ->
+            assertThat(input.manifest?.mainAttributes?.getValue(MAIN_ATTRIBUTE)).isEqualTo(SYMBOLIC_NAME)
+            var count = 0
+            while (true) {
+                val entry = input.nextJarEntry ?: break
+                input.consume()
+                if (!entry.isDirectory && !entry.name.startsWith("META-INF/")) {
+                    assertThat(entry.codeSigners).describedAs(entry.name).isNotEmpty
+                    ++count
+                }
+            }
+            assertThat(count).isEqualTo(21)
+        }
+    }
+
+    @Test
+    fun testSignatureFilesAreFirst() {
+        writeJar(jar)
+        assertThat(signSinglePass(jar)).isTrue
+
+        val names = ZipInputStream(Files.newInputStream(jar)).use { input ->
+            generateSequence { input.nextEntry?.name }.toList()
+        }
+        assertThat(names.take(3)).containsExactly(JarFile.MANIFEST_NAME, "META-INF/CORDAPP.SF", "META-INF/CORDAPP.EC")
+        assertThat(names).containsOnlyOnce(JarFile.MANIFEST_NAME)
+    }
+
+    @Test
+    fun testJarSignerVerifies() {
+        val jarSigner = Paths.get(System.getProperty("java.home"), "bin", "jarsigner")
+        assumeTrue(Files.isExecutable(jarSigner) || Files.isExecutable(jarSigner.resolveSibling("jarsigner.exe")))
+
+        writeJar(jar)
+        assertThat(signSinglePass(jar)).isTrue
+
+        val process = ProcessBuilder(jarSigner.toString(), "-verify", jar.toString())
+            .redirectErrorStream(true)
+            .start()
+        val output = process.inputStream.bufferedReader().use { it.readText() }
+        assertThat(process.waitFor(1, MINUTES)).isTrue
+        assertThat(process.exitValue()).describedAs(output).isZero
+        assertThat(output).contains("jar verified.")
+    }
+
+    @Test
+    fun testAlreadySignedJarIsUnchanged() {
+        writeJar(jar)
+        signer.sign(jar.toFile(), jar.toFile())
+        val signed = Files.readAllBytes(jar)
+
+        assertThat(signSinglePass(jar)).isFalse
+        assertThat(jar).hasBinaryContent(signed)
+    }
+
+    @Test
+    fun testZip64JarIsUnchanged() {
+        // ZipOutputStream writes ZIP64 records for this many entries.
+        writeJar(jar, 0xffff)
+        val unsigned = Files.readAllBytes(jar)
+
+        assertThat(signSinglePass(jar)).isFalse
+        assertThat(jar).hasBinaryContent(unsigned)
+    }
+
+    @Test
+    fun testTruncatedJarIsUnchanged() {
+        writeJar(jar)
+        val truncated = Files.readAllBytes(jar).let { it.copyOf(it.size - 10) }
+        Files.write(jar, truncated)
+
+        assertThat(signSinglePass(jar)).isFalse
+        assertThat(jar).hasBinaryContent(truncated)
+    }
+
+    @Test
+    fun testCorruptEntryOffsetIsUnchanged() {
+        writeJar(jar)
+        val corrupt = Files.readAllBytes(jar)
+        // Overwrite the first local header's signature.
+        corrupt[0] = 0
+        Files.write(jar, corrupt)
+
+        assertThat(signSinglePass(jar)).isFalse
+        assertThat(jar).hasBinaryContent(corrupt)
+    }
+
+    @Test
+    fun testNoTemporaryFilesRemain() {
+        writeJar(jar)
+        assertThat(signSinglePass(jar)).isTrue
+        assertThat(Files.list(testDir).use { it.toArray() }).containsExactly(jar)
+    }
+}
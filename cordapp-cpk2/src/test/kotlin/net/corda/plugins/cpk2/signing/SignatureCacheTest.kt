@@ -0,0 +1,172 @@
+package net.corda.plugins.cpk2.signing
+
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.io.File
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.stream.Collectors.toList
+
+class SignatureCacheTest {
+    private companion object {
+        private val OPTIONS = mapOf(
+            "alias" to "cordacodesign",
+            "storepass" to "cordacadevpass"
+        )
+    }
+
+    @TempDir
+    lateinit var testDir: Path
+
+    private lateinit var cacheDir: File
+    private lateinit var input: File
+    private lateinit var output: File
+    private var signatures = 0
+
+    @BeforeEach
+    fun setup() {
+        cacheDir = testDir.resolve("cache").toFile()
+        input = Files.write(testDir.resolve("input.jar"), "unsigned".toByteArray()).toFile()
+        output = testDir.resolve("output.jar").toFile()
+    }
+
+    private fun SignatureCache.signJar(input: File, output: File, options: Map<String, String> = OPTIONS): Boolean {
+        return sign(input, output, options) {
+            ++signatures
+            Files.write(output.toPath(), ("signed " + String(Files.readAllBytes(input.toPath()))).toByteArray())
+        }
+    }
+
+    private fun cacheEntries(): List<Path> {
+        return Files.list(cacheDir.toPath()).use { it.collect(toList()) }
+    }
+
+    @Test
+    fun testMissThenHit() {
+        val cache = SignatureCache(cacheDir)
+        assertThat(cache.signJar(input, output)).isFalse
+        assertThat(signatures).isEqualTo(1)
+
+        Files.delete(output.toPath())
+        assertThat(cache.signJar(input, output)).isTrue
+        assertThat(signatures).isEqualTo(1)
+        assertThat(output).hasContent("signed unsigned")
+    }
+
+    @Test
+    fun testChangedJarIsMiss() {
+        val cache = SignatureCache(cacheDir)
+        cache.signJar(input, output)
+        Files.write(input.toPath(), "changed".toByteArray())
+
+        assertThat(cache.signJar(input, output)).isFalse
+        assertThat(signatures).isEqualTo(2)
+        assertThat(output).hasContent("signed changed")
+    }
+
+    @Test
+    fun testChangedOptionsIsMiss() {
+        val cache = SignatureCache(cacheDir)
+        cache.signJar(input, output)
+
+        assertThat(cache.signJar(input, output, OPTIONS + ("sigfile" to "OTHER"))).isFalse
+        assertThat(signatures).isEqualTo(2)
+    }
+
+    @Test
+    fun testIgnoredOptionsAreHit() {
+        val cache = SignatureCache(cacheDir)
+        cache.signJar(input, output)
+
+        assertThat(cache.signJar(input, output, OPTIONS + ("verbose" to "true"))).isTrue
+        assertThat(signatures).isEqualTo(1)
+    }
+
+    @Test
+    fun testChangedKeyStoreIsMiss() {
+        val keyStore = Files.write(testDir.resolve("keystore.p12"), "first".toByteArray())
+        val options = OPTIONS + ("keystore" to keyStore.toString())
+        val cache = SignatureCache(cacheDir)
+        cache.signJar(input, output, options)
+        assertThat(cache.signJar(input, output, options)).isTrue
+
+        Files.write(keyStore, "second".toByteArray())
+        assertThat(cache.signJar(input, output, options)).isFalse
+        assertThat(signatures).isEqualTo(2)
+    }
+
+    @Test
+    fun testForceBypassesCache() {
+        val options = OPTIONS + ("force" to "true")
+        val cache = SignatureCache(cacheDir)
+        cache.signJar(input, output, options)
+
+        assertThat(cache.signJar(input, output, options)).isFalse
+        assertThat(signatures).isEqualTo(2)
+    }
+
+    @Test
+    fun testSigningInPlaceTwiceIsNoOp() {
+        val cache = SignatureCache(cacheDir)
+        assertThat(cache.signJar(input, input)).isFalse
+        assertThat(cache.signJar(input, input)).isTrue
+        assertThat(signatures).isEqualTo(1)
+        assertThat(input).hasContent("signed unsigned")
+    }
+
+    @Test
+    fun testEvictsLeastRecentlyUsed() {
+        val cache = SignatureCache(cacheDir, 2, Long.MAX_VALUE)
+        for (idx in 1..3) {
+            Files.write(input.toPath(), "jar $idx".toByteArray())
+            cache.signJar(input, output)
+        }
+        assertThat(cacheEntries()).hasSize(2)
+    }
+
+    @Test
+    fun testEvictedEntryIsMiss() {
+        val cache = SignatureCache(cacheDir)
+        cache.signJar(input, output)
+
+        // Another build evicts this jar's entries.
+        cacheEntries().forEach(Files::delete)
+
+        assertThat(cache.signJar(input, output)).isFalse
+        assertThat(signatures).isEqualTo(2)
+        assertThat(output).hasContent("signed unsigned")
+    }
+
+    @Test
+    fun testEvictsBeyondMaxBytes() {
+        // Each jar leaves a signed copy of 12 bytes and an empty "already signed" entry.
+        val cache = SignatureCache(cacheDir, Int.MAX_VALUE, 30)
+        for (idx in 1..3) {
+            Files.write(input.toPath(), "jar $idx".toByteArray())
+            cache.signJar(input, output)
+            // Give each jar's entries a distinct last modified time.
+            Thread.sleep(20)
+        }
+        assertThat(cacheEntries().sumOf(Files::size)).isLessThanOrEqualTo(30)
+        assertThat(cacheEntries().filter { it.fileName.toString().endsWith(".jar") }).hasSize(2)
+
+        // The most recent jar is still cached, but the first is not.
+        assertThat(cache.signJar(input, output)).isTrue
+        Files.write(input.toPath(), "jar 1".toByteArray())
+        assertThat(cache.signJar(input, output)).isFalse
+        assertThat(signatures).isEqualTo(4)
+    }
+
+    @Test
+    fun testSignedJarIsAlreadySigned() {
+        val cache = SignatureCache(cacheDir)
+        cache.signJar(input, output)
+
+        // Signing the signed jar in place again needs no signer.
+        assertThat(cache.signJar(output, output)).isTrue
+        assertThat(signatures).isEqualTo(1)
+        assertThat(output).hasContent("signed unsigned")
+    }
+}
@@ -1,6 +1,6 @@
 package net.corda.plugins
 
-import net.corda.plugins.SignJar.Companion.sign
+import net.corda.plugins.SignJar.Companion.signWithoutCache
 import org.gradle.api.*
 import org.gradle.api.artifacts.Configuration
 import org.gradle.api.artifacts.Dependency
@@ -95,7 +95,7 @@ class CordappPlugin @Inject constructor(private val objects: ObjectFactory): Plu
                 }
             }.doLast {
                 if (cordapp.signing.enabled.get()) {
-                    sign(project, cordapp.signing, it.outputs.files.singleFile)
+                    signWithoutCache(project, cordapp.signing, it.outputs.files.singleFile)
                 } else {
                     it.logger.info("CorDapp JAR signing is disabled, the CorDapp's contracts will not use signature constraints.")
                 }
@@ -1,5 +1,6 @@
 package net.corda.plugins
 
+import net.corda.plugins.cordapp.signing.SignatureCache
 import net.corda.plugins.cordapp.signing.SigningOptions
 import org.gradle.api.DefaultTask
 import org.gradle.api.InvalidUserDataException
@@ -26,7 +27,19 @@ open class SignJar : DefaultTask() {
     companion object {
         private const val DUMMY_VALUE = "****"
 
+        private const val SIGNATURE_CACHE_DIR = "tmp/signatures"
+
         fun sign(project: Project, signing: Signing, file: File) {
+            val cache = SignatureCache(File(project.buildDir, SIGNATURE_CACHE_DIR))
+            if (cache.sign(file, file, signing.options.toSignJarOptionsMap()) { signWithoutCache(project, signing, file) }) {
+                project.logger.info("Restored signed {} from signature cache", file.name)
+            }
+        }
+
+        /**
+         * Signs a jar that a task has only just written, which would always miss the [SignatureCache].
+         */
+        fun signWithoutCache(project: Project, signing: Signing, file: File) {
             val options = signing.options.toSignJarOptionsMap()
             if (signing.options.hasDefaultOptions()) {
                 project.logger.info("CorDapp JAR signing with the default Corda development key, suitable for Corda running in development mode only.")
@@ -3,22 +3,25 @@ package net.corda.plugins
 import com.typesafe.config.ConfigRenderOptions
 import net.corda.plugins.Cordformation.Companion.CORDA_CPK_PLUGIN_ID
 import net.corda.plugins.Cordformation.Companion.DEPLOY_CORDAPP_CONFIGURATION_NAME
+import net.corda.plugins.cordformation.signing.SignatureCache
 import net.corda.plugins.cordformation.signing.SigningOptions
-import net.corda.plugins.cordformation.signing.SigningOptions.Companion.DEFAULT_KEYSTORE_EXTENSION
-import net.corda.plugins.cordformation.signing.SigningOptions.Companion.DEFAULT_KEYSTORE_FILE
+import net.corda.plugins.cordformation.signing.SigningOptions.DEFAULT_KEYSTORE_EXTENSION
+import net.corda.plugins.cordformation.signing.SigningOptions.DEFAULT_KEYSTORE_FILE
 import org.gradle.api.Action
 import org.gradle.api.DefaultTask
-import org.gradle.api.InvalidUserCodeException
 import org.gradle.api.InvalidUserDataException
 import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.file.FileCollection
 import org.gradle.api.file.FileSystemOperations
 import org.gradle.api.file.ProjectLayout
 import org.gradle.api.model.ObjectFactory
 import org.gradle.api.plugins.JavaPluginConvention
+import org.gradle.api.provider.Property
 import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.Nested
 import org.gradle.api.tasks.SourceSet.MAIN_SOURCE_SET_NAME
+import org.gradle.workers.WorkerExecutor
 import java.io.File
 import java.lang.reflect.InvocationTargetException
 import java.net.URLClassLoader
@@ -26,6 +29,13 @@ import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
 import java.security.Security
+import java.util.Locale
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 
 /**
  * Creates nodes based on the configuration of this task in the gradle configuration DSL.
@@ -36,12 +46,15 @@ import java.security.Security
 open class Baseform(
     @JvmField protected val objects: ObjectFactory,
     @JvmField protected val fs: FileSystemOperations,
-    @JvmField protected val layout: ProjectLayout
+    @JvmField protected val layout: ProjectLayout,
+    @JvmField protected val workers: WorkerExecutor
 ) : DefaultTask() {
 
     protected companion object {
         const val nodeJarName = "corda.jar"
         const val GROUP_NAME = "Cordformation"
+        const val SIGNATURE_CACHE_DIR = "signatures"
+        const val FILE_STORE_DIR = ".store"
     }
 
     init {
@@ -100,6 +113,83 @@ open class Baseform(
         _nodeDefaults = action
     }
 
+    /**
+     * The maximum number of nodes to assemble concurrently. This includes
+     * running each node's database schema migrations, whose output is
+     * written to that node's own log file. Defaults to one node at a time.
+     */
+    @get:Internal
+    val parallelism: Property<Int> = objects.property(Int::class.java).convention(1)
+
+    fun parallelism(parallelism: Int) {
+        this.parallelism.set(parallelism)
+    }
+
+    /**
+     * The maximum number of nodes whose database schema migrations can run
+     * concurrently, after all the nodes have been assembled. Each migration
+     * launches its own JVM. Defaults to [parallelism].
+     */
+    @get:Internal
+    val migrationParallelism: Property<Int> = objects.property(Int::class.java).convention(parallelism)
+
+    fun migrationParallelism(migrationParallelism: Int) {
+        this.migrationParallelism.set(migrationParallelism)
+    }
+
+    /**
+     * Run the NetworkBootstrapper inside a Gradle worker process instead of
+     * the Gradle daemon. Gradle reuses this process for later builds, which
+     * avoids reloading the NetworkBootstrapper every time.
+     */
+    @get:Internal
+    val forkBootstrapper: Property<Boolean> = objects.property(Boolean::class.java).convention(false)
+
+    fun forkBootstrapper(forkBootstrapper: Boolean) {
+        this.forkBootstrapper.set(forkBootstrapper)
+    }
+
+    /**
+     * How to install CorDapps, drivers, the webserver and the Corda JAR into each node's
+     * directory. Defaults to [InstallMode.COPY].
+     */
+    @get:Internal
+    val installMode: Property<InstallMode> = objects.property(InstallMode::class.java).convention(InstallMode.COPY)
+
+    fun installMode(installMode: String) {
+        this.installMode.set(InstallMode.valueOf(installMode.toUpperCase(Locale.ROOT)))
+    }
+
+    private val fileInstaller by lazy {
+        FileInstaller(directory.dir(FILE_STORE_DIR).get().asFile.toPath(), installMode.get(), logger)
+    }
+
+    /**
+     * Links [source] into [targetDir] according to [installMode].
+     *
+     * @return false if the caller must copy this file instead.
+     */
+    internal fun linkFile(source: File, targetDir: File, targetName: String = source.name): Boolean {
+        return fileInstaller.link(source.toPath(), targetDir.toPath(), targetName)
+    }
+
+    /**
+     * Deletes any files from the shared store that no node links to any more.
+     */
+    protected fun pruneFileStore() {
+        fileInstaller.prune(directory.asPath)
+    }
+
+    /**
+     * Every node finds its CorDapps using this same index, so that
+     * we only need to scan the deployed CorDapps' dependencies once.
+     */
+    private val cordappIndex by lazy {
+        CordappIndex(project.configuration(DEPLOY_CORDAPP_CONFIGURATION_NAME).resolvedConfiguration.firstLevelModuleDependencies)
+    }
+
+    internal fun findCordappFiles(cordapp: Cordapp): Set<File> = cordappIndex.filesFor(cordapp)
+
     /**
      * Configuration for keystore generation and JAR signing.
      */
@@ -140,14 +230,17 @@ open class Baseform(
      */
     private fun getNodeByName(name: String): Node? = nodes.firstOrNull { it.name == name }
 
+    private fun networkBootstrapperClasspath(): FileCollection {
+        val plugin = project.convention.getPlugin(JavaPluginConvention::class.java)
+        return plugin.sourceSets.getByName(MAIN_SOURCE_SET_NAME).runtimeClasspath
+    }
+
     /**
      * The NetworkBootstrapper needn't be compiled until just before our build method,
      * so we load it manually via sourceSets.main.runtimeClasspath.
      */
     private fun createNetworkBootstrapperLoader(): URLClassLoader {
-        val plugin = project.convention.getPlugin(JavaPluginConvention::class.java)
-        val classpath = plugin.sourceSets.getByName(MAIN_SOURCE_SET_NAME).runtimeClasspath
-        val urls = classpath.files.map { it.toURI().toURL() }.toTypedArray()
+        val urls = networkBootstrapperClasspath().files.map { it.toURI().toURL() }.toTypedArray()
         // This classloader should be self-contained. Don't assign Gradle's classloader as its parent.
         return URLClassLoader(urls, null)
     }
@@ -167,13 +260,131 @@ open class Baseform(
         }
     }
 
-    internal fun initializeConfiguration() {
-        deleteRootDir()
+    /**
+     * The network bootstrapper copies the Corda JAR into every node's directory.
+     * Replaces those copies with links into the shared store, unless [installMode]
+     * is [InstallMode.COPY].
+     */
+    protected fun linkCordaJars() {
+        if (installMode.get() == InstallMode.COPY) {
+            return
+        }
+        val cordaJar = Cordformation.verifyAndGetRuntimeJar(project, "corda")
+        forEachNode { node ->
+            if (File(node.nodeDir, nodeJarName).isFile && !linkFile(cordaJar, node.nodeDir, nodeJarName)) {
+                fs.copy {
+                    it.apply {
+                        from(cordaJar)
+                        into(node.nodeDir)
+                        rename(cordaJar.name, nodeJarName)
+                        fileMode = Cordformation.executableFileMode
+                    }
+                }
+            }
+        }
+    }
+
+    internal fun initializeConfiguration(deleteExisting: Boolean = true) {
+        if (deleteExisting) {
+            deleteRootDir()
+        }
         nodes.forEach {
             it.rootDir(directory.asFile.get())
         }
     }
 
+    /**
+     * Applies [action] to each of [targets], assembling up to [parallelism] nodes concurrently.
+     * The [action] must only modify its own node's directory.
+     */
+    protected fun forEachNode(action: (Node) -> Unit) = forEachNode(nodes, action)
+
+    protected fun forEachNode(targets: List<Node>, action: (Node) -> Unit) {
+        val threads = parallelism.get().coerceAtMost(targets.size)
+        if (threads <= 1) {
+            targets.forEach(action)
+            return
+        }
+
+        targets.forEach(Node::resolveDependencies)
+        val failures = runConcurrently(targets, threads, "node", action).filterNotNull()
+        if (failures.isNotEmpty()) {
+            throw failures.first().apply {
+                failures.drop(1).forEach(::addSuppressed)
+            }
+        }
+    }
+
+    /**
+     * Runs the database schema migrations for [targets], up to [migrationParallelism]
+     * nodes at once. Each node's migration writes to that node's own log file. We wait
+     * for every migration to finish, and report each node's outcome, before failing.
+     */
+    protected fun runSchemaMigrations(targets: List<Node>) {
+        val migrating = targets.filter { it.runSchemaMigration }
+        if (migrating.isEmpty()) {
+            return
+        }
+
+        val threads = migrationParallelism.get().coerceIn(1, migrating.size)
+        val durations = ConcurrentHashMap<Node, Long>()
+        val failures = runConcurrently(migrating, threads, "migration") { node ->
+            val startTime = System.nanoTime()
+            try {
+                node.runSchemaMigration()
+            } finally {
+                durations[node] = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)
+            }
+        }
+
+        migrating.zip(failures).forEach { (node, failure) ->
+            if (failure == null) {
+                logger.lifecycle("Schema migration for {} succeeded in {} ms", node.name, durations[node])
+            } else {
+                logger.error("Schema migration for {} failed after {} ms: {}", node.name, durations[node], failure.message)
+            }
+        }
+        val errors = failures.filterNotNull()
+        if (errors.isNotEmpty()) {
+            throw InvalidUserDataException("Schema migration failed for ${errors.size} of ${migrating.size} node(s).").apply {
+                errors.forEach(::addSuppressed)
+            }
+        }
+    }
+
+    /**
+     * Applies [action] to each of [targets] using a pool of [threads] threads.
+     *
+     * @return Each target's failure, or `null` if its action succeeded.
+     */
+    private fun runConcurrently(targets: List<Node>, threads: Int, purpose: String, action: (Node) -> Unit): List<Throwable?> {
+        val executor = Executors.newFixedThreadPool(threads, NodeThreadFactory("$name-$purpose"))
+        try {
+            return targets.map { node ->
+                executor.submit { action(node) }
+            }.map { future ->
+                try {
+                    future.get()
+                    null
+                } catch (e: ExecutionException) {
+                    e.cause ?: e
+                }
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private class NodeThreadFactory(private val namePrefix: String) : ThreadFactory {
+        private val counter = AtomicInteger()
+
+        override fun newThread(runnable: Runnable): Thread {
+            return Thread(runnable, "$namePrefix-${counter.incrementAndGet()}").apply {
+                isDaemon = true
+            }
+        }
+    }
+
     private fun deleteRootDir() {
         logger.lifecycle("Deleting {}", directory.get())
         fs.delete { spec ->
@@ -216,6 +427,9 @@ open class Baseform(
             }
         }
 
+        // Key the signature cache on the options before we substitute a temporary keystore.
+        val signatureCache = SignatureCache(File(temporaryDir, SIGNATURE_CACHE_DIR))
+        val cacheOptions = signing.options.signJarOptions.get()
         val signJarOptions = signing.options.signJarOptions.get()
         if (useDefaultKeyStore) {
             val keyStorePath = File.createTempFile(DEFAULT_KEYSTORE_FILE, DEFAULT_KEYSTORE_EXTENSION, temporaryDir).let {
@@ -229,27 +443,43 @@ open class Baseform(
         val jarsToSign = mutableListOf(project.tasks.getByName(SigningOptions.Key.JAR).outputs.files.singleFile.toPath()) +
                 if (signing.all.get()) nodes.flatMap(Node::getCordappList).map(Node.ResolvedCordapp::jarFile).distinct() else emptyList()
         jarsToSign.forEach {
-            signJarOptions[SigningOptions.Key.JAR] = it.toString()
-            try{
-                ant.invokeMethod("signjar", signJarOptions)
-            }catch (e: Exception){
-                throw InvalidUserDataException("Exception while signing ${it.fileName}, " +
-                        "ensure the 'cordapp.signing.options' entry contains correct keyStore configuration, " +
-                        "or disable signing by 'cordapp.signing.enabled false'. " +
-                        if (logger.isInfoEnabled || logger.isDebugEnabled) "Search for 'ant:signjar' in log output."
-                        else "Run with --info or --debug option and search for 'ant:signjar' in log output. ", e)
+            val jar = it.toFile()
+            val restored = signatureCache.sign(jar, jar, cacheOptions) {
+                signJarOptions[SigningOptions.Key.JAR] = it.toString()
+                try {
+                    ant.invokeMethod("signjar", signJarOptions)
+                } catch (e: Exception) {
+                    throw InvalidUserDataException("Exception while signing ${it.fileName}, " +
+                            "ensure the 'cordapp.signing.options' entry contains correct keyStore configuration, " +
+                            "or disable signing by 'cordapp.signing.enabled false'. " +
+                            if (logger.isInfoEnabled || logger.isDebugEnabled) "Search for 'ant:signjar' in log output."
+                            else "Run with --info or --debug option and search for 'ant:signjar' in log output. ", e)
+                }
+            }
+            if (restored) {
+                logger.info("Restored signed {} from signature cache", it.fileName)
             }
         }
     }
 
     protected fun bootstrapNetwork() {
+        val allCordapps = nodes.flatMap(Node::getCordappList).map(Node.ResolvedCordapp::jarFile).distinct()
+        val overrides = if (networkParameterOverrides.isEmpty()) {
+            null
+        } else {
+            networkParameterOverrides.toConfig().root().render(ConfigRenderOptions.concise())
+        }
+        if (forkBootstrapper.get()) {
+            bootstrapNetworkInWorker(allCordapps, overrides)
+            return
+        }
+
         createNetworkBootstrapperLoader().use { cl ->
             val networkBootstrapperClass = cl.loadNetworkBootstrapper()
-            val allCordapps = nodes.flatMap(Node::getCordappList).map(Node.ResolvedCordapp::jarFile).distinct()
             val rootDir = directory.get().asFile.toPath().toAbsolutePath().normalize()
             try {
                 // Call NetworkBootstrapper.bootstrap
-                invokeBootstrap(networkBootstrapperClass, rootDir, allCordapps)
+                invokeBootstrap(networkBootstrapperClass, rootDir, allCordapps, overrides)
             } catch (e: InvocationTargetException) {
                 throw e.cause!!.let { InvalidUserDataException(it.message ?: "", it) }
             } finally {
@@ -260,6 +490,21 @@ open class Baseform(
         }
     }
 
+    private fun bootstrapNetworkInWorker(allCordapps: List<Path>, networkParameterOverrides: String?) {
+        logger.info("Running NetworkBootstrapper in a worker process")
+        val queue = workers.processIsolation { spec ->
+            spec.classpath.from(networkBootstrapperClasspath())
+            // Gradle provides Kotlin to its daemon, but not necessarily to its workers.
+            spec.classpath.from(File(Unit::class.java.protectionDomain.codeSource.location.toURI()))
+        }
+        queue.submit(NetworkBootstrapperAction::class.java) { parameters ->
+            parameters.rootDirectory.set(directory)
+            parameters.cordapps.from(allCordapps)
+            parameters.networkParameterOverrides.set(networkParameterOverrides)
+        }
+        queue.await()
+    }
+
     private fun cleanupNetworkBootstrapper(classLoader: ClassLoader) {
         /*
          * Ensure we remove any [SecurityProvider] instances that the
@@ -286,29 +531,6 @@ open class Baseform(
         classLoader.shutdownCommonsLogging()
     }
 
-    private fun invokeBootstrap(networkBootstrapperClass: Class<*>, rootDir: Path, allCordapps: List<Path>) {
-        try {
-            if (networkParameterOverrides.isEmpty()) {
-                val bootstrapMethod = networkBootstrapperClass.getMethod("bootstrapCordform", Path::class.java, List::class.java).apply { isAccessible = true }
-                bootstrapMethod.invoke(networkBootstrapperClass.getDeclaredConstructor().newInstance(), rootDir, allCordapps)
-            } else {
-                val bootstrapMethod = networkBootstrapperClass.getMethod("bootstrapCordform", Path::class.java, List::class.java, String::class.java).apply { isAccessible = true }
-                bootstrapMethod.invoke(networkBootstrapperClass.getDeclaredConstructor().newInstance(), rootDir, allCordapps, networkParameterOverrides.toConfig().root().render(ConfigRenderOptions.concise()))
-            }
-        } catch (e: NoSuchMethodException) {
-            throw InvalidUserDataException("Unrecognised configuration options passed. Please ensure you're using the correct 'corda-node-api' version on Gradle's runtime classpath.", e)
-        }
-    }
-
-    private fun ClassLoader.loadNetworkBootstrapper(): Class<*> {
-        return try {
-            Class.forName("net.corda.nodeapi.internal.network.NetworkBootstrapper", true, this)
-        } catch (e: ClassNotFoundException) {
-            throw InvalidUserCodeException("Cannot find the NetworkBootstrapper class. Please ensure that 'corda-node-api' is available on Gradle's runtime classpath, "
-                    + "e.g. by adding it to Gradle's 'runtimeOnly' configuration.", e)
-        }
-    }
-
     private fun ClassLoader.shutdownCommonsLogging() = execute("org.apache.commons.logging.LogFactory", "releaseAll") { c, m -> invoke(c, m, null) }
     private fun ClassLoader.shutdownLog4J() = execute("org.apache.log4j.LogManager", "shutdown") { c, m -> invoke(c, m, null) }
     private fun ClassLoader.shutdownLog4J2() = execute("org.apache.logging.log4j.LogManager", "shutdown") { c, m -> invoke(c, m, null) }
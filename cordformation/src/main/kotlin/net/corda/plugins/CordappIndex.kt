@@ -0,0 +1,46 @@
+package net.corda.plugins
+
+import net.corda.plugins.Cordformation.Companion.CORDA_CPK_CONFIGURATION_NAME
+import net.corda.plugins.Cordformation.Companion.CPK_CLASSIFIER
+import org.gradle.api.artifacts.ResolvedDependency
+import org.gradle.api.artifacts.component.ProjectComponentIdentifier
+import java.io.File
+
+/**
+ * Indexes the CPK files of a resolved configuration's first-level dependencies,
+ * both by project path and by "group:name:version" coordinates. This allows
+ * every node to find its CorDapps without scanning these dependencies again.
+ */
+internal class CordappIndex(dependencies: Iterable<ResolvedDependency>) {
+    private val byProjectPath = mutableMapOf<String, MutableSet<File>>()
+    private val byCoordinates = mutableMapOf<String, MutableSet<File>>()
+
+    init {
+        for (dep in dependencies) {
+            for (artifact in dep.moduleArtifacts) {
+                if (dep.configuration == CORDA_CPK_CONFIGURATION_NAME) {
+                    val componentId = artifact.id.componentIdentifier
+                    if (componentId is ProjectComponentIdentifier) {
+                        byProjectPath.getOrPut(componentId.projectPath, ::LinkedHashSet) += artifact.file
+                    }
+                }
+                if (artifact.classifier == CPK_CLASSIFIER) {
+                    val coordinates = with(dep) { "$moduleGroup:$moduleName:$moduleVersion" }
+                    byCoordinates.getOrPut(coordinates, ::LinkedHashSet) += artifact.file
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The CPK files for this [Cordapp], which should contain exactly one file.
+     */
+    fun filesFor(cordapp: Cordapp): Set<File> {
+        val projectPath = cordapp.projectPath
+        return when {
+            projectPath != null -> byProjectPath[projectPath]
+            cordapp.coordinates.isNotEmpty() -> byCoordinates[cordapp.coordinates]
+            else -> null
+        } ?: emptySet()
+    }
+}
@@ -1,10 +1,16 @@
 package net.corda.plugins
 
+import com.typesafe.config.ConfigRenderOptions
 import org.apache.tools.ant.filters.FixCrLfFilter
 import org.gradle.api.file.FileSystemOperations
 import org.gradle.api.file.ProjectLayout
 import org.gradle.api.model.ObjectFactory
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.TaskAction
+import org.gradle.workers.WorkerExecutor
+import java.io.File
+import java.nio.file.Path
 import javax.inject.Inject
 
 /**
@@ -16,12 +22,27 @@ import javax.inject.Inject
 open class Cordform @Inject constructor(
     objects: ObjectFactory,
     fs: FileSystemOperations,
-    layout: ProjectLayout
-) : Baseform(objects, fs, layout) {
+    layout: ProjectLayout,
+    workers: WorkerExecutor
+) : Baseform(objects, fs, layout, workers) {
     init {
         description = "Creates and configures a deployment of Corda Node directories."
     }
 
+    /**
+     * Update the nodes of an existing deployment in place when possible, rather
+     * than deploying every node again. We can do this whenever the Network
+     * Bootstrapper's inputs are unchanged, i.e. only the CorDapps, drivers or
+     * webserver of some nodes have changed. Unsigned CorDapps are inputs to the
+     * Network Bootstrapper because their contracts are whitelisted.
+     */
+    @get:Internal
+    val incremental: Property<Boolean> = objects.property(Boolean::class.java).convention(false)
+
+    fun incremental(incremental: Boolean) {
+        this.incremental.set(incremental)
+    }
+
     /**
      * Returns a node by name.
      *
@@ -30,6 +51,11 @@ open class Cordform @Inject constructor(
      */
     private fun getNodeByName(name: String): Node? = nodes.firstOrNull { it.name == name }
 
+    /**
+     * Whether [updateNodes] has already signed the CorDapps for this deployment.
+     */
+    private var cordappsSigned = false
+
     /**
      * Installs the run script into the nodes directory.
      */
@@ -66,19 +92,82 @@ open class Cordform @Inject constructor(
     @TaskAction
     fun build() {
         logger.lifecycle("Running Cordform task")
-        initializeConfiguration()
         nodes.forEach {
             if (it.p2pAddress == null) {
                 throw IllegalStateException("p2pAddress / p2pPort is required when not running dockerized nodes, it is missing in ${it.name}")
             }
         }
-        nodes.forEach(Node::installConfig)
+        cordappsSigned = false
+        if (incremental.get() && updateNodes()) {
+            return
+        }
+        initializeConfiguration()
+        forEachNode(Node::installConfig)
         installCordaJar()
         generateExcludedWhitelist()
-        generateKeystoreAndSignCordappJar()
+        if (!cordappsSigned) {
+            generateKeystoreAndSignCordappJar()
+        }
         installRunScript()
-        nodes.forEach(Node::installDrivers)
+        forEachNode(Node::installDrivers)
         bootstrapNetwork()
-        nodes.forEach(Node::build)
+        linkCordaJars()
+        forEachNode(Node::build)
+        runSchemaMigrations(nodes)
+        if (incremental.get()) {
+            createManifest().write(directory.asPath)
+        }
+    }
+
+    /**
+     * Updates the nodes of the previous deployment in place.
+     *
+     * @return false if we must deploy the whole network again instead.
+     */
+    private fun updateNodes(): Boolean {
+        val rootDir = directory.asPath
+        val previous = DeploymentManifest.read(rootDir) ?: return false
+        initializeConfiguration(deleteExisting = false)
+        if (!nodes.all { File(it.nodeDir, "node.conf").isFile }) {
+            return false
+        }
+
+        // Sign the CorDapps first, because we fingerprint the signed jars.
+        generateKeystoreAndSignCordappJar()
+        cordappsSigned = true
+        val manifest = createManifest()
+        if (manifest.network != previous.network) {
+            logger.lifecycle("Network configuration has changed, deploying all nodes again")
+            return false
+        }
+
+        val changed = nodes.filter { manifest.nodeFingerprint(it.nodeDir.name) != previous.nodeFingerprint(it.nodeDir.name) }
+        if (changed.isEmpty()) {
+            logger.lifecycle("Nodes in {} are already up to date", directory.get())
+        } else {
+            logger.lifecycle("Updating nodes: {}", changed.joinToString(transform = { it.name ?: it.nodeDir.name }))
+            forEachNode(changed, Node::update)
+            runSchemaMigrations(changed)
+            pruneFileStore()
+        }
+        manifest.write(rootDir)
+        return true
+    }
+
+    private fun createManifest(): DeploymentManifest {
+        val cordaJar = Cordformation.verifyAndGetRuntimeJar(project, "corda")
+        val networkInputs = mutableListOf<Any?>(
+            cordaJar.toPath().sha256(),
+            networkParameterOverrides.toConfig().root().render(ConfigRenderOptions.concise()),
+            excludeWhitelist
+        )
+        nodes.mapTo(networkInputs, Node::configFingerprint)
+        if (!signing.enabled.get()) {
+            nodes.flatMap(Node::getCordappList).map(Node.ResolvedCordapp::jarFile).distinct().mapTo(networkInputs, Path::sha256)
+        }
+        return DeploymentManifest(
+            fingerprintOf(networkInputs),
+            nodes.associate { it.nodeDir.name to it.contentFingerprint() }
+        )
     }
 }
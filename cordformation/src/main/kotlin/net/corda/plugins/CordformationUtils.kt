@@ -14,6 +14,8 @@ import java.lang.invoke.MethodHandles
 import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.security.DigestInputStream
+import java.security.MessageDigest
 
 /**
  * [ClassLoader] for this CordformationUtils class. This is
@@ -23,6 +25,8 @@ import java.nio.file.StandardCopyOption.REPLACE_EXISTING
 private val classLoader = MethodHandles.lookup().lookupClass().classLoader
 
 private const val CORDA_CPK_TASK_NAME = "cpk"
+private const val HASH_ALGORITHM = "SHA-256"
+private const val BUFFER_SIZE = 8192
 
 /**
  * Mimics the "project.ext" functionality in groovy which provides a direct
@@ -80,6 +84,33 @@ fun writeResourceToFile(resourcePath: String, path: Path) {
     }
 }
 
+/**
+ * @return The SHA-256 hash of this file's contents, as hex.
+ */
+internal fun Path.sha256(): String {
+    val digest = MessageDigest.getInstance(HASH_ALGORITHM)
+    DigestInputStream(Files.newInputStream(this), digest).use { input ->
+        val buffer = ByteArray(BUFFER_SIZE)
+        while (input.read(buffer) != -1) {
+            continue
+        }
+    }
+    return digest.digest().toHex()
+}
+
+/**
+ * @return The SHA-256 hash of these values' string representations, as hex.
+ */
+internal fun fingerprintOf(values: Iterable<Any?>): String {
+    val digest = MessageDigest.getInstance(HASH_ALGORITHM)
+    for (value in values) {
+        digest.update("$value\n".toByteArray())
+    }
+    return digest.digest().toHex()
+}
+
+private fun ByteArray.toHex(): String = joinToString("") { "%02x".format(it) }
+
 internal fun Config.copyTo(key: String, target: Config, targetKey: String = key): Config {
     return if (hasPath(key)) {
         target + (targetKey to getValue(key))
@@ -0,0 +1,55 @@
+package net.corda.plugins
+
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.Properties
+
+/**
+ * Records the fingerprints of a deployed network, so that the next
+ * deployment can tell which parts of this network have changed.
+ * The "network" fingerprint covers everything that the Network
+ * Bootstrapper uses, and each node also has its own fingerprint
+ * for the files that it installs.
+ */
+internal class DeploymentManifest(
+    val network: String,
+    private val nodes: Map<String, String>
+) {
+    companion object {
+        const val FILE_NAME = ".deployment"
+        private const val NETWORK_KEY = "network"
+        private const val NODE_PREFIX = "node."
+
+        fun read(directory: Path): DeploymentManifest? {
+            val file = directory.resolve(FILE_NAME)
+            if (!Files.isRegularFile(file)) {
+                return null
+            }
+            val properties = Properties()
+            try {
+                Files.newBufferedReader(file).use(properties::load)
+            } catch (e: IOException) {
+                return null
+            }
+            val network = properties.getProperty(NETWORK_KEY) ?: return null
+            val nodes = properties.stringPropertyNames()
+                .filter { it.startsWith(NODE_PREFIX) }
+                .associate { it.substring(NODE_PREFIX.length) to properties.getProperty(it) }
+            return DeploymentManifest(network, nodes)
+        }
+    }
+
+    fun nodeFingerprint(nodeName: String): String? = nodes[nodeName]
+
+    fun write(directory: Path) {
+        val properties = Properties()
+        properties.setProperty(NETWORK_KEY, network)
+        for ((nodeName, fingerprint) in nodes) {
+            properties.setProperty(NODE_PREFIX + nodeName, fingerprint)
+        }
+        Files.newBufferedWriter(directory.resolve(FILE_NAME)).use { writer ->
+            properties.store(writer, "Cordform deployment manifest")
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package net.corda.plugins
+
+import org.yaml.snakeyaml.DumperOptions
+import org.yaml.snakeyaml.Yaml
+import org.yaml.snakeyaml.nodes.Tag
+import org.yaml.snakeyaml.representer.Represent
+import org.yaml.snakeyaml.representer.Representer
+import java.io.Writer
+
+/**
+ * Writes a docker-compose file one service or volume at a time, so that we
+ * never need to hold the entire docker-compose document in memory. This
+ * produces the same YAML as dumping the whole document at once with
+ * [YAML_MAPPER]. Unlike the single dump that we used to write, it never
+ * folds long values onto several lines.
+ */
+internal class DockerComposeWriter(private val writer: Writer) {
+    internal companion object {
+        private val YAML_FORMAT_OPTIONS = DumperOptions().apply {
+            indent = 2
+            defaultFlowStyle = DumperOptions.FlowStyle.BLOCK
+            // We indent each entry after dumping it, which would move
+            // where snakeyaml folds any long lines. So never fold them.
+            splitLines = false
+        }
+
+        val YAML_MAPPER = Yaml(DockerComposeRepresenter(), YAML_FORMAT_OPTIONS)
+    }
+
+    fun writeVersion(version: String) {
+        writer.write(YAML_MAPPER.dump(mapOf("version" to version)))
+    }
+
+    /**
+     * Starts the top-level mapping for the entries that follow.
+     */
+    fun writeSection(name: String) {
+        writer.write(name)
+        writer.write(":\n")
+    }
+
+    /**
+     * Appends this service or volume to the current section
+     * as an indented YAML mapping entry.
+     */
+    fun writeEntry(entry: Pair<String, Map<String, Any>>) {
+        for (line in YAML_MAPPER.dump(mapOf(entry)).lineSequence()) {
+            if (line.isNotEmpty()) {
+                writer.write("  ")
+                writer.write(line)
+                writer.write("\n")
+            }
+        }
+    }
+}
+
+/**
+ * A string that docker-compose requires us to quote, e.g. a "port:port" mapping.
+ */
+internal class QuotedString(val value: String)
+
+private class DockerComposeRepresenter : Representer() {
+
+    private inner class RepresentQuotedString : Represent {
+        override fun representData(data: Any): org.yaml.snakeyaml.nodes.Node? {
+            val str = data as QuotedString
+            return representScalar(Tag.STR, str.value, DumperOptions.ScalarStyle.DOUBLE_QUOTED.char)
+        }
+    }
+
+    init {
+        this.representers[QuotedString::class.java] = RepresentQuotedString()
+    }
+}
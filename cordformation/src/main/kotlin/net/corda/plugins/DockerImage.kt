@@ -1,8 +1,6 @@
 package net.corda.plugins
 
 import org.gradle.api.DefaultTask
-import com.spotify.docker.client.DefaultDockerClient
-import com.spotify.docker.client.LoggingBuildHandler
 import net.corda.plugins.Cordformation.Companion.DEPLOY_CORDAPP_CONFIGURATION_NAME
 import org.gradle.api.file.ConfigurableFileCollection
 import org.gradle.api.file.DirectoryProperty
@@ -13,6 +11,7 @@ import org.gradle.api.model.ObjectFactory
 import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFile
 import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
 import org.gradle.api.tasks.Optional
 import org.gradle.api.tasks.OutputDirectory
 import org.gradle.api.tasks.PathSensitive
@@ -21,7 +20,6 @@ import org.gradle.api.tasks.SkipWhenEmpty
 import org.gradle.api.tasks.TaskAction
 import java.io.File
 import java.nio.file.Path
-import java.nio.file.Paths
 import javax.inject.Inject
 
 @Suppress("UnstableApiUsage", "unused", "LeakingThis")
@@ -33,8 +31,33 @@ open class DockerImage @Inject constructor(
 
     private companion object{
         private const val DOCKER_FILE_NAME = "Dockerfile"
+        private const val JAR_EXTENSION = ".jar"
+        private const val CORDAPPS_DIR = "/opt/corda/cordapps/"
+
+        /**
+         * @return This image name without its tag.
+         */
+        private val String.repository: String get() {
+            val tagIdx = lastIndexOf(':')
+            return if (tagIdx > lastIndexOf('/')) {
+                substring(0, tagIdx)
+            } else {
+                this
+            }
+        }
+
+        private fun copyCommand(jars: List<File>): String {
+            val arguments = jars.map(File::getName) + CORDAPPS_DIR
+            return arguments.joinToString(prefix = "COPY [", separator = ", ", postfix = "]") { "\"$it\"" }
+        }
     }
 
+    /**
+     * Jars from outside this build are usually external dependencies, which
+     * change far less often than the jars that this build creates.
+     */
+    private val rootDir: File = project.rootDir.canonicalFile
+
     init {
         description = "Creates a docker file and immediately builds that image to the local repository."
         group = "CordaDockerDeployment"
@@ -94,33 +117,66 @@ open class DockerImage @Inject constructor(
     @get:OutputDirectory
     val outputDir: DirectoryProperty = objects.directoryProperty().convention(layouts.buildDirectory.dir("docker"))
 
+    @get:Internal
+    internal var dockerOperations: () -> DockerOperations = { DockerClientOperations.fromEnv() }
+
     @TaskAction
     fun build() {
 
         copyJarsToBuildDir()
-        writeDockerFile()
+        val dockerFileContents = writeDockerFile()
 
         if (buildImage) {
-            val docker = DefaultDockerClient.fromEnv().build()
-            val builtImageId = buildDockerFile(docker)
             val tag = dockerImageTag ?: "${project.name}:${project.version}"
 
-            logger.lifecycle("Tagging $builtImageId as: $tag")
-            docker.tag(builtImageId, tag)
+            dockerOperations().use { docker ->
+                // Tag each image with the hash of everything that built it,
+                // so that we can reuse an identical image instead of rebuilding it.
+                val contentTag = "${tag.repository}:${contentHash(docker, dockerFileContents)}"
+                val imageId = docker.findImageId(contentTag)?.also {
+                    logger.lifecycle("Reusing existing image $contentTag")
+                } ?: buildDockerFile(docker, contentTag)
+
+                logger.lifecycle("Tagging $imageId as: $tag")
+                docker.tag(imageId, tag)
+            }
         }
     }
 
-    private fun writeDockerFile() {
+    /**
+     * The jars to install, grouped so that the ones least likely
+     * to change come first. Docker gives each COPY command its own
+     * layer, and a changed layer invalidates every layer after it.
+     */
+    private val jarLayers: List<List<File>> by lazy {
+        val jars = cordaJars.files.filter { it.isFile && it.name.endsWith(JAR_EXTENSION) }
+            .associateBy(File::getName)
+            .values
+            .sortedBy(File::getName)
+        val (changing, stable) = jars.partition { it.canonicalFile.startsWith(rootDir) }
+        listOf(stable, changing).filter(List<File>::isNotEmpty)
+    }
+
+    private fun writeDockerFile(): String {
         logger.lifecycle("Using Image: $baseImage")
         val copyTrustRootStore: String = getAdditionalTrustRootCommandIfNeeded()
+        val copyJars = jarLayers.joinToString("") { copyCommand(it) + "\n" }
 
         val dockerFileContents = """\
             |FROM $baseImage
-            |COPY *.jar /opt/corda/cordapps/
-            |$copyTrustRootStore""".trimMargin()
+            |$copyJars$copyTrustRootStore""".trimMargin()
 
         logger.lifecycle("Writing $DOCKER_FILE_NAME to ${outputDir.get()}")
         outputDir.file(DOCKER_FILE_NAME).get().asFile.writeText(dockerFileContents)
+        return dockerFileContents
+    }
+
+    private fun contentHash(docker: DockerOperations, dockerFileContents: String): String {
+        val baseImageId = baseImage?.let(docker::findImageId)
+        val inputs = jarLayers.flatten() + listOfNotNull(trustRootStoreFile)
+        return fingerprintOf(listOf(dockerFileContents, baseImageId ?: baseImage) + inputs.map { file ->
+            "${file.name}=${file.toPath().sha256()}"
+        })
     }
 
     private fun copyJarsToBuildDir() {
@@ -132,9 +188,10 @@ open class DockerImage @Inject constructor(
         }
     }
 
-    private fun buildDockerFile(docker: DefaultDockerClient):  String{
-        val path: Path = Paths.get(outputDir.get().toString())
-        return docker.build(path,null, DOCKER_FILE_NAME, LoggingBuildHandler())
+    private fun buildDockerFile(docker: DockerOperations, contentTag: String): String {
+        logger.lifecycle("Building image $contentTag")
+        val path: Path = outputDir.get().asFile.toPath()
+        return docker.build(path, contentTag, DOCKER_FILE_NAME)
     }
 
     private fun getAdditionalTrustRootCommandIfNeeded(): String {
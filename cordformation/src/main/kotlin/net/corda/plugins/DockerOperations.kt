@@ -0,0 +1,54 @@
+package net.corda.plugins
+
+import com.spotify.docker.client.DefaultDockerClient
+import com.spotify.docker.client.DockerClient
+import com.spotify.docker.client.LoggingBuildHandler
+import com.spotify.docker.client.exceptions.ImageNotFoundException
+import java.io.Closeable
+import java.nio.file.Path
+
+/**
+ * The Docker operations that [DockerImage] needs, so
+ * that tests can replace the Docker daemon with a stub.
+ */
+internal interface DockerOperations : Closeable {
+    /**
+     * @return The id of the local image called [name], or null if there isn't one.
+     */
+    fun findImageId(name: String): String?
+
+    /**
+     * Builds [dockerFileName] inside [directory], and tags the new image as [name].
+     *
+     * @return The id of the new image.
+     */
+    fun build(directory: Path, name: String, dockerFileName: String): String
+
+    fun tag(imageId: String, tag: String)
+}
+
+internal class DockerClientOperations(private val docker: DockerClient) : DockerOperations {
+    companion object {
+        fun fromEnv(): DockerOperations = DockerClientOperations(DefaultDockerClient.fromEnv().build())
+    }
+
+    override fun findImageId(name: String): String? {
+        return try {
+            docker.inspectImage(name).id()
+        } catch (e: ImageNotFoundException) {
+            null
+        }
+    }
+
+    override fun build(directory: Path, name: String, dockerFileName: String): String {
+        return docker.build(directory, name, dockerFileName, LoggingBuildHandler())
+    }
+
+    override fun tag(imageId: String, tag: String) {
+        docker.tag(imageId, tag)
+    }
+
+    override fun close() {
+        docker.close()
+    }
+}
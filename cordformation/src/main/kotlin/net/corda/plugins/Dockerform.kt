@@ -1,5 +1,6 @@
 package net.corda.plugins
 
+import com.typesafe.config.Config
 import com.typesafe.config.ConfigFactory
 import com.typesafe.config.ConfigValueFactory
 import org.gradle.api.Action
@@ -14,13 +15,12 @@ import org.gradle.api.tasks.Nested
 import org.gradle.api.tasks.Optional
 import org.gradle.api.tasks.OutputFile
 import org.gradle.api.tasks.TaskAction
-import org.yaml.snakeyaml.DumperOptions
-import org.yaml.snakeyaml.Yaml
-import org.yaml.snakeyaml.nodes.Tag
-import org.yaml.snakeyaml.representer.Represent
-import org.yaml.snakeyaml.representer.Representer
+import org.gradle.workers.WorkerExecutor
+import java.io.File
 import java.nio.file.Files
+import java.nio.file.Path
 import java.nio.file.Paths
+import java.util.IdentityHashMap
 import javax.inject.Inject
 
 
@@ -33,21 +33,15 @@ import javax.inject.Inject
 open class Dockerform @Inject constructor(
     objects: ObjectFactory,
     fs: FileSystemOperations,
-    layout: ProjectLayout
-) : Baseform(objects, fs, layout) {
+    layout: ProjectLayout,
+    workers: WorkerExecutor
+) : Baseform(objects, fs, layout, workers) {
 
     private companion object {
 
         private const val DEFAULT_DB_STARTING_PORT = 5432
         private const val DEFAULT_SSH_PORT = 22022
         private const val COMPOSE_SPEC_VERSION = "3"
-
-        private val YAML_FORMAT_OPTIONS = DumperOptions().apply {
-            indent = 2
-            defaultFlowStyle = DumperOptions.FlowStyle.BLOCK
-        }
-
-        private val YAML_MAPPER = Yaml(DockerComposeRepresenter(), YAML_FORMAT_OPTIONS)
     }
 
     init {
@@ -85,181 +79,217 @@ open class Dockerform @Inject constructor(
     fun build() {
         logger.lifecycle("Running DockerForm task")
         initializeConfiguration()
-        nodes.forEach { it.installDockerConfig(DEFAULT_SSH_PORT) }
+        forEachNode { it.installDockerConfig(DEFAULT_SSH_PORT) }
         installCordaJar()
         generateKeystoreAndSignCordappJar()
         generateExcludedWhitelist()
         bootstrapNetwork()
-        nodes.forEach(Node::buildDocker)
-
-        val services = mutableMapOf<String, MutableMap<String, Any>>()
-        val volumes = mutableMapOf<String, Map<String, Any>>()
+        linkCordaJars()
+        forEachNode(Node::buildDocker)
+        runSchemaMigrations(nodes)
+
+        val image = dockerImage.get()
+        val databaseTemplate = if (dockerConfig.isNotEmpty()) {
+            DatabaseTemplate(ConfigFactory.parseMap(dockerConfig), layout.buildDirectory.asFile.get())
+        } else {
+            null
+        }
 
+        // Prepare each node's services concurrently, keeping them in the nodes' order.
         val directoryPath = directory.asPath
-        nodes.forEachIndexed { index, it ->
-
-            val nodeBuildPath = directoryPath.resolve(it.nodeDir.name).toAbsolutePath()
-            val nodeBuildDir = nodeBuildPath.toString()
-
-            val service = mutableMapOf(
-                    "volumes" to listOf(
-                            "$nodeBuildDir/node.conf:/etc/corda/node.conf",
-                            "$nodeBuildDir/certificates:/opt/corda/certificates",
-                            "$nodeBuildDir/logs:/opt/corda/logs",
-                            "$nodeBuildDir/persistence:/opt/corda/persistence",
-                            "$nodeBuildDir/cordapps:/opt/corda/cordapps",
-                            "$nodeBuildDir/network-parameters:/opt/corda/network-parameters",
-                            "$nodeBuildDir/additional-node-infos:/opt/corda/additional-node-infos",
-                            "$nodeBuildDir/drivers:/opt/corda/drivers"
-                    ),
-                    "environment" to listOf("ACCEPT_LICENSE=\${ACCEPT_LICENSE}"),
-                    "ports" to listOf(it.rpcPort.get(),
-                            when (it.usesDefaultSSHPort) {
-                               true -> it.config.getInt("sshd.port")
-                               false -> QuotedString("${it.config.getInt("sshd.port")}:${it.config.getInt("sshd.port")}")
-                            }),
-                    "image" to dockerImage.get()
-            )
+        val nodeIndexes = nodes.withIndex().associateTo(IdentityHashMap()) { it.value to it.index }
+        val nodeServices = arrayOfNulls<NodeServices>(nodes.size)
+        forEachNode { node ->
+            val index = nodeIndexes.getValue(node)
+            nodeServices[index] = prepareServices(node, index, directoryPath, image, databaseTemplate)
+        }
 
-            if (dockerConfig.isNotEmpty()) {
-
-                val dockerConfig = ConfigFactory.parseMap(dockerConfig)
-
-                // Generate port and hostname parameters to be used by docker-compose
-                val dbPort = DEFAULT_DB_STARTING_PORT + index
-                val dbHost = "${it.containerName}-db"
-                val defaultUrlArgs = ConfigFactory.empty()
-                        .withValue("DBHOSTNAME",ConfigValueFactory.fromAnyRef(dbHost))
-                        .withValue("DBPORT",ConfigValueFactory.fromAnyRef(dbPort))
-
-                var dbUrl = dockerConfig.getString("dataSourceProperties.dataSource.url")
-
-                if (dockerConfig.hasPath("dataSourceProperties.dataSource.urlArgs")) {
-                    val urlArgs = defaultUrlArgs.withFallback(
-                            dockerConfig.getConfig("dataSourceProperties.dataSource.urlArgs")).resolve()
-
-                    dbUrl = TypesafeUtils.resolveString(dbUrl, urlArgs)
-                }
-
-                // Install the database configuration
-                val dbConfig = ConfigFactory.empty()
-                        .withValue("dataSourceProperties.dataSource.url", ConfigValueFactory.fromAnyRef(dbUrl))
-                        .withValue("dataSourceProperties.dataSourceClassName", dockerConfig.getValue("dataSourceProperties.dataSourceClassName"))
-                        .withValue("dataSourceProperties.dataSource.user", dockerConfig.getValue("dockerConfig.dbUser"))
-                        .withValue("dataSourceProperties.dataSource.password", dockerConfig.getValue("dockerConfig.dbPassword"))
-                        .withValue("database", ConfigValueFactory.fromMap(dockerConfig.getObject("database")))
-
-                it.installDefaultDatabaseConfig(dbConfig)
-
-                val dbDockerfile = dockerConfig.getString("dockerConfig.dbDockerfile")
-                // Override the port and hostname parameters in dockerfile
-                val dbDockerfileArgs = defaultUrlArgs.withFallback(
-                        dockerConfig.getConfig("dockerConfig.dbDockerfileArgs")).resolve()
-                val buildDir = layout.buildDirectory.asFile.get()
-                val database = mutableMapOf(
-                        "build" to mapOf(
-                             "context" to buildDir.absolutePath,
-                             "dockerfile" to buildDir.resolve(dbDockerfile).toString(),
-                             "args" to dbDockerfileArgs.entrySet().associate { it.key to it.value.unwrapped() }
-                        ),
-                        "restart" to "unless-stopped"
-                )
-
-                // append persistence volume if it is required
-                if (dockerConfig.hasPath("dockerConfig.dbDataVolume")) {
-
-                    var hostPathStr = dockerConfig.getString("dockerConfig.dbDataVolume.hostPath")
-
-                    if (dockerConfig.hasPath("dockerConfig.dbDataVolume.hostPathArgs")) {
-                        val hostPathArgs = dockerConfig.getConfig("dockerConfig.dbDataVolume.hostPathArgs")
-                        hostPathStr = TypesafeUtils.resolveString(hostPathStr, hostPathArgs)
-                    }
-
-                    var containerPathStr = dockerConfig.getString("dockerConfig.dbDataVolume.containerPath")
-
-                    if (dockerConfig.hasPath("dockerConfig.dbDataVolume.containerPathArgs")) {
-                        val containerPathArgs = dockerConfig.getConfig("dockerConfig.dbDataVolume.containerPathArgs")
-                        containerPathStr = TypesafeUtils.resolveString(containerPathStr, containerPathArgs)
-                    }
-
-                    val hostPath = Paths.get(hostPathStr)
-                    val absoluteHostPath = when {
-                        hostPath.isAbsolute -> hostPath
-                        else -> nodeBuildPath.resolve(hostPath).toAbsolutePath()
-                    }
-                    val hostDir = absoluteHostPath.toFile()
-                    if (hostDir.mkdirs() || hostDir.isDirectory) {
-                        volumes["$dbHost-volume"] = mapOf(
-                                "driver" to "local",
-                                "driver_opts" to mapOf(
-                                        "type" to "none",
-                                        "device" to absoluteHostPath.toString(),
-                                        "o" to "bind"
-                                )
-                        )
-                        database["volumes"] = listOf("$dbHost-volume:$containerPathStr")
-                    } else {
-                        throw InvalidUserDataException("The external path provided could not be created")
-                    }
-                }
-                // add database service
-                services[dbHost] = database
-
-                // attach database dependency to the node service
-                service["depends_on"] = listOf(dbHost)
+        Files.newBufferedWriter(dockerComposePath.asPath).use { writer ->
+            val compose = DockerComposeWriter(writer)
+            compose.writeVersion(COMPOSE_SPEC_VERSION)
+            compose.writeSection("services")
+            for (services in nodeServices.filterNotNull()) {
+                services.database?.also(compose::writeEntry)
+                compose.writeEntry(services.node)
             }
+            externalService()?.also(compose::writeEntry)
 
-            services[it.containerName] = service
+            val volumes = nodeServices.mapNotNull { it?.volume }
+            if (volumes.isNotEmpty()) {
+                compose.writeSection("volumes")
+                volumes.forEach(compose::writeEntry)
+            }
         }
+    }
 
-        if (external.containerImage.isPresent) {
+    private fun prepareServices(
+        node: Node,
+        index: Int,
+        directoryPath: Path,
+        image: String,
+        databaseTemplate: DatabaseTemplate?
+    ): NodeServices {
+        val nodeBuildPath = directoryPath.resolve(node.nodeDir.name).toAbsolutePath()
+        val nodeBuildDir = nodeBuildPath.toString()
+
+        val service = mutableMapOf(
+                "volumes" to listOf(
+                        "$nodeBuildDir/node.conf:/etc/corda/node.conf",
+                        "$nodeBuildDir/certificates:/opt/corda/certificates",
+                        "$nodeBuildDir/logs:/opt/corda/logs",
+                        "$nodeBuildDir/persistence:/opt/corda/persistence",
+                        "$nodeBuildDir/cordapps:/opt/corda/cordapps",
+                        "$nodeBuildDir/network-parameters:/opt/corda/network-parameters",
+                        "$nodeBuildDir/additional-node-infos:/opt/corda/additional-node-infos",
+                        "$nodeBuildDir/drivers:/opt/corda/drivers"
+                ),
+                "environment" to listOf("ACCEPT_LICENSE=\${ACCEPT_LICENSE}"),
+                "ports" to listOf(node.rpcPort.get(),
+                        when (node.usesDefaultSSHPort) {
+                           true -> node.config.getInt("sshd.port")
+                           false -> QuotedString("${node.config.getInt("sshd.port")}:${node.config.getInt("sshd.port")}")
+                        }),
+                "image" to image
+        )
+
+        if (databaseTemplate == null) {
+            return NodeServices(node.containerName to service, null, null)
+        }
 
-            val extra = mutableMapOf(
-                    "container_name" to external.containerName.get(),
-                    "image" to external.containerImage.get(),
-                    "ports" to external.servicePorts.get().map { QuotedString("${it}:${it}") }
-            )
-            if(external.volumes.get().isNotEmpty()){
-                extra["volumes"] = external.volumes.get().map{ "${it["sourceFile"]}:${it["deploymentPath"]}" }
-            }
-            if(external.environment.get().isNotEmpty()){
-                extra["environment"] = external.environment.get().map { "${it.key}=${it.value}" }
+        // Generate port and hostname parameters to be used by docker-compose
+        val dbPort = DEFAULT_DB_STARTING_PORT + index
+        val dbHost = "${node.containerName}-db"
+        val defaultUrlArgs = ConfigFactory.empty()
+                .withValue("DBHOSTNAME", ConfigValueFactory.fromAnyRef(dbHost))
+                .withValue("DBPORT", ConfigValueFactory.fromAnyRef(dbPort))
+
+        // Install the database configuration
+        node.installDefaultDatabaseConfig(databaseTemplate.databaseConfig(defaultUrlArgs))
+
+        val database = mutableMapOf(
+                "build" to databaseTemplate.buildConfig(defaultUrlArgs),
+                "restart" to "unless-stopped"
+        )
+
+        // append persistence volume if it is required
+        val volume = databaseTemplate.dataVolume?.let { dataVolume ->
+            val hostPath = Paths.get(dataVolume.hostPath)
+            val absoluteHostPath = when {
+                hostPath.isAbsolute -> hostPath
+                else -> nodeBuildPath.resolve(hostPath).toAbsolutePath()
             }
-            if(external.privileged.get() == true) {
-                extra["privileged"] = external.privileged.get()
+            val hostDir = absoluteHostPath.toFile()
+            if (!hostDir.mkdirs() && !hostDir.isDirectory) {
+                throw InvalidUserDataException("The external path provided could not be created")
             }
-            if(external.commands.isPresent){
-                extra["command"] = external.commands.get()
-            }
-            services[external.containerName.get()] = extra
+            database["volumes"] = listOf("$dbHost-volume:${dataVolume.containerPath}")
+            "$dbHost-volume" to mapOf(
+                    "driver" to "local",
+                    "driver_opts" to mapOf(
+                            "type" to "none",
+                            "device" to absoluteHostPath.toString(),
+                            "o" to "bind"
+                    )
+            )
         }
 
-        val dockerComposeObject = mutableMapOf(
-                "version" to COMPOSE_SPEC_VERSION,
-                "services" to services)
+        // attach database dependency to the node service
+        service["depends_on"] = listOf(dbHost)
+        return NodeServices(node.containerName to service, dbHost to database, volume)
+    }
 
-        if (volumes.isNotEmpty()) {
-            dockerComposeObject["volumes"] = volumes
+    private fun externalService(): Pair<String, Map<String, Any>>? {
+        if (!external.containerImage.isPresent) {
+            return null
         }
 
-        val dockerComposeContent = YAML_MAPPER.dump(dockerComposeObject)
-
-        Files.write(dockerComposePath.asPath, dockerComposeContent.toByteArray())
+        val extra = mutableMapOf(
+                "container_name" to external.containerName.get(),
+                "image" to external.containerImage.get(),
+                "ports" to external.servicePorts.get().map { QuotedString("${it}:${it}") }
+        )
+        if(external.volumes.get().isNotEmpty()){
+            extra["volumes"] = external.volumes.get().map{ "${it["sourceFile"]}:${it["deploymentPath"]}" }
+        }
+        if(external.environment.get().isNotEmpty()){
+            extra["environment"] = external.environment.get().map { "${it.key}=${it.value}" }
+        }
+        if(external.privileged.get() == true) {
+            extra["privileged"] = external.privileged.get()
+        }
+        if(external.commands.isPresent){
+            extra["command"] = external.commands.get()
+        }
+        return external.containerName.get() to extra
     }
 
-    private class QuotedString(val value: String)
+    /**
+     * The docker-compose entries for a single node.
+     */
+    private class NodeServices(
+        val node: Pair<String, Map<String, Any>>,
+        val database: Pair<String, Map<String, Any>>?,
+        val volume: Pair<String, Map<String, Any>>?
+    )
 
-    private class DockerComposeRepresenter : Representer() {
+    private class DataVolume(val hostPath: String, val containerPath: String)
 
-        private inner class RepresentQuotedString : Represent {
-            override fun representData(data: Any): org.yaml.snakeyaml.nodes.Node? {
-                val str = data as QuotedString
-                return representScalar(Tag.STR, str.value, DumperOptions.ScalarStyle.DOUBLE_QUOTED.char)
+    /**
+     * The database settings from [Dockerform.dockerConfig], which
+     * we parse only once and then customise for each node.
+     */
+    private class DatabaseTemplate(dockerConfig: Config, buildDir: File) {
+        private val url = dockerConfig.getString("dataSourceProperties.dataSource.url")
+        private val urlArgs = if (dockerConfig.hasPath("dataSourceProperties.dataSource.urlArgs")) {
+            dockerConfig.getConfig("dataSourceProperties.dataSource.urlArgs")
+        } else {
+            null
+        }
+        private val dataSourceClassName = dockerConfig.getValue("dataSourceProperties.dataSourceClassName")
+        private val user = dockerConfig.getValue("dockerConfig.dbUser")
+        private val password = dockerConfig.getValue("dockerConfig.dbPassword")
+        private val database = ConfigValueFactory.fromMap(dockerConfig.getObject("database"))
+        private val buildContext = buildDir.absolutePath
+        private val dockerfile = buildDir.resolve(dockerConfig.getString("dockerConfig.dbDockerfile")).toString()
+        private val dockerfileArgs = dockerConfig.getConfig("dockerConfig.dbDockerfileArgs")
+
+        val dataVolume = if (dockerConfig.hasPath("dockerConfig.dbDataVolume")) {
+            var hostPathStr = dockerConfig.getString("dockerConfig.dbDataVolume.hostPath")
+
+            if (dockerConfig.hasPath("dockerConfig.dbDataVolume.hostPathArgs")) {
+                val hostPathArgs = dockerConfig.getConfig("dockerConfig.dbDataVolume.hostPathArgs")
+                hostPathStr = TypesafeUtils.resolveString(hostPathStr, hostPathArgs)
+            }
+
+            var containerPathStr = dockerConfig.getString("dockerConfig.dbDataVolume.containerPath")
+
+            if (dockerConfig.hasPath("dockerConfig.dbDataVolume.containerPathArgs")) {
+                val containerPathArgs = dockerConfig.getConfig("dockerConfig.dbDataVolume.containerPathArgs")
+                containerPathStr = TypesafeUtils.resolveString(containerPathStr, containerPathArgs)
             }
+            DataVolume(hostPathStr, containerPathStr)
+        } else {
+            null
         }
 
-        init {
-            this.representers[QuotedString::class.java] = RepresentQuotedString()
+        fun databaseConfig(defaultUrlArgs: Config): Config {
+            val dbUrl = urlArgs?.let { TypesafeUtils.resolveString(url, defaultUrlArgs.withFallback(it).resolve()) } ?: url
+            return ConfigFactory.empty()
+                    .withValue("dataSourceProperties.dataSource.url", ConfigValueFactory.fromAnyRef(dbUrl))
+                    .withValue("dataSourceProperties.dataSourceClassName", dataSourceClassName)
+                    .withValue("dataSourceProperties.dataSource.user", user)
+                    .withValue("dataSourceProperties.dataSource.password", password)
+                    .withValue("database", database)
+        }
+
+        fun buildConfig(defaultUrlArgs: Config): Map<String, Any> {
+            // Override the port and hostname parameters in dockerfile
+            val dbDockerfileArgs = defaultUrlArgs.withFallback(dockerfileArgs).resolve()
+            return mapOf(
+                    "context" to buildContext,
+                    "dockerfile" to dockerfile,
+                    "args" to dbDockerfileArgs.entrySet().associate { it.key to it.value.unwrapped() }
+            )
         }
     }
-}
\ No newline at end of file
+}
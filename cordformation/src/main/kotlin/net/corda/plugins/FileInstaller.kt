@@ -0,0 +1,156 @@
+package net.corda.plugins
+
+import org.gradle.api.logging.Logger
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption.ATOMIC_MOVE
+import java.nio.file.StandardCopyOption.REPLACE_EXISTING
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ConcurrentHashMap
+import java.util.stream.Collectors.toList
+
+/**
+ * How [Cordform] and [Dockerform] install the same file into many node directories.
+ */
+enum class InstallMode {
+    /**
+     * Every node receives its own copy of every file.
+     */
+    COPY,
+
+    /**
+     * Every node receives a hard link into a shared store,
+     * or else its own copy if we cannot create the link.
+     */
+    HARD_LINK,
+
+    /**
+     * As [HARD_LINK], except that we also try a relative symbolic
+     * link into the shared store before falling back to a copy.
+     * Symbolic links won't work inside Docker containers.
+     */
+    SYMBOLIC_LINK
+}
+
+/**
+ * Stores one copy of each distinct file, keyed by its SHA-256 hash, and then
+ * links each node's files to this store. This instance is thread-safe.
+ */
+internal class FileInstaller(
+    private val storeDir: Path,
+    private val mode: InstallMode,
+    private val logger: Logger
+) {
+    private val storedFiles = ConcurrentHashMap<Path, Path>()
+
+    /**
+     * Links [source] into [targetDir] as [targetName].
+     *
+     * @return false if the caller must copy this file instead.
+     */
+    fun link(source: Path, targetDir: Path, targetName: String): Boolean {
+        if (mode == InstallMode.COPY) {
+            return false
+        }
+
+        val storedFile = storedFiles.computeIfAbsent(source.toAbsolutePath().normalize(), ::store)
+        val target = Files.createDirectories(targetDir).resolve(targetName)
+        Files.deleteIfExists(target)
+        try {
+            Files.createLink(target, storedFile)
+            return true
+        } catch (e: IOException) {
+            logger.debug("Cannot hard link {} to {}: {}", target, storedFile, e.message)
+        } catch (e: UnsupportedOperationException) {
+            logger.debug("Cannot hard link {} to {}: {}", target, storedFile, e.message)
+        }
+
+        if (mode == InstallMode.SYMBOLIC_LINK) {
+            try {
+                Files.createSymbolicLink(target, targetDir.toAbsolutePath().relativize(storedFile))
+                return true
+            } catch (e: IOException) {
+                logger.debug("Cannot symbolically link {} to {}: {}", target, storedFile, e.message)
+            } catch (e: UnsupportedOperationException) {
+                logger.debug("Cannot symbolically link {} to {}: {}", target, storedFile, e.message)
+            }
+        }
+
+        logger.info("Copying {} to {} instead of linking it", source.fileName, targetDir)
+        return false
+    }
+
+    private fun store(source: Path): Path {
+        val storedFile = storeDir.resolve(source.sha256()).resolve(source.fileName)
+        if (!Files.isRegularFile(storedFile)) {
+            val parent = Files.createDirectories(storedFile.parent)
+            val temporary = Files.createTempFile(parent, source.fileName.toString(), ".tmp")
+            try {
+                Files.copy(source, temporary, REPLACE_EXISTING)
+                Files.move(temporary, storedFile, ATOMIC_MOVE)
+            } finally {
+                Files.deleteIfExists(temporary)
+            }
+        }
+        return storedFile.toAbsolutePath()
+    }
+
+    /**
+     * Deletes every stored file that no file under [rootDir] links to any more,
+     * e.g. because we have updated a node's CorDapps. We identify links by their
+     * files' keys, and so we keep everything if the file system has no such keys.
+     */
+    fun prune(rootDir: Path) {
+        if (!Files.isDirectory(storeDir)) {
+            return
+        }
+        val storePath = storeDir.toAbsolutePath().normalize()
+        val linkedKeys = Files.walk(rootDir).use { files ->
+            files.filter { !it.toAbsolutePath().normalize().startsWith(storePath) }
+                .map(::fileKeyOf)
+                .collect(toList())
+        }
+        if (linkedKeys.contains(null)) {
+            logger.debug("Cannot identify files linked to {}, keeping every stored file", storeDir)
+            return
+        }
+
+        val entries = Files.walk(storeDir).use { files ->
+            files.filter(Files::isRegularFile).collect(toList())
+        }
+        val keys = linkedKeys.toSet()
+        for (storedFile in entries) {
+            val key = fileKeyOf(storedFile) ?: continue
+            if (key !in keys) {
+                logger.info("Deleting {} from {}", storedFile.fileName, storeDir)
+                Files.delete(storedFile)
+                storedFiles.values.remove(storedFile.toAbsolutePath())
+                deleteIfEmpty(storedFile.parent)
+            }
+        }
+        deleteIfEmpty(storeDir)
+    }
+
+    private fun deleteIfEmpty(dir: Path) {
+        if (Files.list(dir).use { !it.findAny().isPresent }) {
+            Files.delete(dir)
+        }
+    }
+
+    /**
+     * Reads [file]'s key, following any symbolic link into the store.
+     */
+    private fun fileKeyOf(file: Path): Any? {
+        return try {
+            Files.readAttributes(file, BasicFileAttributes::class.java).fileKey()
+        } catch (e: IOException) {
+            // A dangling symbolic link, which cannot keep a stored file.
+            NO_KEY
+        }
+    }
+
+    private companion object {
+        private val NO_KEY = Any()
+    }
+}
@@ -0,0 +1,64 @@
+package net.corda.plugins
+
+import org.gradle.api.InvalidUserCodeException
+import org.gradle.api.InvalidUserDataException
+import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.file.DirectoryProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkAction
+import org.gradle.workers.WorkParameters
+import java.lang.reflect.InvocationTargetException
+import java.nio.file.Path
+
+private const val NETWORK_BOOTSTRAPPER_CLASS_NAME = "net.corda.nodeapi.internal.network.NetworkBootstrapper"
+
+/**
+ * Runs the NetworkBootstrapper inside a Gradle worker process. Gradle keeps
+ * these processes alive between builds, and so the NetworkBootstrapper's
+ * classes only need loading once rather than for every deployment.
+ */
+abstract class NetworkBootstrapperAction : WorkAction<NetworkBootstrapperAction.Parameters> {
+    interface Parameters : WorkParameters {
+        val rootDirectory: DirectoryProperty
+        val cordapps: ConfigurableFileCollection
+        val networkParameterOverrides: Property<String>
+    }
+
+    override fun execute() {
+        val networkBootstrapperClass = javaClass.classLoader.loadNetworkBootstrapper()
+        val rootDir = parameters.rootDirectory.get().asFile.toPath().toAbsolutePath().normalize()
+        val cordapps = parameters.cordapps.files.map { it.toPath() }
+        try {
+            invokeBootstrap(networkBootstrapperClass, rootDir, cordapps, parameters.networkParameterOverrides.orNull)
+        } catch (e: InvocationTargetException) {
+            throw e.cause!!.let { InvalidUserDataException(it.message ?: "", it) }
+        }
+    }
+}
+
+internal fun ClassLoader.loadNetworkBootstrapper(): Class<*> {
+    return try {
+        Class.forName(NETWORK_BOOTSTRAPPER_CLASS_NAME, true, this)
+    } catch (e: ClassNotFoundException) {
+        throw InvalidUserCodeException("Cannot find the NetworkBootstrapper class. Please ensure that 'corda-node-api' is available on Gradle's runtime classpath, "
+                + "e.g. by adding it to Gradle's 'runtimeOnly' configuration.", e)
+    }
+}
+
+/**
+ * Calls NetworkBootstrapper.bootstrapCordform, optionally passing the
+ * network parameter overrides rendered as a [String].
+ */
+internal fun invokeBootstrap(networkBootstrapperClass: Class<*>, rootDir: Path, allCordapps: List<Path>, networkParameterOverrides: String?) {
+    try {
+        if (networkParameterOverrides == null) {
+            val bootstrapMethod = networkBootstrapperClass.getMethod("bootstrapCordform", Path::class.java, List::class.java).apply { isAccessible = true }
+            bootstrapMethod.invoke(networkBootstrapperClass.getDeclaredConstructor().newInstance(), rootDir, allCordapps)
+        } else {
+            val bootstrapMethod = networkBootstrapperClass.getMethod("bootstrapCordform", Path::class.java, List::class.java, String::class.java).apply { isAccessible = true }
+            bootstrapMethod.invoke(networkBootstrapperClass.getDeclaredConstructor().newInstance(), rootDir, allCordapps, networkParameterOverrides)
+        }
+    } catch (e: NoSuchMethodException) {
+        throw InvalidUserDataException("Unrecognised configuration options passed. Please ensure you're using the correct 'corda-node-api' version on Gradle's runtime classpath.", e)
+    }
+}
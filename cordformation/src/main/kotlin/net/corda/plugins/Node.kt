@@ -4,14 +4,10 @@ import com.typesafe.config.*
 import net.corda.plugins.Cordformation.Companion.CORDA_CPK_CONFIGURATION_NAME
 import net.corda.plugins.Cordformation.Companion.CORDA_DRIVER_CONFIGURATION_NAME
 import net.corda.plugins.Cordformation.Companion.CORDA_RUNTIME_ONLY_CONFIGURATION_NAME
-import net.corda.plugins.Cordformation.Companion.CPK_CLASSIFIER
-import net.corda.plugins.Cordformation.Companion.DEPLOY_CORDAPP_CONFIGURATION_NAME
 import net.corda.plugins.Cordformation.Companion.DEFAULT_JOLOKIA_VERSION
 import org.gradle.api.Action
 import org.gradle.api.GradleException
 import org.gradle.api.Project
-import org.gradle.api.artifacts.ResolvedArtifact
-import org.gradle.api.artifacts.component.ProjectComponentIdentifier
 import org.gradle.api.file.FileSystemOperations
 import org.gradle.api.model.ObjectFactory
 import org.gradle.api.plugins.JavaPlugin.RUNTIME_CLASSPATH_CONFIGURATION_NAME
@@ -49,6 +45,9 @@ open class Node @Inject constructor(
         private const val configFileProperty = "configFile"
         private const val DEFAULT_HOST = "localhost"
         private const val LOGS_DIR_NAME = "logs"
+        private const val CORDAPPS_DIR_NAME = "cordapps"
+        private const val DRIVERS_DIR_NAME = "drivers"
+        private const val WEB_SERVER_CONFIG_FILE_NAME = "web-server.conf"
         private const val CPK_TASK_NAME = "cpk"
 
         /**
@@ -177,6 +176,18 @@ open class Node @Inject constructor(
     @get:Internal
     var nodeJobTimeOutInMinutes: Long = 3
 
+    /**
+     * The files that this node installs from Gradle's configurations. Gradle
+     * won't let us resolve configurations from our own threads, and so we must
+     * resolve these before assembling nodes concurrently.
+     */
+    private val webJar: File by lazy(::resolveWebserverJar)
+    private val agentJar: File? by lazy(::resolveAgentJar)
+    private val driverJars: Set<File> by lazy {
+        task.project.configuration(CORDA_DRIVER_CONFIGURATION_NAME).files
+    }
+    private val nodeCordapps: List<ResolvedCordapp> by lazy(::getCordappList)
+
     /**
      * Set the name of the node.
      *
@@ -385,20 +396,71 @@ open class Node @Inject constructor(
         installCordapps()
         installCordappConfigs()
         installConfig()
-        runSchemaMigration()
+    }
+
+    /**
+     * Resolves everything this node needs from Gradle's configurations.
+     */
+    internal fun resolveDependencies() {
+        if (config.hasPath("webAddress")) {
+            webJar
+        }
+        agentJar
+        driverJars
+        nodeCordapps
+    }
+
+    /**
+     * Replaces the files that [build] installed into an existing node directory,
+     * including its webserver configuration, without touching the node's
+     * certificates or database.
+     */
+    internal fun update() {
+        for (fileName in listOf(CORDAPPS_DIR_NAME, DRIVERS_DIR_NAME, WEB_SERVER_CONFIG_FILE_NAME)) {
+            fs.delete { it.delete(File(nodeDir, fileName)) }
+        }
+        build()
+    }
+
+    /**
+     * Identifies this node's configuration, which the Network Bootstrapper uses.
+     */
+    internal fun configFingerprint(): String {
+        configureProperties()
+        return fingerprintOf(listOf(
+            nodeDir.name,
+            createNodeConfig(config).root().render(ConfigRenderOptions.concise()),
+            optionalConfigFile()?.takeIf(File::isFile)?.readText()
+        ))
+    }
+
+    /**
+     * Identifies the files that [build] installs into this node.
+     */
+    internal fun contentFingerprint(): String {
+        val driverFiles = driverJars + listOfNotNull(agentJar) + drivers.orEmpty().map(::File).filter(File::isFile)
+        return fingerprintOf(
+            nodeCordapps.map { (jarFile, config) -> "${jarFile.fileName}=${jarFile.sha256()}:$config" }
+                + driverFiles.map { "${it.name}=${it.toPath().sha256()}" }
+                + (if (config.hasPath("webAddress")) webJar.toPath().sha256() else null)
+                + (if (config.hasPath("webAddress")) createWebserverConfig().root().render(ConfigRenderOptions.concise()) else null)
+                + runSchemaMigration
+                + allowHibernateToManageAppSchema
+        )
     }
 
     internal fun buildDocker() {
         installDrivers()
         installCordapps()
         installCordappConfigs()
-        runSchemaMigration()
     }
 
     internal fun installCordapps() {
-        val cordappsDir = nodeDir.toPath().resolve("cordapps")
-        val nodeCordapps = getCordappList().map(ResolvedCordapp::jarFile).distinct()
-        nodeCordapps.map { nodeCordapp ->
+        val cordappsDir = nodeDir.toPath().resolve(CORDAPPS_DIR_NAME)
+        nodeCordapps.map(ResolvedCordapp::jarFile).distinct().forEach { nodeCordapp ->
+            if (task.linkFile(nodeCordapp.toFile(), cordappsDir.toFile())) {
+                return@forEach
+            }
             fs.copy {
                 it.apply {
                     from(nodeCordapp)
@@ -460,7 +522,20 @@ open class Node @Inject constructor(
      * Installs the corda webserver JAR to the node directory
      */
     private fun installWebserverJar() {
-        val webJar = webserverJar?.let { web ->
+        if (task.linkFile(webJar, nodeDir, webJarName)) {
+            return
+        }
+        fs.copy {
+            it.apply {
+                from(webJar)
+                into(nodeDir)
+                rename(webJar.name, webJarName)
+            }
+        }
+    }
+
+    private fun resolveWebserverJar(): File {
+        return webserverJar?.let { web ->
             task.logger.lifecycle("Using custom webserver: $web.")
             File(web)
         } ?: run {
@@ -473,14 +548,6 @@ open class Node @Inject constructor(
                 Cordformation.verifyAndGetRuntimeJar(task.project, "corda-webserver")
             }
         }
-
-        fs.copy {
-            it.apply {
-                from(webJar)
-                into(nodeDir)
-                rename(webJar.name, webJarName)
-            }
-        }
     }
 
 
@@ -493,9 +560,13 @@ open class Node @Inject constructor(
             "--app-schemas",
             if (allowHibernateToManageAppSchema) "--allow-hibernate-to-manage-app-schema" else null)
 
-    private fun runSchemaMigration(){
+    /**
+     * Runs this node's database schema migrations, which [build] and [buildDocker]
+     * leave for [Baseform.runSchemaMigrations] to run instead.
+     */
+    internal fun runSchemaMigration() {
         if (!runSchemaMigration) return
-        task.logger.lifecycle("Run database schema migration scripts${if(allowHibernateToManageAppSchema) " - managing CorDapp schemas with hibernate" else ""}")
+        task.logger.lifecycle("Run database schema migration scripts for $name${if(allowHibernateToManageAppSchema) " - managing CorDapp schemas with hibernate" else ""}")
         runNodeJob(createSchemasCmd(), "node-schema-cordform.log")
     }
 
@@ -543,6 +614,10 @@ open class Node @Inject constructor(
      * Installs the jolokia monitoring agent JAR to the node/drivers directory
      */
     private fun installAgentJar() {
+        agentJar?.let(::copyToDriversDir)
+    }
+
+    private fun resolveAgentJar(): File? {
         // TODO: improve how we re-use existing declared external variables from root gradle.build
         val jolokiaVersion = task.project.findRootProperty("jolokia_version") ?: DEFAULT_JOLOKIA_VERSION
 
@@ -554,12 +629,12 @@ open class Node @Inject constructor(
         }.firstOrNull()
         agentJar?.let {
             task.logger.info("Jolokia agent jar: $it")
-            copyToDriversDir(it)
         }
+        return agentJar
     }
 
     internal fun installDrivers() {
-        task.project.configuration(CORDA_DRIVER_CONFIGURATION_NAME).files.forEach {
+        driverJars.forEach {
             task.logger.lifecycle("Copy ${it.name} to './drivers' directory")
             copyToDriversDir(it)
         }
@@ -572,7 +647,10 @@ open class Node @Inject constructor(
 
     private fun copyToDriversDir(file: File) {
         if (file.isFile) {
-            val driversDir = File(nodeDir, "drivers")
+            val driversDir = File(nodeDir, DRIVERS_DIR_NAME)
+            if (task.linkFile(file, driversDir)) {
+                return
+            }
             fs.copy {
                 it.apply {
                     from(file)
@@ -598,8 +676,8 @@ open class Node @Inject constructor(
     }
 
     private fun installCordappConfigs() {
-        val cordappsDir = nodeDir.toPath().resolve("cordapps")
-        val cordapps = getCordappList()
+        val cordappsDir = nodeDir.toPath().resolve(CORDAPPS_DIR_NAME)
+        val cordapps = nodeCordapps
         val configDir = cordappsDir.resolve("config")
         for ((jarFile, config) in cordapps) {
             if (config == null) continue
@@ -677,7 +755,7 @@ open class Node @Inject constructor(
             }
         }
         if (config.hasPath("webAddress")) {
-            val webServerConfigFile = createTempConfigFile(createWebserverConfig().root(), "web-server.conf")
+            val webServerConfigFile = createTempConfigFile(createWebserverConfig().root(), WEB_SERVER_CONFIG_FILE_NAME)
             fs.copy {
                 it.apply {
                     from(webServerConfigFile)
@@ -707,12 +785,7 @@ open class Node @Inject constructor(
      * Appends installed config file with properties from an optional file.
      */
     private fun appendOptionalConfig(confFile: File) {
-        //provided by -PconfigFile command line property when running Gradle task
-        val optionalConfig = providers.gradleProperty(configFileProperty)
-            .orElse(configFile)
-            .map { File(it.toString()) }
-            .orNull
-
+        val optionalConfig = optionalConfigFile()
         if (optionalConfig != null) {
             if (!optionalConfig.exists()) {
                 task.logger.error("$configFileProperty '$optionalConfig' not found")
@@ -722,6 +795,14 @@ open class Node @Inject constructor(
         }
     }
 
+    private fun optionalConfigFile(): File? {
+        //provided by -PconfigFile command line property when running Gradle task
+        return providers.gradleProperty(configFileProperty)
+            .orElse(configFile)
+            .map { File(it.toString()) }
+            .orNull
+    }
+
     /**
      * Gets a list of cordapps based on what dependent cordapps were specified.
      *
@@ -739,33 +820,7 @@ open class Node @Inject constructor(
             return null
         }
 
-        val cordappConfiguration = task.project.configuration(DEPLOY_CORDAPP_CONFIGURATION_NAME).resolvedConfiguration
-        val cordappFile = cordappConfiguration.firstLevelModuleDependencies.flatMapTo(LinkedHashSet<File>()) { dep ->
-            when {
-                cordapp.projectPath != null ->
-                    if (dep.configuration == CORDA_CPK_CONFIGURATION_NAME) {
-                        dep.moduleArtifacts.filter { artifact ->
-                            val componentId = artifact.id.componentIdentifier
-                            componentId is ProjectComponentIdentifier && componentId.projectPath == cordapp.projectPath
-                        }.map(ResolvedArtifact::getFile)
-                    } else {
-                        emptyList()
-                    }
-                cordapp.coordinates.isNotEmpty() -> {
-                    val moduleCoordinates = with(dep) {
-                        "$moduleGroup:$moduleName:$moduleVersion"
-                    }
-                    if (cordapp.coordinates == moduleCoordinates) {
-                        dep.moduleArtifacts.filter { artifact ->
-                            artifact.classifier == CPK_CLASSIFIER
-                        }.map(ResolvedArtifact::getFile)
-                    } else {
-                        emptyList()
-                    }
-                }
-                else -> emptyList()
-            }
-        }
+        val cordappFile = task.findCordappFiles(cordapp)
 
         val cordappName = cordapp.projectPath ?: cordapp.coordinates
         return when {
@@ -1,8 +1,11 @@
 package net.corda.plugins
 
+import com.typesafe.config.ConfigFactory
 import org.assertj.core.api.Assertions.assertThat
+import org.gradle.testkit.runner.TaskOutcome.FAILED
 import org.gradle.testkit.runner.TaskOutcome.SUCCESS
 import org.junit.jupiter.api.Test
+import java.nio.file.Files
 
 class CordformTest : BaseformTest() {
     @Test
@@ -75,6 +78,27 @@ class CordformTest : BaseformTest() {
         assertThat(getNodeLogFile(notaryNodeName, "node-info-gen.log")).isRegularFile()
     }
 
+    @Test
+    fun `nodes run their schema migrations concurrently`() {
+        val runner = getStandardGradleRunnerFor(
+            "DeployTwoNodesWithConcurrentMigrations.gradle",
+            "deployNodes",
+            "-Pcorda_release_version=$cordaReleaseVersion",
+            "-Pcorda_bundle_version=$cordaBundleVersion"
+        )
+
+        val result = runner.build()
+
+        assertThat(result.task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        assertThat(result.output)
+            .contains("Schema migration for O=Notary Service,L=Zurich,C=CH succeeded")
+            .contains("Schema migration for O=BankOfCorda,L=London,C=GB succeeded")
+        for (nodeName in listOf(notaryNodeName, bankNodeName)) {
+            assertThat(getNodeLogFile(nodeName, "node-run-migration.log")).isRegularFile()
+            assertThat(getNodeLogFile(nodeName, "node-schema-cordform.log")).isRegularFile()
+        }
+    }
+
     @Test
     fun `a node with cordapp dependency`() {
         val runner = getStandardGradleRunnerFor(
@@ -164,6 +188,172 @@ class CordformTest : BaseformTest() {
         assertThat(getNodeCordappConfig(notaryNodeName, localCordappCpkName)).isRegularFile()
     }
 
+    @Test
+    fun `deploy two nodes concurrently`() {
+        val runner = getStandardGradleRunnerFor(
+            "DeployTwoNodeCordappInParallel.gradle",
+            "deployNodes",
+            "-Pcorda_release_version=$cordaReleaseVersion",
+            "-Pcorda_bundle_version=$cordaBundleVersion"
+        )
+
+        val result = runner.build()
+
+        assertThat(result.task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        for (nodeName in listOf(notaryNodeName, bankNodeName)) {
+            assertThat(getNodeConfigFile(nodeName)).isRegularFile()
+            assertThat(getNodeCordappCpk(nodeName, cordaWorkflowsCpkName)).isRegularFile()
+            assertThat(getNodeCordappCpk(nodeName, cordaContractsCpkName)).isRegularFile()
+            assertThat(getNetworkParameterOverrides(nodeName)).isRegularFile()
+        }
+    }
+
+    @Test
+    fun `deploy two nodes with hard links`() {
+        val runner = getStandardGradleRunnerFor(
+            "DeployTwoNodeCordappWithHardLinks.gradle",
+            "deployNodes",
+            "-Pcorda_release_version=$cordaReleaseVersion",
+            "-Pcorda_bundle_version=$cordaBundleVersion"
+        )
+
+        val result = runner.build()
+
+        assertThat(result.task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        for (cpkName in listOf(cordaWorkflowsCpkName, cordaContractsCpkName)) {
+            val notaryCpk = getNodeCordappCpk(notaryNodeName, cpkName)
+            val bankCpk = getNodeCordappCpk(bankNodeName, cpkName)
+            assertThat(notaryCpk).isRegularFile()
+            assertThat(Files.isSameFile(notaryCpk, bankCpk)).isTrue
+        }
+        val notaryCordaJar = getNodeConfigFile(notaryNodeName).resolveSibling("corda.jar")
+        val bankCordaJar = getNodeConfigFile(bankNodeName).resolveSibling("corda.jar")
+        assertThat(notaryCordaJar).isRegularFile()
+        assertThat(Files.isSameFile(notaryCordaJar, bankCordaJar)).isTrue
+    }
+
+    @Test
+    fun `deploy only each node's own cordapps`() {
+        val runner = getStandardGradleRunnerFor(
+            "DeployTwoNodesWithDifferentCordapps.gradle",
+            "deployNodes",
+            "-Pcorda_release_version=$cordaReleaseVersion",
+            "-Pcorda_bundle_version=$cordaBundleVersion"
+        )
+
+        val result = runner.build()
+
+        assertThat(result.task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        assertThat(getNodeCordappCpk(notaryNodeName, cordaContractsCpkName)).isRegularFile()
+        assertThat(getNodeCordappCpk(notaryNodeName, cordaWorkflowsCpkName)).doesNotExist()
+        assertThat(getNodeCordappCpk(bankNodeName, cordaContractsCpkName)).isRegularFile()
+        assertThat(getNodeCordappCpk(bankNodeName, cordaWorkflowsCpkName)).isRegularFile()
+    }
+
+    @Test
+    fun `fail to deploy a cordapp missing from the cordapp configuration`() {
+        val runner = getStandardGradleRunnerFor(
+            "DeploySingleNodeWithMissingCordapp.gradle",
+            "deployNodes",
+            "-Pcorda_release_version=$cordaReleaseVersion",
+            "-Pcorda_bundle_version=$cordaBundleVersion"
+        )
+
+        val result = runner.buildAndFail()
+
+        assertThat(result.task(":deployNodes")!!.outcome).isEqualTo(FAILED)
+        assertThat(result.output).contains(
+            "CorDapp net.corda:corda-smoketest-linearstate-sample-workflows:$cordaBundleVersion not found in cordapp configuration."
+        )
+    }
+
+    @Test
+    fun `bootstrap the network in a worker process`() {
+        val runner = getStandardGradleRunnerFor(
+            "DeploySingleNodeWithForkedBootstrapper.gradle",
+            "deployNodes",
+            "-Pcorda_release_version=$cordaReleaseVersion",
+            "-Pcorda_bundle_version=$cordaBundleVersion"
+        )
+
+        val result = runner.build()
+
+        assertThat(result.task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        assertThat(result.output).contains("Running NetworkBootstrapper in a worker process")
+        assertThat(getNodeCordappCpk(notaryNodeName, cordaWorkflowsCpkName)).isRegularFile()
+        assertThat(getNodeCordappCpk(notaryNodeName, cordaContractsCpkName)).isRegularFile()
+        assertThat(getNetworkParameterOverrides(notaryNodeName)).isRegularFile()
+    }
+
+    @Test
+    fun `incremental deployment updates only the changed nodes`() {
+        val runner = getStandardGradleRunnerFor(
+            "DeployTwoNodesIncrementally.gradle",
+            "deployNodes",
+            "-Pcorda_release_version=$cordaReleaseVersion",
+            "-Pcorda_bundle_version=$cordaBundleVersion"
+        )
+        installResource("dummyJar.jar")
+
+        assertThat(runner.build().task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        assertThat(getNodeCordappCpk(bankNodeName, cordaContractsCpkName)).isRegularFile()
+        // A full deployment would delete this file.
+        val marker = Files.write(getNodeConfigFile(notaryNodeName).resolveSibling("marker.txt"), listOf("marker"))
+
+        val unchanged = runner.build()
+        assertThat(unchanged.task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        assertThat(unchanged.output).contains("are already up to date")
+        assertThat(marker).isRegularFile()
+
+        val updated = runner.withArguments(runner.arguments + "-Pbank_driver=dummyJar.jar").build()
+        assertThat(updated.task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        assertThat(updated.output).contains("Updating nodes: O=BankOfCorda,L=London,C=GB")
+        assertThat(getNodeConfigFile(bankNodeName).resolveSibling("drivers").resolve("dummyJar.jar")).isRegularFile()
+        assertThat(getNodeCordappCpk(bankNodeName, cordaContractsCpkName)).isRegularFile()
+        assertThat(marker).isRegularFile()
+    }
+
+    @Test
+    fun `incremental deployment updates the webserver configuration`() {
+        val runner = getStandardGradleRunnerFor(
+            "DeployTwoNodesIncrementally.gradle",
+            "deployNodes",
+            "-Pcorda_release_version=$cordaReleaseVersion",
+            "-Pcorda_bundle_version=$cordaBundleVersion"
+        )
+        installResource("dummyJar.jar")
+        val arguments = runner.arguments
+
+        val deployed = runner.withArguments(arguments + "-Pbank_web_address=localhost:10009").build()
+        assertThat(deployed.task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        val webServerConfigFile = getNodeConfigFile(bankNodeName).resolveSibling("web-server.conf")
+        assertThat(ConfigFactory.parseFile(webServerConfigFile.toFile()).getString("webAddress")).isEqualTo("localhost:10009")
+
+        val updated = runner.withArguments(arguments + "-Pbank_web_address=localhost:10010").build()
+        assertThat(updated.task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        assertThat(updated.output).contains("Updating nodes: O=BankOfCorda,L=London,C=GB")
+        assertThat(ConfigFactory.parseFile(webServerConfigFile.toFile()).getString("webAddress")).isEqualTo("localhost:10010")
+    }
+
+    @Test
+    fun `incremental deployment deploys every node when the network changes`() {
+        val runner = getStandardGradleRunnerFor(
+            "DeployTwoNodesIncrementally.gradle",
+            "deployNodes",
+            "-Pcorda_release_version=$cordaReleaseVersion",
+            "-Pcorda_bundle_version=$cordaBundleVersion"
+        )
+
+        assertThat(runner.build().task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        val marker = Files.write(getNodeConfigFile(notaryNodeName).resolveSibling("marker.txt"), listOf("marker"))
+
+        val redeployed = runner.withArguments(runner.arguments + "-Pbank_p2p_port=10008").build()
+        assertThat(redeployed.task(":deployNodes")!!.outcome).isEqualTo(SUCCESS)
+        assertThat(redeployed.output).contains("Network configuration has changed, deploying all nodes again")
+        assertThat(getNodeConfig(bankNodeName).getString("p2pAddress")).isEqualTo("localhost:10008")
+        assertThat(marker).doesNotExist()
+    }
+
     @Test
     fun `regex matching used by verifyAndGetRuntimeJar()`() {
         val jarName = "corda"
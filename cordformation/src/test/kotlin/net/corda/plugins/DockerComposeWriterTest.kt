@@ -0,0 +1,115 @@
+package net.corda.plugins
+
+import net.corda.plugins.DockerComposeWriter.Companion.YAML_MAPPER
+import org.assertj.core.api.Assertions.assertThat
+import org.junit.jupiter.api.Test
+import org.yaml.snakeyaml.DumperOptions
+import org.yaml.snakeyaml.Yaml
+import java.io.StringWriter
+
+class DockerComposeWriterTest {
+    private companion object {
+        private const val NODE_DIR = "/home/corda/projects/example-cordapp/workflows/build/nodes/BankOfCorda"
+        // snakeyaml would fold this long value at a different place inside a single entry.
+        private val COMMAND = "bash -c \"java -jar /home/app.jar " + (1..30).joinToString(" ") { "-Da$it=b" } + "\""
+
+        private val DATABASE = "bankofcorda-db" to mapOf(
+            "build" to mapOf(
+                "context" to "/home/corda/projects/example-cordapp/workflows/build",
+                "dockerfile" to "/home/corda/projects/example-cordapp/workflows/build/Postgres_Dockerfile",
+                "args" to mapOf("DBNAME" to "bankofcorda_db", "DBSCHEMA" to "bankofcorda_schema", "DBPORT" to 5433)
+            ),
+            "restart" to "unless-stopped",
+            "volumes" to listOf("bankofcorda-db-volume:/var/lib/postgresql/data")
+        )
+
+        private val NODE = "bankofcorda" to mapOf(
+            "volumes" to listOf(
+                "$NODE_DIR/node.conf:/etc/corda/node.conf",
+                "$NODE_DIR/additional-node-infos:/opt/corda/additional-node-infos"
+            ),
+            "environment" to listOf("ACCEPT_LICENSE=\${ACCEPT_LICENSE}"),
+            "ports" to listOf(10006, QuotedString("22235:22235")),
+            "image" to "corda/corda-zulu-4.3",
+            "depends_on" to listOf("bankofcorda-db")
+        )
+
+        private val EXTERNAL = "example-service" to mapOf(
+            "container_name" to "example-service",
+            "image" to "docker.io/bitnami/java:latest",
+            "ports" to listOf(QuotedString("8080:8080")),
+            "command" to COMMAND
+        )
+
+        private val VOLUME = "bankofcorda-db-volume" to mapOf(
+            "driver" to "local",
+            "driver_opts" to mapOf("type" to "none", "device" to "$NODE_DIR/persistence/database", "o" to "bind")
+        )
+    }
+
+    private fun writeCompose(services: List<Pair<String, Map<String, Any>>>, volumes: List<Pair<String, Map<String, Any>>>): String {
+        val output = StringWriter()
+        val compose = DockerComposeWriter(output)
+        compose.writeVersion("3")
+        compose.writeSection("services")
+        services.forEach(compose::writeEntry)
+        if (volumes.isNotEmpty()) {
+            compose.writeSection("volumes")
+            volumes.forEach(compose::writeEntry)
+        }
+        return output.toString()
+    }
+
+    /**
+     * How we used to create the docker-compose file, as a single document.
+     */
+    private fun dumpCompose(
+        services: List<Pair<String, Map<String, Any>>>,
+        volumes: List<Pair<String, Map<String, Any>>>,
+        yaml: Yaml = YAML_MAPPER
+    ): String {
+        val document = mutableMapOf<String, Any>(
+            "version" to "3",
+            "services" to services.toMap()
+        )
+        if (volumes.isNotEmpty()) {
+            document["volumes"] = volumes.toMap()
+        }
+        return yaml.dump(document)
+    }
+
+    @Test
+    fun `entries match the whole document`() {
+        val services = listOf(DATABASE, NODE, EXTERNAL)
+        val volumes = listOf(VOLUME)
+        assertThat(writeCompose(services, volumes)).isEqualTo(dumpCompose(services, volumes))
+    }
+
+    @Test
+    fun `entries without volumes match the whole document`() {
+        val services = listOf(NODE, EXTERNAL)
+        assertThat(writeCompose(services, emptyList())).isEqualTo(dumpCompose(services, emptyList()))
+    }
+
+    @Test
+    fun `long values are not folded`() {
+        val compose = writeCompose(listOf(EXTERNAL), emptyList())
+        assertThat(compose.lines()).anyMatch { it.contains("bash -c") && it.contains("-Da30=b") }
+        assertThat(compose).contains("- \"8080:8080\"")
+    }
+
+    @Test
+    fun `long values are only folded differently from the original single dump`() {
+        // The original single dump folded long lines, but could not represent QuotedString values.
+        val originalYaml = Yaml(DumperOptions().apply {
+            indent = 2
+            defaultFlowStyle = DumperOptions.FlowStyle.BLOCK
+        })
+        val services = listOf(DATABASE, EXTERNAL.first to EXTERNAL.second - "ports")
+        val volumes = listOf(VOLUME)
+        val compose = writeCompose(services, volumes)
+        val original = dumpCompose(services, volumes, originalYaml)
+        assertThat(compose).isNotEqualTo(original)
+        assertThat(originalYaml.load<Any>(compose)).isEqualTo(originalYaml.load<Any>(original))
+    }
+}
@@ -0,0 +1,92 @@
+package net.corda.plugins
+
+import org.assertj.core.api.Assertions.assertThat
+import org.gradle.api.Project
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+
+class DockerImageCacheTest {
+    private lateinit var project: Project
+    private lateinit var externalJar: Path
+    private lateinit var projectJar: Path
+    private lateinit var docker: StubDocker
+
+    @BeforeEach
+    fun setup(@TempDir projectDir: Path, @TempDir externalDir: Path) {
+        project = ProjectBuilder.builder().withProjectDir(projectDir.toFile()).withName("test").build()
+        project.pluginManager.apply(Cordformation::class.java)
+        externalJar = Files.write(externalDir.resolve("external.jar"), byteArrayOf(1))
+        projectJar = Files.write(projectDir.resolve("local.jar"), byteArrayOf(2))
+        docker = StubDocker()
+    }
+
+    private fun createTask(): DockerImage {
+        return project.tasks.create("dockerImage${project.tasks.size}", DockerImage::class.java) { task ->
+            task.baseImage("corda/entImage")
+            task.cordaJars(listOf(projectJar.toFile(), externalJar.toFile()))
+            task.dockerImageTag("registry:5000/corda/test:1.0")
+            task.dockerOperations = { docker }
+        }
+    }
+
+    @Test
+    fun testStableJarsAreCopiedFirst() {
+        val task = createTask()
+        task.build()
+
+        val dockerfile = task.outputDir.file("Dockerfile").get().asFile.readLines()
+        assertThat(dockerfile).containsExactly(
+            "FROM corda/entImage",
+            "COPY [\"external.jar\", \"/opt/corda/cordapps/\"]",
+            "COPY [\"local.jar\", \"/opt/corda/cordapps/\"]"
+        )
+    }
+
+    @Test
+    fun testIdenticalImageIsNotRebuilt() {
+        createTask().build()
+        assertThat(docker.built).hasSize(1)
+        val contentTag = docker.built.single()
+        assertThat(contentTag).startsWith("registry:5000/corda/test:").isNotEqualTo("registry:5000/corda/test:1.0")
+        assertThat(docker.tags).containsEntry("registry:5000/corda/test:1.0", docker.images[contentTag])
+
+        createTask().build()
+        assertThat(docker.built).hasSize(1)
+        assertThat(docker.tags).hasSize(1)
+    }
+
+    @Test
+    fun testChangedJarIsRebuilt() {
+        createTask().build()
+        Files.write(projectJar, byteArrayOf(3))
+        createTask().build()
+
+        assertThat(docker.built).hasSize(2)
+        assertThat(docker.built[0]).isNotEqualTo(docker.built[1])
+        assertThat(docker.tags).containsEntry("registry:5000/corda/test:1.0", docker.images[docker.built[1]])
+    }
+
+    private class StubDocker : DockerOperations {
+        val images = mutableMapOf<String, String>()
+        val tags = mutableMapOf<String, String>()
+        val built = mutableListOf<String>()
+
+        override fun findImageId(name: String): String? = images[name]
+
+        override fun build(directory: Path, name: String, dockerFileName: String): String {
+            assertThat(directory.resolve(dockerFileName)).isRegularFile()
+            built += name
+            return "sha256:${built.size}".also { images[name] = it }
+        }
+
+        override fun tag(imageId: String, tag: String) {
+            tags[tag] = imageId
+        }
+
+        override fun close() {}
+    }
+}
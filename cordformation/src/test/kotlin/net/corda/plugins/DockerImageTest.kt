@@ -14,6 +14,7 @@ class DockerImageTest :BaseformTest() {
             "-Pcorda_release_version=$cordaReleaseVersion",
             "-Pcorda_bundle_version=$cordaBundleVersion"
         )
+        installResource("dummyJar.jar")
 
         val result = runner.build()
         println(result.output)
@@ -23,7 +24,7 @@ class DockerImageTest :BaseformTest() {
         val dockerfile = Paths.get(testProjectDir.toAbsolutePath().toString(), "build", "docker", "Dockerfile").toFile()
         val text = dockerfile.readText()
         assertThat(text.contains("FROM corda/entImage")).isEqualTo(true)
-        assertThat(text.contains("COPY *.jar /opt/corda/cordapps/")).isEqualTo(true)
+        assertThat(text.contains("COPY [\"dummyJar.jar\", \"/opt/corda/cordapps/\"]")).isEqualTo(true)
     }
 
     @Test
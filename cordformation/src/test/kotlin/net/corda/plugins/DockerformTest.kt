@@ -159,6 +159,32 @@ class DockerformTest : BaseformTest() {
         assertThat(bankOfCordaPortsList).contains("22235:22235")
     }
 
+    @Suppress("unchecked_cast")
+    @Test
+    fun `deploy two nodes concurrently`() {
+        val runner = getStandardGradleRunnerFor(
+            "DeployTwoNodeCordappInParallelWithDocker.gradle",
+            "prepareDockerNodes",
+            "-Pcorda_release_version=$cordaReleaseVersion",
+            "-Pcorda_bundle_version=$cordaBundleVersion"
+        )
+
+        val result = runner.build()
+
+        assertThat(result.task(":prepareDockerNodes")!!.outcome).isEqualTo(TaskOutcome.SUCCESS)
+        for (nodeName in listOf(notaryNodeName, bankNodeName)) {
+            assertThat(getNodeCordappCpk(nodeName, cordaWorkflowsCpkName)).isRegularFile()
+            assertThat(getNodeCordappCpk(nodeName, cordaContractsCpkName)).isRegularFile()
+            assertThat(getNetworkParameterOverrides(nodeName)).isRegularFile()
+        }
+
+        val yaml = getDockerCompose().toFile().bufferedReader().use { reader ->
+            Yaml().load(reader) as Map<String, Any>
+        }
+        val services = yaml["services"] as Map<String, Any>
+        assertThat(services).containsKeys("notary-service", "bankofcorda")
+    }
+
     @Suppress("unchecked_cast")
     @Test
     fun `deploy two nodes with Docker and external service`() {
@@ -0,0 +1,99 @@
+package net.corda.plugins
+
+import org.assertj.core.api.Assertions.assertThat
+import org.gradle.api.logging.Logging
+import org.junit.jupiter.api.BeforeEach
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.stream.Collectors.toList
+
+class FileInstallerTest {
+    @TempDir
+    lateinit var testDir: Path
+
+    private lateinit var rootDir: Path
+    private lateinit var storeDir: Path
+    private lateinit var installer: FileInstaller
+
+    @BeforeEach
+    fun setup() {
+        rootDir = Files.createDirectory(testDir.resolve("nodes"))
+        storeDir = rootDir.resolve(".store")
+        installer = FileInstaller(storeDir, InstallMode.HARD_LINK, Logging.getLogger(FileInstallerTest::class.java))
+    }
+
+    private fun createSource(name: String, content: String): Path {
+        return Files.write(testDir.resolve(name), content.toByteArray())
+    }
+
+    private fun storedFiles(): List<String> {
+        if (!Files.isDirectory(storeDir)) {
+            return emptyList()
+        }
+        return Files.walk(storeDir).use { files ->
+            files.filter(Files::isRegularFile).map { it.fileName.toString() }.collect(toList())
+        }
+    }
+
+    @Test
+    fun `nodes share one stored copy of each file`() {
+        val cordapp = createSource("cordapp.jar", "cordapp")
+        assertThat(installer.link(cordapp, rootDir.resolve("Alice/cordapps"), "cordapp.jar")).isTrue
+        assertThat(installer.link(cordapp, rootDir.resolve("Bob/cordapps"), "cordapp.jar")).isTrue
+
+        assertThat(rootDir.resolve("Alice/cordapps/cordapp.jar")).hasContent("cordapp")
+        assertThat(rootDir.resolve("Bob/cordapps/cordapp.jar")).hasContent("cordapp")
+        assertThat(storedFiles()).containsExactly("cordapp.jar")
+    }
+
+    @Test
+    fun `copy mode does not link`() {
+        val copier = FileInstaller(storeDir, InstallMode.COPY, Logging.getLogger(FileInstallerTest::class.java))
+        assertThat(copier.link(createSource("cordapp.jar", "cordapp"), rootDir.resolve("Alice/cordapps"), "cordapp.jar")).isFalse
+        assertThat(storeDir).doesNotExist()
+    }
+
+    @Test
+    fun `prune deletes stored files without links`() {
+        val cordapp = createSource("cordapp.jar", "cordapp")
+        val driver = createSource("driver.jar", "driver")
+        installer.link(cordapp, rootDir.resolve("Alice/cordapps"), "cordapp.jar")
+        installer.link(driver, rootDir.resolve("Alice/drivers"), "driver.jar")
+        installer.link(driver, rootDir.resolve("Bob/drivers"), "driver.jar")
+
+        // Updating Alice replaces her cordapps directory.
+        Files.delete(rootDir.resolve("Alice/cordapps/cordapp.jar"))
+        Files.delete(rootDir.resolve("Alice/drivers/driver.jar"))
+        installer.prune(rootDir)
+
+        assertThat(storedFiles()).containsExactly("driver.jar")
+        assertThat(rootDir.resolve("Bob/drivers/driver.jar")).hasContent("driver")
+    }
+
+    @Test
+    fun `prune keeps stored files with symbolic links`() {
+        val cordapp = createSource("cordapp.jar", "cordapp")
+        val cordappsDir = rootDir.resolve("Alice/cordapps")
+        installer.link(cordapp, cordappsDir, "cordapp.jar")
+
+        val storedFile = Files.walk(storeDir).use { files -> files.filter(Files::isRegularFile).findFirst().get() }
+        val link = cordappsDir.resolve("cordapp.jar")
+        Files.delete(link)
+        Files.createSymbolicLink(link, cordappsDir.relativize(storedFile))
+        installer.prune(rootDir)
+
+        assertThat(storedFiles()).containsExactly("cordapp.jar")
+        assertThat(link).hasContent("cordapp")
+    }
+
+    @Test
+    fun `prune deletes an unused store`() {
+        installer.link(createSource("cordapp.jar", "cordapp"), rootDir.resolve("Alice/cordapps"), "cordapp.jar")
+        Files.delete(rootDir.resolve("Alice/cordapps/cordapp.jar"))
+        installer.prune(rootDir)
+
+        assertThat(storeDir).doesNotExist()
+    }
+}
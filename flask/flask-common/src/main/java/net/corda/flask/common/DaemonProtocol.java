@@ -0,0 +1,54 @@
+package net.corda.flask.common;
+
+/**
+ * The messages that a launcher exchanges with a daemon child process over a loopback socket.
+ * The launcher sends the daemon's secret, followed by the number of arguments and each argument.
+ * The daemon then sends a sequence of frames, each of which starts with one of these type bytes.
+ */
+public final class DaemonProtocol {
+    /**
+     * The key of the daemon's port in its daemon file
+     */
+    public static final String PORT = "port";
+
+    /**
+     * The key of the daemon's secret in its daemon file
+     */
+    public static final String SECRET = "secret";
+
+    /**
+     * The daemon has accepted the launch. The launcher replies with the same byte to confirm it, after which
+     * the daemon runs the application. A launcher that gave up waiting for the daemon closes its socket instead
+     */
+    public static final byte START = 'S';
+
+    /**
+     * An int length, followed by that many bytes that the application wrote to its standard output
+     */
+    public static final byte STDOUT = 'O';
+
+    /**
+     * An int length, followed by that many bytes that the application wrote to its standard error
+     */
+    public static final byte STDERR = 'E';
+
+    /**
+     * The application is reading up to an int number of bytes from its standard input. The launcher replies
+     * with an int length followed by that many bytes, or with a length of -1 at the end of its standard input
+     */
+    public static final byte STDIN = 'I';
+
+    /**
+     * The application has finished, with this int exit code
+     */
+    public static final byte EXIT = 'X';
+
+    /**
+     * The exit code of a daemon whose JVM cannot stop the application's calls to {@code System.exit()}
+     * from stopping the daemon, and which therefore exits before it accepts any launches
+     */
+    public static final int EXIT_UNSUPPORTED = 78;
+
+    private DaemonProtocol() {
+    }
+}
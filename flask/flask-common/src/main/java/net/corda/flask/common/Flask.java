@@ -35,6 +35,10 @@ public class Flask {
         public static final int BUFFER_SIZE = 0x10000;
         public static final String GRADLE_TASK_GROUP = "Flask";
         public static final String DEFAULT_KILL_TIMEOUT_MILLIS = "10000";
+        public static final String DEFAULT_CACHE_MAX_SIZE = Long.toString(1024L * 1024L * 1024L);
+        public static final String SHARED_CACHE_DIR_ENVIRONMENT_VARIABLE = "FLASK_SHARED_CACHE_DIR";
+        public static final String DAEMON_CLASS_NAME = "net.corda.flask.FlaskDaemon";
+        public static final String DEFAULT_DAEMON_IDLE_TIMEOUT_MILLIS = "300000";
 
         /**
          * This value is used as a default file timestamp for all the zip entries when
@@ -52,6 +56,9 @@ public class Flask {
         public static final String PREMAIN_CLASS = "Premain-Class";
         public static final String ENTRY_HASH = "SHA-256-Digest";
         public static final String HEARTBEAT_AGENT_HASH = "Heartbeat-Agent-Hash";
+        public static final String IN_PROCESS = "In-Process";
+        public static final String CLASS_DATA_SHARING = "Class-Data-Sharing";
+        public static final String DAEMON = "Daemon";
     }
 
     public static class JvmProperties {
@@ -63,6 +70,19 @@ public class Flask {
          */
         public static final String PID_FILE = "net.corda.flask.pid.file";
 
+        /**
+         * This property will contain the pid of the parent process, which the child watches
+         * instead of a pid file when the JVM supports {@link ProcessHandles}
+         * (the child dies as soon as the parent process exits)
+         */
+        public static final String PARENT_PID = "net.corda.flask.parent.pid";
+
+        /**
+         * This JVM property can be used to set the location of the flask jar, which a launcher that is not running
+         * from the flask jar itself, such as a native executable built from it, needs in order to find its libraries
+         */
+        public static final String JAR = "net.corda.flask.jar";
+
         /**
          * This JVM property can be used to override the path to the flask cache folder
          */
@@ -73,6 +93,24 @@ public class Flask {
          */
         public static final String WIPE_CACHE = "net.corda.flask.cache.wipe";
 
+        /**
+         * This JVM property can be used to override the number of bytes that the library cache may occupy
+         * before its least recently used libraries are evicted
+         */
+        public static final String CACHE_MAX_SIZE = "net.corda.flask.cache.max.size";
+
+        /**
+         * If this property is set to true, the launcher only evicts the least recently used libraries from the
+         * library cache and then exits, which launchers do in the background after their child process exits
+         */
+        public static final String EVICT_CACHE = "net.corda.flask.cache.evict";
+
+        /**
+         * This JVM property can be used to set the path to a machine-wide library store, which all flask
+         * applications share and which overrides the FLASK_SHARED_CACHE_DIR environment variable
+         */
+        public static final String SHARED_CACHE_DIR = "net.corda.flask.cache.shared.dir";
+
         /**
          * This property will contain the name of the main class the child process Launcher will start
          */
@@ -88,6 +126,54 @@ public class Flask {
          * for the child process termination before killing it forcibly
          */
         public static final String KILL_TIMEOUT_MILLIS = "net.corda.flask.kill.timeout.millis";
+
+        /**
+         * This property overrides whether the application runs inside the launcher's own JVM,
+         * loading its libraries directly from the flask jar instead of extracting them
+         */
+        public static final String IN_PROCESS = "net.corda.flask.in.process";
+
+        /**
+         * This property overrides whether the child process should use a class data sharing archive,
+         * which the flask cache creates the first time it launches the child process
+         */
+        public static final String CLASS_DATA_SHARING = "net.corda.flask.cds";
+
+        /**
+         * This JVM property can be used to write a JSON breakdown of how long each phase of
+         * the launch took, and of how many libraries were extracted or reused, to this file
+         */
+        public static final String METRICS_FILE = "net.corda.flask.metrics.file";
+
+        /**
+         * This property will contain the location in the file system where the child's heartbeat agent
+         * writes the time in milliseconds at which it started, when the parent records launch metrics
+         */
+        public static final String PREMAIN_TIME_FILE = "net.corda.flask.premain.time.file";
+
+        /**
+         * This property overrides whether the application runs in a daemon child process, which outlives
+         * the launcher so that later launches of the same application can reuse it
+         */
+        public static final String DAEMON = "net.corda.flask.daemon";
+
+        /**
+         * This property will contain the amount of time a daemon child process waits for
+         * another launch before exiting
+         */
+        public static final String DAEMON_IDLE_TIMEOUT_MILLIS = "net.corda.flask.daemon.idle.timeout.millis";
+
+        /**
+         * This property will contain the location in the file system where a daemon child process
+         * writes the port and the secret with which launchers connect to it
+         */
+        public static final String DAEMON_FILE = "net.corda.flask.daemon.file";
+
+        /**
+         * This property will contain the location in the file system of the flask cache's lock file,
+         * on which a daemon child process holds a shared lock for as long as it runs
+         */
+        public static final String CACHE_LOCK_FILE = "net.corda.flask.cache.lock.file";
     }
 
     public static void computeSizeAndCrc32(
@@ -26,7 +26,11 @@ public class LockFile implements Closeable {
     public static LockFile tryAcquire(Path path, boolean shared) throws IOException {
         FileChannel channel = openFileChannel(path);
         FileLock lock = channel.tryLock(0L, Long.MAX_VALUE, shared);
-        return (lock != null) ? new LockFile(lock) : null;
+        if (lock == null) {
+            channel.close();
+            return null;
+        }
+        return new LockFile(lock);
     }
 
     private LockFile(FileLock lock) {
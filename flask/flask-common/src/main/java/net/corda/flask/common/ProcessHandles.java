@@ -0,0 +1,78 @@
+package net.corda.flask.common;
+
+import java.lang.reflect.Method;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reflective access to {@code java.lang.ProcessHandle}, which only exists on Java 9 and newer.
+ * Flask itself must still run on Java 8, where these methods all return null.
+ */
+public final class ProcessHandles {
+    private static final Class<?> processHandleClass = findProcessHandleClass();
+
+    private static Class<?> findProcessHandleClass() {
+        try {
+            return Class.forName("java.lang.ProcessHandle");
+        } catch (ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    private ProcessHandles() {
+    }
+
+    /**
+     * @return the pid of this process, or null if this JVM has no {@code ProcessHandle}
+     */
+    public static Long currentPid() {
+        if (processHandleClass == null) {
+            return null;
+        }
+        try {
+            Object current = processHandleClass.getMethod("current").invoke(null);
+            return (Long) processHandleClass.getMethod("pid").invoke(current);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the executable of this process, or null if it is unknown or this JVM has no {@code ProcessHandle}
+     */
+    public static String currentCommand() {
+        if (processHandleClass == null) {
+            return null;
+        }
+        try {
+            Object current = processHandleClass.getMethod("current").invoke(null);
+            Object info = processHandleClass.getMethod("info").invoke(current);
+            Class<?> infoClass = Class.forName("java.lang.ProcessHandle$Info");
+            Optional<?> command = (Optional<?>) infoClass.getMethod("command").invoke(info);
+            return (String) command.orElse(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return a future that completes when the process with this pid exits, which has already completed
+     * if there is no such process, or null if this JVM has no {@code ProcessHandle}
+     */
+    public static CompletableFuture<?> onExit(long pid) {
+        if (processHandleClass == null) {
+            return null;
+        }
+        try {
+            Method of = processHandleClass.getMethod("of", long.class);
+            Optional<?> processHandle = (Optional<?>) of.invoke(null, pid);
+            if (processHandle.isPresent()) {
+                return (CompletableFuture<?>) processHandleClass.getMethod("onExit").invoke(processHandle.get());
+            } else {
+                return CompletableFuture.completedFuture(null);
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+    }
+}
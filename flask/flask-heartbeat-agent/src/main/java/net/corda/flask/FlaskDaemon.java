@@ -0,0 +1,357 @@
+package net.corda.flask;
+
+import net.corda.flask.common.DaemonProtocol;
+import net.corda.flask.common.Flask;
+import net.corda.flask.common.LockFile;
+import net.corda.flask.common.ProcessHandles;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.Permission;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The main class of a daemon child process, which runs the application's main method once for each
+ * launcher that connects to it, one launch at a time, relaying the application's standard streams to and
+ * from that launcher. The daemon exits once no launcher has connected to it for
+ * {@link Flask.JvmProperties#DAEMON_IDLE_TIMEOUT_MILLIS}.
+ */
+public final class FlaskDaemon {
+    /**
+     * How long the daemon waits for the application's main thread to finish after the launch has ended,
+     * before deciding that the application is still running and that the daemon must stop
+     */
+    private static final long MAIN_THREAD_JOIN_MILLIS = 1000;
+
+    /**
+     * The exit code of the launch that is running, if any
+     */
+    private static volatile CompletableFuture<Integer> launchExitCode;
+
+    private static volatile boolean stopping;
+
+    private final Method mainMethod;
+    private final List<String> fixedArgs;
+    private final byte[] secret;
+
+    private FlaskDaemon(Method mainMethod, List<String> fixedArgs, byte[] secret) {
+        this.mainMethod = mainMethod;
+        this.fixedArgs = fixedArgs;
+        this.secret = secret;
+    }
+
+    /**
+     * @param args the application's main class name, followed by any arguments to pass to every launch
+     */
+    public static void main(String[] args) throws Exception {
+        Path daemonFile = Paths.get(System.getProperty(Flask.JvmProperties.DAEMON_FILE));
+        int idleTimeout = (int) Math.min(Integer.MAX_VALUE, Long.parseLong(System.getProperty(
+                Flask.JvmProperties.DAEMON_IDLE_TIMEOUT_MILLIS,
+                Flask.Constants.DEFAULT_DAEMON_IDLE_TIMEOUT_MILLIS)));
+        // The application's main class is only initialised by its first launch, so that its output reaches that launcher.
+        Class<?> mainClass = Class.forName(args[0], false, FlaskDaemon.class.getClassLoader());
+        Method mainMethod = mainClass.getMethod("main", String[].class);
+        byte[] secretBytes = new byte[16];
+        new SecureRandom().nextBytes(secretBytes);
+        String secret = Flask.bytes2Hex(secretBytes);
+        FlaskDaemon daemon = new FlaskDaemon(mainMethod, Arrays.asList(args).subList(1, args.length),
+                secret.getBytes(StandardCharsets.UTF_8));
+
+        try {
+            System.setSecurityManager(new ExitInterceptor());
+        } catch (UnsupportedOperationException | SecurityException e) {
+            System.err.println("The flask daemon cannot intercept System.exit() on this JVM: " + e.getMessage());
+            System.exit(DaemonProtocol.EXIT_UNSUPPORTED);
+        }
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> {
+            if (!(e instanceof ExitException)) {
+                System.err.print("Exception in thread \"" + thread.getName() + "\" ");
+                e.printStackTrace();
+            }
+        });
+
+        // Other launchers must not evict this daemon's libraries for as long as it runs.
+        LockFile.acquire(Paths.get(System.getProperty(Flask.JvmProperties.CACHE_LOCK_FILE)), true);
+        try (ServerSocket serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            serverSocket.setSoTimeout(idleTimeout);
+            writeDaemonFile(daemonFile, serverSocket.getLocalPort(), secret);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> deleteDaemonFile(daemonFile, secret)));
+            while (true) {
+                Socket socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (SocketTimeoutException e) {
+                    break;
+                }
+                try (Socket ignored = socket) {
+                    if (!daemon.serve(socket)) {
+                        break;
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            // Stop new launchers from connecting before this daemon stops listening.
+            deleteDaemonFile(daemonFile, secret);
+        }
+        // The application may have left non-daemon threads running.
+        stopping = true;
+        System.exit(0);
+    }
+
+    /**
+     * Stops the application's calls to {@code System.exit()} from stopping the daemon,
+     * and ends the running launch with their exit code instead.
+     */
+    private static final class ExitInterceptor extends SecurityManager {
+        @Override
+        public void checkPermission(Permission permission) {
+        }
+
+        @Override
+        public void checkPermission(Permission permission, Object context) {
+        }
+
+        @Override
+        public void checkExit(int status) {
+            if (!stopping) {
+                CompletableFuture<Integer> exitCode = launchExitCode;
+                if (exitCode != null) {
+                    exitCode.complete(status);
+                }
+                throw new ExitException(status);
+            }
+        }
+    }
+
+    /**
+     * Unwinds the thread that called {@code System.exit()}.
+     */
+    private static final class ExitException extends SecurityException {
+        ExitException(int status) {
+            super("System.exit(" + status + ") ended this flask daemon launch");
+        }
+    }
+
+    private static void writeDaemonFile(Path daemonFile, int port, String secret) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(DaemonProtocol.PORT, Integer.toString(port));
+        properties.setProperty(DaemonProtocol.SECRET, secret);
+        Long pid = ProcessHandles.currentPid();
+        if (pid != null) {
+            properties.setProperty("pid", pid.toString());
+        }
+        Path tmpFile = daemonFile.resolveSibling(daemonFile.getFileName() + ".tmp");
+        Files.deleteIfExists(tmpFile);
+        // Only this user may read the secret.
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(tmpFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        try (OutputStream os = Files.newOutputStream(tmpFile)) {
+            properties.store(os, null);
+        }
+        Files.move(tmpFile, daemonFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Deletes the daemon file, unless another daemon has replaced it already.
+     */
+    private static void deleteDaemonFile(Path daemonFile, String secret) {
+        try {
+            Properties properties = new Properties();
+            try (InputStream is = Files.newInputStream(daemonFile)) {
+                properties.load(is);
+            }
+            if (secret.equals(properties.getProperty(DaemonProtocol.SECRET))) {
+                Files.delete(daemonFile);
+            }
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * @return whether the daemon may run another launch, which it may not while
+     * the application's main thread is still running, e.g. because another thread
+     * called {@code System.exit()}
+     */
+    private boolean serve(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (!MessageDigest.isEqual(secret, in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+            return true;
+        }
+        List<String> args = new ArrayList<>(fixedArgs);
+        int argc = in.readInt();
+        for (int i = 0; i < argc; i++) {
+            args.add(in.readUTF());
+        }
+        writeFrame(out, DaemonProtocol.START);
+        try {
+            if (in.readByte() != DaemonProtocol.START) {
+                return true;
+            }
+        } catch (EOFException e) {
+            // The launcher gave up waiting while this daemon ran an earlier launch.
+            return true;
+        }
+
+        PrintStream stdout = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, DaemonProtocol.STDOUT)), true);
+        PrintStream stderr = new PrintStream(new BufferedOutputStream(new FrameOutputStream(out, DaemonProtocol.STDERR)), true);
+        InputStream originalIn = System.in;
+        PrintStream originalOut = System.out;
+        PrintStream originalErr = System.err;
+        System.setIn(new FrameInputStream(in, out));
+        System.setOut(stdout);
+        System.setErr(stderr);
+        CompletableFuture<Integer> exitCode = new CompletableFuture<>();
+        // Running the main method on its own thread lets a call to System.exit() from any thread end the launch.
+        Thread mainThread = new Thread(() -> {
+            try {
+                mainMethod.invoke(null, (Object) args.toArray(new String[0]));
+                exitCode.complete(0);
+            } catch (InvocationTargetException e) {
+                if (!(e.getCause() instanceof ExitException)) {
+                    stderr.print("Exception in thread \"main\" ");
+                    e.getCause().printStackTrace(stderr);
+                    exitCode.complete(1);
+                }
+            } catch (ReflectiveOperationException e) {
+                e.printStackTrace(stderr);
+                exitCode.complete(1);
+            }
+        }, "main");
+        launchExitCode = exitCode;
+        int status;
+        try {
+            mainThread.start();
+            status = exitCode.join();
+        } finally {
+            launchExitCode = null;
+            stdout.flush();
+            stderr.flush();
+            System.setIn(originalIn);
+            System.setOut(originalOut);
+            System.setErr(originalErr);
+        }
+        synchronized (out) {
+            out.writeByte(DaemonProtocol.EXIT);
+            out.writeInt(status);
+            out.flush();
+        }
+        try {
+            mainThread.join(MAIN_THREAD_JOIN_MILLIS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return !mainThread.isAlive();
+    }
+
+    private static void writeFrame(DataOutputStream out, byte type) throws IOException {
+        synchronized (out) {
+            out.writeByte(type);
+            out.flush();
+        }
+    }
+
+    /**
+     * Sends everything written to it to the launcher, as frames of this type.
+     */
+    private static final class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte type;
+
+        FrameOutputStream(DataOutputStream out, byte type) {
+            this.out = out;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            synchronized (out) {
+                out.writeByte(type);
+                out.writeInt(len);
+                out.write(b, off, len);
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * Reads the launcher's standard input, which the launcher only sends when the application asks for it.
+     */
+    private static final class FrameInputStream extends InputStream {
+        private final DataInputStream in;
+        private final DataOutputStream out;
+        private boolean eof;
+
+        FrameInputStream(DataInputStream in, DataOutputStream out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int read;
+            do {
+                read = read(b, 0, 1);
+            } while (read == 0);
+            return read < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (eof) {
+                return -1;
+            } else if (len == 0) {
+                return 0;
+            }
+            synchronized (out) {
+                out.writeByte(DaemonProtocol.STDIN);
+                out.writeInt(len);
+                out.flush();
+            }
+            int read = in.readInt();
+            if (read < 0) {
+                eof = true;
+                return -1;
+            }
+            in.readFully(b, off, read);
+            return read;
+        }
+    }
+}
@@ -2,14 +2,47 @@ package net.corda.flask;
 
 import net.corda.flask.common.Flask;
 import net.corda.flask.common.LockFile;
+import net.corda.flask.common.ProcessHandles;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
 
 public final class HeartbeatAgent {
     public static void premain(String agentArgs) {
-        Path pidFile = Paths.get(System.getProperty(Flask.JvmProperties.PID_FILE));
+        String premainTimeFile = System.getProperty(Flask.JvmProperties.PREMAIN_TIME_FILE);
+        if (premainTimeFile != null) {
+            try {
+                Files.write(Paths.get(premainTimeFile), Long.toString(System.currentTimeMillis()).getBytes(StandardCharsets.UTF_8));
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+        if (System.getProperty(Flask.JvmProperties.DAEMON_FILE) != null) {
+            // A daemon outlives the launcher that started it, and exits by itself once it has been idle.
+            return;
+        }
+        String parentPid = System.getProperty(Flask.JvmProperties.PARENT_PID);
+        CompletableFuture<?> parentExit = (parentPid != null) ? ProcessHandles.onExit(Long.parseLong(parentPid)) : null;
+        if (parentExit != null) {
+            // The JVM notifies us when the parent process exits, and so we need neither a pid file nor a thread of our own.
+            parentExit.thenRun(() -> System.exit(-1));
+        } else {
+            String pidFile = System.getProperty(Flask.JvmProperties.PID_FILE);
+            if (pidFile == null) {
+                throw new IllegalStateException(String.format(
+                        "The '%s' property must be set, because this JVM cannot watch its parent process%s",
+                        Flask.JvmProperties.PID_FILE,
+                        (parentPid != null) ? " with ProcessHandle" : ""));
+            }
+            watchPidFile(Paths.get(pidFile));
+        }
+    }
+
+    private static void watchPidFile(Path pidFile) {
         Thread t = new Thread(() -> {
             try {
                 LockFile.acquire(pidFile, true);
@@ -0,0 +1,219 @@
+package net.corda.flask.launcher;
+
+import net.corda.flask.common.LockFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Records when each entry of the flask cache was last used and how many bytes it occupies,
+ * so that the cache can evict its least recently used entries without walking through them.
+ * Entries are keyed by their paths relative to the cache directory.
+ */
+final class CacheIndex {
+    private static final Logger log = LoggerFactory.getLogger(CacheIndex.class);
+
+    private static final class Entry {
+        final long lastUse;
+        final long size;
+
+        Entry(long lastUse, long size) {
+            this.lastUse = lastUse;
+            this.size = size;
+        }
+    }
+
+    private final Path cacheDir;
+    private final Path indexFile;
+    private final Path indexLock;
+    private final Collection<Path> directories;
+
+    /**
+     * @param directories the directories whose children are the entries of this index
+     */
+    CacheIndex(Path cacheDir, Collection<Path> directories) {
+        this.cacheDir = cacheDir;
+        this.directories = directories;
+        this.indexFile = cacheDir.resolve("index.properties");
+        this.indexLock = cacheDir.resolve("index.lock");
+    }
+
+    /**
+     * Records that these cache entries have just been used. Only entries that are
+     * new to the index need their sizes computing. Paths outside the cache directory,
+     * such as those of a shared library store, are ignored.
+     */
+    void recordUse(Collection<Path> paths) throws IOException {
+        long now = System.currentTimeMillis();
+        try (LockFile ignored = LockFile.acquire(indexLock, false)) {
+            Map<String, Entry> entries = read();
+            for (Path path : paths) {
+                if (!path.startsWith(cacheDir)) {
+                    continue;
+                }
+                String key = toKey(path);
+                Entry entry = entries.get(key);
+                if (entry != null) {
+                    entries.put(key, new Entry(now, entry.size));
+                } else if (Files.exists(path)) {
+                    entries.put(key, new Entry(now, sizeOf(path)));
+                }
+            }
+            write(entries);
+        }
+    }
+
+    /**
+     * @return whether {@link #evict} has anything to do, because either the cache occupies more than this
+     * many bytes, or it has entries that are missing from the index. This only lists the entries' names.
+     */
+    boolean needsEviction(long maxSize) throws IOException {
+        try (LockFile ignored = LockFile.acquire(indexLock, false)) {
+            Map<String, Entry> entries = read();
+            if (totalSize(entries) > maxSize) {
+                return true;
+            }
+            for (Path directory : directories) {
+                if (Files.isDirectory(directory)) {
+                    try (Stream<Path> paths = Files.list(directory)) {
+                        if (paths.anyMatch(path -> !entries.containsKey(toKey(path)))) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache occupies no more than this many bytes,
+     * after first indexing any entries that are missing from the index, e.g. because recording their
+     * use failed. The caller must ensure that no other process is using the cache.
+     */
+    void evict(long maxSize) throws IOException {
+        try (LockFile ignored = LockFile.acquire(indexLock, false)) {
+            Map<String, Entry> entries = read();
+            boolean unindexed = scanUnindexed(entries);
+            long totalSize = totalSize(entries);
+            log.trace("Library cache occupies {} bytes, out of {}", totalSize, maxSize);
+            if (totalSize > maxSize) {
+                List<Map.Entry<String, Entry>> leastRecentlyUsed = new ArrayList<>(entries.entrySet());
+                leastRecentlyUsed.sort(Map.Entry.comparingByValue((e1, e2) -> Long.compare(e1.lastUse, e2.lastUse)));
+                for (Map.Entry<String, Entry> entry : leastRecentlyUsed) {
+                    if (totalSize <= maxSize) {
+                        break;
+                    }
+                    Path path = cacheDir.resolve(entry.getKey());
+                    if (Files.exists(path)) {
+                        JarCache.deletePath(path);
+                    }
+                    entries.remove(entry.getKey());
+                    totalSize -= entry.getValue().size;
+                }
+                write(entries);
+            } else if (unindexed) {
+                write(entries);
+            }
+        }
+    }
+
+    void delete() throws IOException {
+        try (LockFile ignored = LockFile.acquire(indexLock, false)) {
+            Files.deleteIfExists(indexFile);
+        }
+    }
+
+    private String toKey(Path path) {
+        return cacheDir.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+    }
+
+    /**
+     * Adds the entries that are missing from the index, using their timestamps. A cache created
+     * before the index existed, or whose index was deleted, is missing every entry.
+     *
+     * @return whether any entries were missing
+     */
+    private boolean scanUnindexed(Map<String, Entry> entries) throws IOException {
+        boolean unindexed = false;
+        for (Path directory : directories) {
+            if (Files.isDirectory(directory)) {
+                try (Stream<Path> paths = Files.list(directory)) {
+                    for (Path path : (Iterable<Path>) paths::iterator) {
+                        String key = toKey(path);
+                        if (!entries.containsKey(key)) {
+                            entries.put(key, new Entry(Files.getLastModifiedTime(path).toMillis(), sizeOf(path)));
+                            unindexed = true;
+                        }
+                    }
+                }
+            }
+        }
+        return unindexed;
+    }
+
+    private static long totalSize(Map<String, Entry> entries) {
+        long totalSize = 0L;
+        for (Entry entry : entries.values()) {
+            totalSize += entry.size;
+        }
+        return totalSize;
+    }
+
+    private static long sizeOf(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            long size = 0L;
+            for (Path file : (Iterable<Path>) files::iterator) {
+                if (Files.isRegularFile(file)) {
+                    size += Files.size(file);
+                }
+            }
+            return size;
+        }
+    }
+
+    private Map<String, Entry> read() throws IOException {
+        Map<String, Entry> entries = new TreeMap<>();
+        if (!Files.exists(indexFile)) {
+            return entries;
+        }
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(indexFile)) {
+            properties.load(is);
+        }
+        for (String key : properties.stringPropertyNames()) {
+            String value = properties.getProperty(key);
+            int comma = value.indexOf(',');
+            try {
+                entries.put(key, new Entry(Long.parseLong(value.substring(0, comma)), Long.parseLong(value.substring(comma + 1))));
+            } catch (RuntimeException e) {
+                log.debug("Ignoring invalid library cache index entry '{}={}'", key, value);
+            }
+        }
+        return entries;
+    }
+
+    private void write(Map<String, Entry> entries) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            properties.setProperty(entry.getKey(), entry.getValue().lastUse + "," + entry.getValue().size);
+        }
+        JarCache.writeAtomically(indexFile, tmpFile -> {
+            try (OutputStream os = Files.newOutputStream(tmpFile)) {
+                properties.store(os, null);
+            }
+        });
+    }
+}
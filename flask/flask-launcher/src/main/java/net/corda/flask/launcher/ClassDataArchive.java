@@ -0,0 +1,174 @@
+package net.corda.flask.launcher;
+
+import net.corda.flask.common.Flask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * An application class data sharing (AppCDS) archive for one child JVM command line.
+ * The first launch records which classes the child JVM loads, and when the child exits
+ * cleanly we dump those classes into an archive. Later launches with the same JVM,
+ * JVM arguments and classpath then map that archive instead of loading and verifying
+ * those classes again. Application class data sharing requires Java 11.
+ */
+final class ClassDataArchive {
+    private static final Logger log = LoggerFactory.getLogger(ClassDataArchive.class);
+
+    private static final int MINIMUM_JAVA_VERSION = 11;
+    private static final String ARCHIVE_EXTENSION = ".jsa";
+    private static final String DUMP_LOADED_CLASS_LIST = "-XX:DumpLoadedClassList";
+    private static final String JAVA_AGENT = "-javaagent";
+
+    private final Path archive;
+    private final Path classList;
+    private final List<String> jvmArgs;
+    private final List<String> classpath;
+
+    private ClassDataArchive(Path archive, Path classList, List<String> jvmArgs, List<String> classpath) {
+        this.archive = archive;
+        this.classList = classList;
+        this.jvmArgs = jvmArgs;
+        this.classpath = classpath;
+    }
+
+    static int javaVersion() {
+        String specificationVersion = System.getProperty("java.specification.version");
+        if (specificationVersion.startsWith("1.")) {
+            specificationVersion = specificationVersion.substring(2);
+        }
+        return Integer.parseInt(specificationVersion);
+    }
+
+    /**
+     * @return the archive for this child JVM, or null if the JVM cannot use one
+     */
+    static ClassDataArchive forProcess(Path archiveDir, JavaProcessBuilder builder) throws IOException {
+        if (Launcher.isNativeExecutable()) {
+            log.debug("Class data sharing archives require the launcher to run on the child JVM's Java");
+            return null;
+        } else if (javaVersion() < MINIMUM_JAVA_VERSION) {
+            log.debug("Class data sharing archives require Java {} or newer", MINIMUM_JAVA_VERSION);
+            return null;
+        }
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        for (String part : Arrays.asList(
+                System.getProperty("java.home"),
+                System.getProperty("java.vm.vendor"),
+                System.getProperty("java.vm.version"))) {
+            update(md, part);
+        }
+        for (String jvmArg : builder.getJvmArgs()) {
+            update(md, jvmArg);
+        }
+        for (String entry : builder.getClasspath()) {
+            update(md, entry);
+        }
+        String key = Flask.bytes2Hex(md.digest());
+        Files.createDirectories(archiveDir);
+        Path archive = archiveDir.resolve(key + ARCHIVE_EXTENSION);
+        List<String> classpath = Collections.unmodifiableList(new ArrayList<>(builder.getClasspath()));
+        if (Files.exists(archive)) {
+            return new ClassDataArchive(archive, null, null, classpath);
+        } else {
+            // The archive is only usable by a JVM whose options match those it was dumped with,
+            // e.g. its heap size and garbage collector. But the dump must not record classes
+            // again, nor run any agent.
+            List<String> jvmArgs = builder.getJvmArgs().stream()
+                    .filter(jvmArg -> !jvmArg.startsWith(DUMP_LOADED_CLASS_LIST) && !jvmArg.startsWith(JAVA_AGENT))
+                    .collect(Collectors.toList());
+            Path classList = archiveDir.resolve(key + '-' + UUID.randomUUID() + ".classlist.tmp");
+            return new ClassDataArchive(archive, classList, Collections.unmodifiableList(jvmArgs), classpath);
+        }
+    }
+
+    private static void update(MessageDigest md, String value) {
+        md.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+    }
+
+    /**
+     * @return the location of this archive, which may not have been created yet
+     */
+    Path getArchive() {
+        return archive;
+    }
+
+    /**
+     * @return the JVM arguments that either use this archive or record the classes to put into it
+     */
+    List<String> getJvmArgs() {
+        if (classList == null) {
+            log.debug("Using class data sharing archive '{}'", archive);
+            return Collections.singletonList("-XX:SharedArchiveFile=" + archive);
+        } else {
+            log.debug("Recording loaded classes for class data sharing archive '{}'", archive);
+            return Collections.singletonList(DUMP_LOADED_CLASS_LIST + '=' + classList);
+        }
+    }
+
+    /**
+     * Creates the archive from the classes that the child JVM has just loaded, provided that it exited cleanly.
+     * The archive is moved into place atomically, and so concurrent launches never see a partial archive.
+     */
+    void afterChildJvmExit(int returnCode) throws InterruptedException {
+        if (classList == null) {
+            return;
+        }
+        Path pendingArchive = Paths.get(classList.toString().replace(".classlist.tmp", ARCHIVE_EXTENSION + ".tmp"));
+        Path dumpLog = Paths.get(classList.toString().replace(".classlist.tmp", ".log.tmp"));
+        try {
+            if (returnCode == 0 && Files.isRegularFile(classList) && Files.size(classList) > 0) {
+                log.debug("Creating class data sharing archive '{}'", archive);
+                List<String> cmd = new ArrayList<>();
+                cmd.add(JavaProcessBuilder.javaExecutable());
+                cmd.addAll(jvmArgs);
+                cmd.addAll(Arrays.asList(
+                        "-Xshare:dump",
+                        "-XX:SharedClassListFile=" + classList,
+                        "-XX:SharedArchiveFile=" + pendingArchive,
+                        "-cp", String.join(File.pathSeparator, classpath)));
+                Process dump = new ProcessBuilder(cmd)
+                        .redirectErrorStream(true)
+                        .redirectOutput(dumpLog.toFile())
+                        .start();
+                if (dump.waitFor() == 0 && Files.isRegularFile(pendingArchive)) {
+                    Files.move(pendingArchive, archive, StandardCopyOption.ATOMIC_MOVE);
+                    log.debug("Created class data sharing archive '{}'", archive);
+                } else if (log.isDebugEnabled()) {
+                    log.debug("Failed to create class data sharing archive '{}':{}{}",
+                            archive, System.lineSeparator(), new String(Files.readAllBytes(dumpLog), StandardCharsets.UTF_8));
+                }
+            }
+        } catch (IOException e) {
+            log.debug(String.format("Failed to create class data sharing archive '%s'", archive), e);
+        } finally {
+            for (Path tmpFile : Arrays.asList(classList, pendingArchive, dumpLog)) {
+                try {
+                    Files.deleteIfExists(tmpFile);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package net.corda.flask.launcher;
+
+import net.corda.flask.common.DaemonProtocol;
+import net.corda.flask.common.Flask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Runs the application in a daemon child process that an earlier launch left running,
+ * relaying the application's standard streams to and from this process.
+ */
+final class DaemonClient {
+    private static final Logger log = LoggerFactory.getLogger(DaemonClient.class);
+    private static final int CONNECT_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * How long to wait for the daemon to accept a launch, which it only does once it has finished
+     * any launch it is running already
+     */
+    private static final int START_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * The environment variables that shells maintain for themselves, which would otherwise stop
+     * launches from different shells sharing a daemon. The working directory is part of the key already.
+     */
+    private static final Set<String> SHELL_VARIABLES = new HashSet<>(Arrays.asList("_", "OLDPWD", "PWD", "SHLVL"));
+
+    private final int port;
+    private final String secret;
+
+    private DaemonClient(int port, String secret) {
+        this.port = port;
+        this.secret = secret;
+    }
+
+    /**
+     * @return the name of the daemon that launches with this configuration can share, which is only the same
+     * for the same flask jar, java executable, JVM arguments, main class, working directory and environment
+     * variables, because the application reads the daemon's own environment rather than the launcher's
+     */
+    static String daemonName(Path flaskJar, List<String> jvmArgs, String mainClassName) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        update(md, flaskJar.toAbsolutePath().toString());
+        update(md, Long.toString(Files.size(flaskJar)));
+        update(md, Long.toString(Files.getLastModifiedTime(flaskJar).toMillis()));
+        update(md, JavaProcessBuilder.javaExecutable());
+        update(md, System.getProperty("user.dir"));
+        update(md, mainClassName);
+        update(md, Boolean.toString(Boolean.getBoolean(Flask.JvmProperties.NO_JAVA_AGENT)));
+        for (String jvmArg : jvmArgs) {
+            update(md, jvmArg);
+        }
+        for (Map.Entry<String, String> variable : new TreeMap<>(System.getenv()).entrySet()) {
+            if (!SHELL_VARIABLES.contains(variable.getKey())) {
+                update(md, variable.getKey());
+                update(md, variable.getValue());
+            }
+        }
+        return Flask.bytes2Hex(md.digest());
+    }
+
+    private static void update(MessageDigest md, String value) {
+        md.update(value.getBytes(StandardCharsets.UTF_8));
+        md.update((byte) 0);
+    }
+
+    /**
+     * @return a client of the daemon that wrote this daemon file, or null if there is no such file
+     */
+    static DaemonClient read(Path daemonFile) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream is = Files.newInputStream(daemonFile)) {
+            properties.load(is);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        String port = properties.getProperty(DaemonProtocol.PORT);
+        String secret = properties.getProperty(DaemonProtocol.SECRET);
+        if (port == null || secret == null) {
+            return null;
+        }
+        return new DaemonClient(Integer.parseInt(port), secret);
+    }
+
+    /**
+     * @return the application's exit code, or null if the daemon did not start the application,
+     * because it has exited or is exiting
+     * @throws SocketTimeoutException if the daemon is still busy with another launch
+     */
+    Integer run(List<String> args) throws IOException {
+        try (Socket socket = new Socket()) {
+            DataInputStream in;
+            DataOutputStream out;
+            try {
+                socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MILLIS);
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                out.writeUTF(secret);
+                out.writeInt(args.size());
+                for (String arg : args) {
+                    out.writeUTF(arg);
+                }
+                out.flush();
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                socket.setSoTimeout(START_TIMEOUT_MILLIS);
+                if (in.read() != DaemonProtocol.START) {
+                    return null;
+                }
+                socket.setSoTimeout(0);
+                out.writeByte(DaemonProtocol.START);
+                out.flush();
+            } catch (SocketTimeoutException e) {
+                // Closing the socket without confirming the launch stops the daemon from running it later.
+                log.debug("Flask daemon on port {} is busy with another launch", port);
+                throw e;
+            } catch (IOException e) {
+                log.debug(String.format("Failed to connect to flask daemon on port %d", port), e);
+                return null;
+            }
+            log.trace("Connected to flask daemon on port {}", port);
+            byte[] buffer = new byte[Flask.Constants.BUFFER_SIZE];
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    log.error("The flask daemon exited before the application finished");
+                    return 1;
+                }
+                switch (type) {
+                    case DaemonProtocol.STDOUT:
+                        relay(in, buffer, System.out);
+                        break;
+                    case DaemonProtocol.STDERR:
+                        relay(in, buffer, System.err);
+                        break;
+                    case DaemonProtocol.STDIN:
+                        sendInput(in.readInt(), out);
+                        break;
+                    case DaemonProtocol.EXIT:
+                        return in.readInt();
+                    default:
+                        throw new IOException(String.format("Unexpected frame type %d from flask daemon", type));
+                }
+            }
+        }
+    }
+
+    private static void relay(DataInputStream in, byte[] buffer, PrintStream destination) throws IOException {
+        int remaining = in.readInt();
+        while (remaining > 0) {
+            int read = Math.min(remaining, buffer.length);
+            in.readFully(buffer, 0, read);
+            destination.write(buffer, 0, read);
+            remaining -= read;
+        }
+        destination.flush();
+    }
+
+    /**
+     * Reads the standard input that the application asked for on another thread, so that
+     * the application's output keeps flowing while this process waits for its input.
+     */
+    private static void sendInput(int length, DataOutputStream out) {
+        Thread t = new Thread(() -> {
+            byte[] input = new byte[length];
+            try {
+                int read = System.in.read(input);
+                out.writeInt(read);
+                if (read > 0) {
+                    out.write(input, 0, read);
+                }
+                out.flush();
+            } catch (IOException e) {
+                // The application has finished already.
+                log.trace("Failed to send standard input to flask daemon", e);
+            }
+        });
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof DaemonClient
+                && port == ((DaemonClient) other).port
+                && secret.equals(((DaemonClient) other).secret);
+    }
+
+    @Override
+    public int hashCode() {
+        return secret.hashCode();
+    }
+}
@@ -3,33 +3,50 @@ package net.corda.flask.launcher;
 import net.corda.flask.common.Flask;
 import net.corda.flask.common.LockFile;
 import net.corda.flask.common.ThrowingConsumer;
-import net.corda.flask.common.ThrowingFunction;
+import net.corda.flask.common.ThrowingSupplier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.EOFException;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.Map;
 import java.util.Optional;
 import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import static java.util.Collections.unmodifiableMap;
 
 final class JarCache {
     private static final Logger log = LoggerFactory.getLogger(JarCache.class);
+    private static final String PID_FILE_EXTENSION = ".pid";
+    private static final String EXTRACT_LOCK_FILE_NAME = "extract.lock";
 
     static void deletePath(Path path) throws IOException {
         Files.walk(path).sorted(Comparator.reverseOrder()).forEach((ThrowingConsumer<Path>) path1 -> {
@@ -84,14 +101,26 @@ final class JarCache {
 
     private final Path pidDir;
 
-    private final Path pidFile;
+    private final Path cdsDir;
+
+    private final Path daemonDir;
 
     private final Path lockFile;
 
-    private final Path extractionLock;
+    private final CacheIndex index;
+
+    private final Path storeDir;
+
+    private final boolean storeWritable;
+
+    private final UserPrincipal currentUser;
 
     private final Map<String, Path> extractedLibraries;
 
+    private int librariesExtracted;
+
+    private int librariesReused;
+
     public Path getPath() {
         return path;
     }
@@ -104,84 +133,400 @@ final class JarCache {
         return pidDir;
     }
 
-    public Path getPidFile() {
-        return pidFile;
+    public Path getCdsDir() {
+        return cdsDir;
+    }
+
+    public Path getDaemonDir() {
+        return daemonDir;
     }
 
     public Path getLockFile() {
         return lockFile;
     }
 
+    /**
+     * @return how many libraries the last {@link #extract} call had to extract
+     */
+    public int getLibrariesExtracted() {
+        return librariesExtracted;
+    }
+
+    /**
+     * @return how many libraries the last {@link #extract} call found already extracted
+     */
+    public int getLibrariesReused() {
+        return librariesReused;
+    }
+
     public JarCache(String appName) throws IOException {
         path = computeCacheDirectory(appName);
         libDir = path.resolve("lib");
         pidDir = path.resolve("pid");
+        cdsDir = path.resolve("cds");
+        daemonDir = path.resolve("daemon");
         lockFile = path.resolve("flask.lock");
-        extractionLock = path.resolve("extract.lock");
-        extractedLibraries = new TreeMap<>();
+        extractedLibraries = new ConcurrentSkipListMap<>();
+        index = new CacheIndex(path, Arrays.asList(libDir, cdsDir));
+        storeDir = computeStoreDirectory();
+        storeWritable = storeDir != null && Files.isWritable(storeDir);
+        currentUser = (storeDir != null) ? lookupCurrentUser(storeDir) : null;
+    }
+
+    /**
+     * @return this user, or null if the store's file system cannot tell us who owns its files
+     */
+    private static UserPrincipal lookupCurrentUser(Path storeDir) {
+        try {
+            return storeDir.getFileSystem().getUserPrincipalLookupService().lookupPrincipalByName(System.getProperty("user.name"));
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Unable to look up the current user, and so every library in the shared store will be verified", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return the machine-wide library store that all flask applications of all users share, or null if there is none
+     */
+    private static Path computeStoreDirectory() {
+        Path storeDir = Optional.ofNullable(System.getProperty(Flask.JvmProperties.SHARED_CACHE_DIR))
+                .map(Optional::of)
+                .orElseGet(() -> Optional.ofNullable(System.getenv(Flask.Constants.SHARED_CACHE_DIR_ENVIRONMENT_VARIABLE)))
+                .filter(dir -> !dir.isEmpty())
+                .map(Paths::get)
+                .orElse(null);
+        if (storeDir != null && !Files.isDirectory(storeDir)) {
+            log.debug("Shared library store '{}' discarded because it is not a directory", storeDir);
+            return null;
+        }
+        return storeDir;
+    }
+
+    public Path getStoreDir() {
+        return storeDir;
+    }
+
+    /**
+     * Creates a new pid file, which a child JVM without {@link net.corda.flask.common.ProcessHandles}
+     * uses as its heartbeat.
+     */
+    Path createPidFile() throws IOException {
         Files.createDirectories(pidDir);
-        pidFile = Files.createTempFile(pidDir, null, ".pid");
-    }
-
-    public Map<String, Path> extract(Manifest manifest) throws IOException {
-        byte[] buffer = new byte[Flask.Constants.BUFFER_SIZE];
-        ClassLoader cl = Launcher.class.getClassLoader();
-        try (LockFile ignored = LockFile.acquire(extractionLock, false)) {
-            for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
-                String jarEntryName = entry.getKey();
-                Attributes attributes = entry.getValue();
-                if (jarEntryName.startsWith(Flask.Constants.LIBRARIES_FOLDER + '/') && attributes.getValue(Flask.ManifestAttributes.ENTRY_HASH) != null) {
-                    String jarName = jarEntryName.substring(jarEntryName.lastIndexOf('/') + 1);
-                    String hash = Flask.bytes2Hex(Base64.getDecoder().decode(attributes.getValue(Flask.ManifestAttributes.ENTRY_HASH)));
-                    Path destination = libDir.resolve(hash).resolve(jarName);
-                    extractedLibraries.put(hash, destination);
-                    if (!Files.exists(destination)) {
-                        Files.createDirectories(destination.getParent());
-                        InputStream is = cl.getResourceAsStream(jarEntryName);
-                        log.debug("Extracting '{}' to '{}'", jarEntryName, destination);
-                        if (is != null) {
-                            try {
-                                try (OutputStream os = Files.newOutputStream(destination)) {
-                                    Flask.write2Stream(is, os, buffer);
-                                }
-                            } finally {
-                                is.close();
+        return Files.createTempFile(pidDir, null, PID_FILE_EXTENSION);
+    }
+
+    /**
+     * Deletes the pid files that no process holds a lock on any more, which launchers that
+     * crashed or were killed have left behind. Pid files younger than a minute are left
+     * alone, because their launchers may not have locked them yet.
+     */
+    void sweepPidFiles() throws IOException {
+        if (!Files.isDirectory(pidDir)) {
+            return;
+        }
+        FileTime threshold = FileTime.from(Instant.now().minus(Duration.ofMinutes(1)));
+        try (Stream<Path> pidFiles = Files.list(pidDir)) {
+            pidFiles.filter(pidFile -> pidFile.getFileName().toString().endsWith(PID_FILE_EXTENSION))
+                .forEach(pidFile -> {
+                    try {
+                        if (Files.getLastModifiedTime(pidFile).compareTo(threshold) < 0) {
+                            LockFile lock = LockFile.tryAcquire(pidFile, false);
+                            if (lock != null) {
+                                lock.close();
+                                Files.deleteIfExists(pidFile);
+                                log.trace("Deleted stale pid file '{}'", pidFile);
                             }
-                        } else {
-                            throw new RuntimeException(String.format("Entry '%s' missing from flask jar", jarEntryName));
+                        }
+                    } catch (IOException e) {
+                        // Another launcher may have deleted this pid file already.
+                        log.trace(String.format("Failed to delete stale pid file '%s'", pidFile), e);
+                    }
+                });
+        }
+    }
+
+    /**
+     * @return the flask jar entry names of the libraries listed in the manifest, keyed by their hex hashes
+     */
+    static Map<String, String> listLibraries(Manifest manifest) {
+        Map<String, String> libraries = new TreeMap<>();
+        for (Map.Entry<String, Attributes> entry : manifest.getEntries().entrySet()) {
+            String jarEntryName = entry.getKey();
+            Attributes attributes = entry.getValue();
+            if (jarEntryName.startsWith(Flask.Constants.LIBRARIES_FOLDER + '/') && attributes.getValue(Flask.ManifestAttributes.ENTRY_HASH) != null) {
+                String hash = Flask.bytes2Hex(Base64.getDecoder().decode(attributes.getValue(Flask.ManifestAttributes.ENTRY_HASH)));
+                libraries.put(hash, jarEntryName);
+            }
+        }
+        return libraries;
+    }
+
+    /**
+     * Extracts every library listed in the manifest that is not already in the cache.
+     * Each library is written to a temporary file first and then moved into place atomically,
+     * so that no process ever sees a partially written library, and the presence of a library
+     * is enough to know that it is complete. Launches whose libraries are all present therefore
+     * take no lock at all. Each missing library is extracted under a lock of its own, so that
+     * concurrent launches share out the work of extracting them instead of queueing for each other.
+     * The flask jar is opened only once, and libraries that it stores uncompressed are transferred
+     * directly from its file channel, without passing through a userspace buffer. When there is a
+     * shared library store, libraries are used from there, and missing libraries are extracted into
+     * it if this user can write to it. Libraries in the store that another user created are only used
+     * once their SHA-256 digests match the manifest, and are otherwise extracted into this user's cache.
+     */
+    public Map<String, Path> extract(Path flaskJar, Manifest manifest) throws IOException {
+        Map<String, Path> missingLibraries = new ConcurrentSkipListMap<>();
+        // Verifying another user's libraries reads them in full, and so we check each library concurrently.
+        listLibraries(manifest).entrySet().parallelStream().forEach((ThrowingConsumer<Map.Entry<String, String>>) library -> {
+            String hash = library.getKey();
+            String jarEntryName = library.getValue();
+            String jarName = jarEntryName.substring(jarEntryName.lastIndexOf('/') + 1);
+            Path destination = null;
+            if (storeDir != null) {
+                Path storedLibrary = storeDir.resolve("lib").resolve(hash).resolve(jarName);
+                if (Files.exists(storedLibrary) ? isTrusted(storedLibrary, hash) : isStoreWritable(storedLibrary.getParent())) {
+                    destination = storedLibrary;
+                }
+            }
+            if (destination == null) {
+                destination = libDir.resolve(hash).resolve(jarName);
+            }
+            extractedLibraries.put(hash, destination);
+            if (!Files.exists(destination)) {
+                missingLibraries.put(jarEntryName, destination);
+            }
+        });
+        AtomicInteger extracted = new AtomicInteger();
+        if (!missingLibraries.isEmpty()) {
+            try (ZipFile jar = new ZipFile(flaskJar.toFile());
+                 FileChannel channel = FileChannel.open(flaskJar, StandardOpenOption.READ)) {
+                StoredEntries storedEntries = StoredEntries.read(channel);
+                Map<String, Path> busyLibraries = new ConcurrentSkipListMap<>();
+                missingLibraries.entrySet().parallelStream().forEach((ThrowingConsumer<Map.Entry<String, Path>>) entry -> {
+                    Path lock = entry.getValue().resolveSibling(EXTRACT_LOCK_FILE_NAME);
+                    LockFile lockFile = null;
+                    try {
+                        lockFile = LockFile.tryAcquire(lock, false);
+                        if (lockFile == null) {
+                            busyLibraries.put(entry.getKey(), entry.getValue());
+                            return;
+                        }
+                    } catch (IOException e) {
+                        log.debug(String.format("Unable to lock '%s'", lock), e);
+                    }
+                    try (LockFile ignored = lockFile) {
+                        if (extractLibraryOrFallBack(jar, channel, storedEntries, entry.getKey(), entry.getValue())) {
+                            extracted.incrementAndGet();
+                        }
+                    }
+                });
+                /*
+                 * Linux attributes file locks to processes rather than to threads, and so it can report a deadlock
+                 * between two processes whose threads each wait for a library that the other process is extracting.
+                 * This process therefore only waits for the libraries that other processes are extracting once it
+                 * holds no lock of its own.
+                 */
+                for (Map.Entry<String, Path> entry : busyLibraries.entrySet()) {
+                    try (LockFile ignored = acquireLibraryLock(entry.getValue())) {
+                        if (extractLibraryOrFallBack(jar, channel, storedEntries, entry.getKey(), entry.getValue())) {
+                            extracted.incrementAndGet();
                         }
                     }
                 }
             }
         }
+        librariesExtracted = extracted.get();
+        librariesReused = extractedLibraries.size() - librariesExtracted;
         return unmodifiableMap(extractedLibraries);
     }
 
-    void touchLibraries() {
-        FileTime now = FileTime.from(Instant.now());
-        for(Path jarPath : extractedLibraries.values()) {
-            try {
-                Files.setLastModifiedTime(jarPath, now);
-            } catch (IOException ignored) {
+    /**
+     * @return whether we may extract a library into this directory of the shared store, which another
+     * user may already have created without giving us permission to write to it
+     */
+    private boolean isStoreWritable(Path hashDir) {
+        if (!storeWritable) {
+            return false;
+        }
+        for (Path dir = hashDir; dir != null && !dir.equals(storeDir); dir = dir.getParent()) {
+            if (Files.isDirectory(dir)) {
+                return Files.isWritable(dir);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Extracts this library into this user's own cache instead if it turns out that we cannot write
+     * it to the shared store after all, e.g. because another user changed the permissions meanwhile.
+     *
+     * @return whether this library had to be extracted
+     */
+    private boolean extractLibraryOrFallBack(ZipFile jar, FileChannel channel, StoredEntries storedEntries,
+                                             String jarEntryName, Path destination) throws IOException {
+        try {
+            return extractLibrary(jar, channel, storedEntries, jarEntryName, destination);
+        } catch (AccessDeniedException e) {
+            if (storeDir == null || !destination.startsWith(storeDir)) {
+                throw e;
             }
+            String hash = destination.getParent().getFileName().toString();
+            Path fallback = libDir.resolve(hash).resolve(destination.getFileName());
+            log.debug("Unable to write '{}' to the shared library store, extracting it to '{}' instead", destination, fallback);
+            extractedLibraries.put(hash, fallback);
+            return extractLibrary(jar, channel, storedEntries, jarEntryName, fallback);
+        }
+    }
+
+    /**
+     * @return whether we may run this library from the shared store, because either this user created it
+     * or its SHA-256 digest matches the manifest. Any user who can write to the store could otherwise
+     * replace a library there with code of their own.
+     */
+    private boolean isTrusted(Path storedLibrary, String hash) throws IOException {
+        try {
+            if (currentUser != null && currentUser.equals(Files.getOwner(storedLibrary))) {
+                return true;
+            }
+        } catch (UnsupportedOperationException e) {
+            log.trace(String.format("Unable to find the owner of '%s'", storedLibrary), e);
+        }
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e.getMessage(), e);
+        }
+        byte[] digest = Flask.computeDigest((ThrowingSupplier<InputStream>) () -> Flask.read(storedLibrary.toFile(), false),
+                md, new byte[Flask.Constants.BUFFER_SIZE]);
+        if (hash.equals(Flask.bytes2Hex(digest))) {
+            return true;
+        } else {
+            log.warn("Ignoring '{}' in the shared library store, because its SHA-256 digest does not match", storedLibrary);
+            return false;
         }
     }
 
-    void cleanLibDir() throws IOException {
+    /**
+     * @return whether this library had to be extracted, because no other process had extracted it
+     * while this one waited for its lock
+     */
+    private static boolean extractLibrary(ZipFile jar, FileChannel channel, StoredEntries storedEntries,
+                                          String jarEntryName, Path destination) throws IOException {
+        if (Files.exists(destination)) {
+            return false;
+        }
+        StoredEntries.Entry storedEntry = storedEntries.get(jarEntryName);
+        if (storedEntry != null) {
+            transferEntry(channel, storedEntry, jarEntryName, destination);
+        } else {
+            extractEntry(jar, jarEntryName, destination);
+        }
+        return true;
+    }
+
+    /**
+     * Waits until no other flask process is extracting this library. Extraction is still safe
+     * without this lock, which other users of a shared library store may have created without
+     * giving us permission to write to it.
+     */
+    private static LockFile acquireLibraryLock(Path library) {
+        Path lock = library.resolveSibling(EXTRACT_LOCK_FILE_NAME);
+        try {
+            return LockFile.acquire(lock, false);
+        } catch (IOException e) {
+            log.debug(String.format("Unable to lock '%s'", lock), e);
+            return null;
+        }
+    }
+
+    private static void extractEntry(ZipFile jar, String jarEntryName, Path destination) throws IOException {
+        ZipEntry zipEntry = jar.getEntry(jarEntryName);
+        if (zipEntry == null) {
+            throw new RuntimeException(String.format("Entry '%s' missing from flask jar", jarEntryName));
+        }
+        log.debug("Extracting '{}' to '{}'", jarEntryName, destination);
+        writeAtomically(destination, tmpFile -> {
+            try (InputStream is = jar.getInputStream(zipEntry); OutputStream os = Files.newOutputStream(tmpFile)) {
+                Flask.write2Stream(is, os);
+            }
+        });
+    }
+
+    private static void transferEntry(FileChannel source, StoredEntries.Entry storedEntry, String jarEntryName, Path destination) throws IOException {
+        log.debug("Transferring '{}' to '{}'", jarEntryName, destination);
+        writeAtomically(destination, tmpFile -> {
+            try (FileChannel target = FileChannel.open(tmpFile, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                long position = storedEntry.getOffset();
+                long remaining = storedEntry.getSize();
+                while (remaining > 0) {
+                    long transferred = source.transferTo(position, remaining, target);
+                    if (transferred <= 0) {
+                        throw new EOFException(String.format("Entry '%s' is truncated in flask jar", jarEntryName));
+                    }
+                    position += transferred;
+                    remaining -= transferred;
+                }
+            }
+        });
+    }
+
+    @FunctionalInterface
+    interface FileWriter {
+        void write(Path file) throws IOException;
+    }
+
+    /**
+     * Unlike {@link Files#createTempFile}, the writer creates the temporary file with the default
+     * permissions for new files, so that other users of a shared library store can read it too.
+     */
+    static void writeAtomically(Path destination, FileWriter writer) throws IOException {
+        Path parent = Files.createDirectories(destination.getParent());
+        Path tmpFile = parent.resolve(destination.getFileName().toString() + '.' + UUID.randomUUID() + ".tmp");
+        try {
+            writer.write(tmpFile);
+            Files.move(tmpFile, destination, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmpFile);
+        }
+    }
+
+    /**
+     * Records that these cache entries, which are either library hash directories
+     * or class data sharing archives, have just been used.
+     */
+    void recordUse(Collection<Path> paths) {
+        try {
+            index.recordUse(paths);
+        } catch (IOException e) {
+            log.debug("Failed to update the library cache index", e);
+        }
+    }
+
+    /**
+     * @return whether {@link #evict} has anything to do. This only reads the cache index and lists
+     * the cache's entries, and so is cheap enough for every launch to check.
+     */
+    boolean needsEviction(long maxSize) {
+        try {
+            return index.needsEviction(maxSize);
+        } catch (IOException e) {
+            log.debug("Failed to read the library cache index", e);
+            return false;
+        }
+    }
+
+    /**
+     * Evicts the least recently used libraries and class data sharing archives until the cache
+     * occupies no more than this many bytes, indexing any entries that are missing from the cache
+     * index first. Nothing is evicted while any other flask process is using the cache.
+     */
+    void evict(long maxSize) throws IOException {
         LockFile lf = LockFile.tryAcquire(lockFile, false);
         if (lf != null) {
             log.debug("Starting library cache cleanup");
             try {
-                FileTime threshold = FileTime.from(Instant.now().minus(Duration.ofDays(7)));
-                log.trace("Removing all files that haven't been touched since {}", threshold);
-                Files.list(libDir).filter(Files::isDirectory).forEach((ThrowingConsumer<Path>) hashFolder -> {
-                    Optional<FileTime> mostRecent = Files.walk(hashFolder)
-                        .filter(Files::isRegularFile)
-                        .map((ThrowingFunction<Path, FileTime>) Files::getLastModifiedTime).max(FileTime::compareTo);
-                    if (mostRecent.map(ft -> ft.compareTo(threshold) < 0).orElse(false)) {
-                        JarCache.deletePath(hashFolder);
-                    }
-                });
+                index.evict(maxSize);
             } finally {
                 lf.close();
             }
@@ -193,7 +538,10 @@ final class JarCache {
         LockFile lockFile = LockFile.tryAcquire(this.lockFile, false);
         if (lockFile != null) {
             try {
-                deletePath(libDir);
+                if (Files.exists(libDir)) {
+                    deletePath(libDir);
+                }
+                index.delete();
             } finally {
                 lockFile.close();
             }
@@ -14,6 +14,7 @@ import java.text.StringCharacterIterator;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Properties;
 import java.util.stream.Collectors;
 
@@ -52,8 +53,6 @@ public final class JavaProcessBuilder {
 
     private Path executableJar;
 
-    private final String javaHome = System.getProperty("java.home");
-
     private List<String> jvmArgs = new ArrayList<>();
 
     private List<String> classpath = new ArrayList<>();
@@ -120,6 +119,15 @@ public final class JavaProcessBuilder {
         javaAgents = newValue;
     }
 
+    /**
+     * @return the java executable of the JVM running this launcher, or else of JAVA_HOME or the PATH
+     * when this launcher is a native executable, which has no JVM of its own
+     */
+    static String javaExecutable() {
+        String javaHome = Optional.ofNullable(System.getProperty("java.home")).orElseGet(() -> System.getenv("JAVA_HOME"));
+        return javaHome == null ? "java" : Paths.get(javaHome, "bin", "java").toString();
+    }
+
     /**
      * Generate the argument file string according to the grammar specified
      * <a href="https://docs.oracle.com/en/java/javase/14/docs/specs/man/java.html#java-command-line-argument-files">here</a>
@@ -164,8 +172,7 @@ public final class JavaProcessBuilder {
 
     public ProcessBuilder build() throws IOException {
         ArrayList<String> cmd = new ArrayList<>();
-        Path javaBin = Paths.get(javaHome, "bin", "java");
-        cmd.add(javaBin.toString());
+        cmd.add(javaExecutable());
         cmd.addAll(jvmArgs);
         if(!classpath.isEmpty()) {
             cmd.add("-cp");
@@ -0,0 +1,113 @@
+package net.corda.flask.launcher;
+
+import net.corda.flask.common.Flask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Records how long each phase of a flask launch takes, and how many libraries it extracted or reused.
+ * These metrics are only recorded when they are either written to the JSON file that the
+ * {@link Flask.JvmProperties#METRICS_FILE} JVM property names, or else logged at debug level.
+ */
+final class LaunchMetrics {
+    private static final Logger log = LoggerFactory.getLogger(LaunchMetrics.class);
+
+    private final Path metricsFile;
+    private final boolean enabled;
+    private final Map<String, Long> durations = new LinkedHashMap<>();
+    private final Map<String, Long> counters = new LinkedHashMap<>();
+
+    private LaunchMetrics(Path metricsFile, boolean enabled) {
+        this.metricsFile = metricsFile;
+        this.enabled = enabled;
+    }
+
+    static LaunchMetrics create() {
+        String metricsFile = System.getProperty(Flask.JvmProperties.METRICS_FILE);
+        return new LaunchMetrics(metricsFile == null ? null : Paths.get(metricsFile), metricsFile != null || log.isDebugEnabled());
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the start time of a phase, to pass to {@link #record}
+     */
+    long start() {
+        return System.nanoTime();
+    }
+
+    synchronized void record(String phase, long startNanos) {
+        if (enabled) {
+            durations.put(phase, System.nanoTime() - startNanos);
+        }
+    }
+
+    synchronized void recordMillis(String phase, long millis) {
+        if (enabled) {
+            durations.put(phase, millis * 1000000L);
+        }
+    }
+
+    synchronized void count(String counter, long value) {
+        if (enabled) {
+            counters.put(counter, value);
+        }
+    }
+
+    /**
+     * Writes these metrics to the metrics file, if there is one, and logs them.
+     */
+    synchronized void write() {
+        if (!enabled) {
+            return;
+        }
+        String json = toJson();
+        log.debug("Launch metrics: {}", json);
+        if (metricsFile != null) {
+            try {
+                JarCache.writeAtomically(metricsFile.toAbsolutePath(), tmpFile -> {
+                    try (Writer writer = Files.newBufferedWriter(tmpFile, StandardCharsets.UTF_8)) {
+                        writer.write(json);
+                        writer.write(System.lineSeparator());
+                    }
+                });
+            } catch (IOException e) {
+                log.warn(String.format("Failed to write launch metrics to '%s'", metricsFile), e);
+            }
+        }
+    }
+
+    private String toJson() {
+        StringBuilder sb = new StringBuilder("{\"durationsMillis\":{");
+        for (Iterator<Map.Entry<String, Long>> it = durations.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Long> entry = it.next();
+            sb.append('"').append(entry.getKey()).append("\":")
+              .append(String.format(Locale.ROOT, "%.3f", entry.getValue() / 1e6));
+            if (it.hasNext()) {
+                sb.append(',');
+            }
+        }
+        sb.append("},\"counters\":{");
+        for (Iterator<Map.Entry<String, Long>> it = counters.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Long> entry = it.next();
+            sb.append('"').append(entry.getKey()).append("\":").append(entry.getValue());
+            if (it.hasNext()) {
+                sb.append(',');
+            }
+        }
+        return sb.append("}}").toString();
+    }
+}
@@ -1,25 +1,33 @@
 package net.corda.flask.launcher;
 
+import net.corda.flask.common.DaemonProtocol;
 import net.corda.flask.common.Flask;
 import net.corda.flask.common.LockFile;
+import net.corda.flask.common.ProcessHandles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.SocketTimeoutException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
@@ -32,20 +40,56 @@ public class Launcher {
     private static final String CACHE_FOLDER_DEFAULT_NAME = "flask_cache";
     private static final Logger log = LoggerFactory.getLogger(Launcher.class);
     private static final Path currentJar = findCurrentJar();
+    private static final LaunchMetrics metrics = LaunchMetrics.create();
 
     private static Path findCurrentJar() {
+        String jarProperty = System.getProperty(Flask.JvmProperties.JAR);
+        if (jarProperty != null) {
+            return Paths.get(jarProperty);
+        }
         String launcherClassName = Launcher.class.getName();
         URL url = Launcher.class.getClassLoader().getResource(launcherClassName.replace('.', '/') + ".class");
-        if (url == null || !"jar".equals(url.getProtocol()))
-            throw new IllegalStateException(String.format("The class %s must be used inside a JAR file", launcherClassName));
-        String path = url.getPath();
-        URI jarUri;
-        try {
-            jarUri = new URI(path.substring(0, path.indexOf('!')));
-        } catch (URISyntaxException e) {
-            throw new InternalError(e.getMessage(), e);
+        if (url != null && "jar".equals(url.getProtocol())) {
+            String path = url.getPath();
+            URI jarUri;
+            try {
+                jarUri = new URI(path.substring(0, path.indexOf('!')));
+            } catch (URISyntaxException e) {
+                throw new InternalError(e.getMessage(), e);
+            }
+            return Paths.get(jarUri);
+        }
+        // A native executable built from the flask jar looks for the flask jar alongside itself, with the same name.
+        String command = isNativeExecutable() ? ProcessHandles.currentCommand() : null;
+        if (command != null) {
+            String executableName = Paths.get(command).getFileName().toString();
+            if (executableName.endsWith(".exe")) {
+                executableName = executableName.substring(0, executableName.length() - 4);
+            }
+            Path jar = Paths.get(command).resolveSibling(executableName + ".jar");
+            if (Files.isRegularFile(jar)) {
+                return jar;
+            }
         }
-        return Paths.get(jarUri);
+        throw new IllegalStateException(String.format(
+                "The class %s must be used inside a JAR file, or else the '%s' property must locate that JAR file",
+                launcherClassName, Flask.JvmProperties.JAR));
+    }
+
+    /**
+     * @return whether this launcher is a native executable, which has no JVM of its own, and so cannot run
+     * the application in-process or tell which Java version the child JVM has
+     */
+    static boolean isNativeExecutable() {
+        return "runtime".equals(System.getProperty("org.graalvm.nativeimage.imagecode"));
+    }
+
+    /**
+     * @return whether the child JVM certainly has {@code ProcessHandle}, i.e. it runs on Java 9 or newer. A native
+     * launcher cannot tell, because its child JVM is whichever Java JAVA_HOME or the PATH gives it, which may be Java 8
+     */
+    private static boolean childJvmHasProcessHandle() {
+        return !isNativeExecutable() && ClassDataArchive.javaVersion() >= 9;
     }
 
     private static List<String> listOfStringFromPropertyFile(InputStream is) throws IOException {
@@ -79,9 +123,14 @@ public class Launcher {
     }
 
     public static void main(String[] args) throws Exception {
+        if (Boolean.getBoolean(Flask.JvmProperties.EVICT_CACHE)) {
+            new JarCache(CACHE_FOLDER_DEFAULT_NAME).evict(maxCacheSize());
+            return;
+        }
         Manifest manifest = new Manifest();
         List<String> jvmArgs = new ArrayList<>();
         List<String> javaAgents = null;
+        long manifestStart = metrics.start();
         try(ZipFile jar = new ZipFile(currentJar.toFile())) {
             ZipEntry manifestEntry = jar.getEntry(JarFile.MANIFEST_NAME);
             try (InputStream inputStream = jar.getInputStream(manifestEntry)) {
@@ -108,64 +157,281 @@ public class Launcher {
                 }
             }
         }
+        metrics.record("manifestRead", manifestStart);
         List<String> cliArgs = extractFlaskArgs(args, jvmArgs);
         String mainClassName = manifest.getMainAttributes().getValue(Flask.ManifestAttributes.LAUNCHER_CLASS);
-        @SuppressWarnings("unchecked")
-        Class<? extends Launcher> launcherClass = (Class<? extends Launcher>)
-                Class.forName(mainClassName, true, Launcher.class.getClassLoader());
-        Constructor<? extends Launcher> ctor = launcherClass.getConstructor();
-        System.exit(ctor.newInstance().launch(manifest, jvmArgs, javaAgents, cliArgs));
+        Launcher launcher;
+        if (Flask.Constants.DEFAULT_LAUNCHER_NAME.equals(mainClassName)) {
+            // A native executable can only instantiate other launcher classes reflectively if it has metadata for them.
+            launcher = new Launcher();
+        } else {
+            @SuppressWarnings("unchecked")
+            Class<? extends Launcher> launcherClass = (Class<? extends Launcher>)
+                    Class.forName(mainClassName, true, Launcher.class.getClassLoader());
+            Constructor<? extends Launcher> ctor = launcherClass.getConstructor();
+            launcher = ctor.newInstance();
+        }
+        boolean inProcess = isEnabled(manifest, Flask.JvmProperties.IN_PROCESS, Flask.ManifestAttributes.IN_PROCESS);
+        if (inProcess && isNativeExecutable()) {
+            log.debug("Running the application in a child JVM, because a native launcher cannot load its classes");
+            inProcess = false;
+        }
+        if (inProcess) {
+            // The application may still have running threads, so we must not call System.exit() here.
+            launcher.launchInProcess(manifest, jvmArgs, javaAgents, cliArgs);
+            metrics.write();
+        } else {
+            int returnCode;
+            if (isEnabled(manifest, Flask.JvmProperties.DAEMON, Flask.ManifestAttributes.DAEMON)) {
+                returnCode = launcher.launchDaemon(manifest, jvmArgs, javaAgents, cliArgs);
+            } else {
+                returnCode = launcher.launch(manifest, jvmArgs, javaAgents, cliArgs);
+            }
+            metrics.write();
+            System.exit(returnCode);
+        }
     }
 
-    final int launch(Manifest manifest, List<String> jvmArgs, List<String> javaAgents, List<String> args) throws IOException, InterruptedException {
+    /**
+     * @return whether this option is enabled, either by its JVM property or else by the flask jar's manifest
+     */
+    private static boolean isEnabled(Manifest manifest, String jvmProperty, String manifestAttribute) {
+        String value = Optional.ofNullable(System.getProperty(jvmProperty))
+                .orElse(manifest.getMainAttributes().getValue(manifestAttribute));
+        return Boolean.parseBoolean(value);
+    }
+
+    /**
+     * Runs the application inside this JVM, loading its classes directly from the libraries
+     * inside the flask jar. This skips both the library cache and the child JVM, and so the
+     * application cannot have Java agents, and only its JVM system properties are applied.
+     * The {@link #beforeChildJvmStart} and {@link #afterChildJvmExit} callbacks are not invoked.
+     */
+    final void launchInProcess(Manifest manifest, List<String> jvmArgs, List<String> javaAgents, List<String> args) throws Exception {
+        for (String jvmArg : jvmArgs) {
+            if (jvmArg.startsWith("-D")) {
+                int equalCharPosition = jvmArg.indexOf('=');
+                if (equalCharPosition < 0) {
+                    System.setProperty(jvmArg.substring(2), "");
+                } else {
+                    System.setProperty(jvmArg.substring(2, equalCharPosition), jvmArg.substring(equalCharPosition + 1));
+                }
+            } else {
+                log.warn("Ignoring JVM argument '{}' because the application is running in-process", jvmArg);
+            }
+        }
+        if (javaAgents != null && !javaAgents.isEmpty() && !Boolean.getBoolean(Flask.JvmProperties.NO_JAVA_AGENT)) {
+            log.warn("Ignoring {} Java agent(s) because the application is running in-process", javaAgents.size());
+        }
+
+        long openStart = metrics.start();
+        List<NestedJar> libraries = NestedJar.open(currentJar, JarCache.listLibraries(manifest).values());
+        metrics.record("libraryOpen", openStart);
+        // Isolate the application from the launcher's own classes and libraries.
+        ClassLoader applicationClassLoader = new NestedJarClassLoader(libraries, ClassLoader.getSystemClassLoader().getParent());
+        String mainClassName = applicationClassName(manifest);
+        Thread.currentThread().setContextClassLoader(applicationClassLoader);
+        Method mainMethod = Class.forName(mainClassName, true, applicationClassLoader).getMethod("main", String[].class);
+        try {
+            mainMethod.invoke(null, (Object) args.toArray(new String[0]));
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs the application in a daemon child process, which an earlier launch with the same flask jar,
+     * JVM arguments, working directory and environment may have left running already, and which otherwise
+     * starts now. The daemon runs the application's main method once for each launch, one launch at a time,
+     * and so this launches a child JVM of its own instead while the daemon is busy with another launch, or if
+     * the daemon's JVM cannot intercept the application's calls to {@code System.exit()}.
+     * The {@link #beforeChildJvmStart} callback is only invoked when a daemon starts, and
+     * {@link #afterChildJvmExit} is never invoked, because the daemon outlives this launcher.
+     */
+    final int launchDaemon(Manifest manifest, List<String> jvmArgs, List<String> javaAgents, List<String> args) throws IOException, InterruptedException {
+        long phaseStart = metrics.start();
         JarCache cache = new JarCache(CACHE_FOLDER_DEFAULT_NAME);
-        if(Boolean.getBoolean(Flask.JvmProperties.WIPE_CACHE)) {
-            cache.wipeLibDir();
-        } else if(Files.exists(cache.getLibDir())) {
-            cache.cleanLibDir();
+        metrics.record("cacheDirectory", phaseStart);
+        phaseStart = metrics.start();
+        cache.sweepPidFiles();
+        metrics.record("sweepPidFiles", phaseStart);
+        String daemonName = DaemonClient.daemonName(currentJar, jvmArgs, applicationClassName(manifest));
+        Path unsupportedFile = cache.getDaemonDir().resolve(daemonName + ".unsupported");
+        if (!childJvmCanInterceptExit() || Files.exists(unsupportedFile)) {
+            log.debug("Running the application in a child JVM of its own, because a daemon cannot intercept System.exit()");
+            return launch(manifest, jvmArgs, javaAgents, args);
         }
-        try(LockFile ignored = LockFile.acquire(cache.getLockFile(), true)) {
-            Map<String, Path> extractedLibraries = cache.extract(manifest);
-            JavaProcessBuilder builder = new JavaProcessBuilder();
-            builder.setMainClassName(Optional.ofNullable(System.getProperty(Flask.JvmProperties.MAIN_CLASS))
-                    .orElse(manifest.getMainAttributes().getValue(Flask.ManifestAttributes.APPLICATION_CLASS)));
-            if(jvmArgs != null) {
-                builder.getJvmArgs().addAll(jvmArgs);
-            }
-            boolean disableJavaAgents = Boolean.getBoolean(Flask.JvmProperties.NO_JAVA_AGENT);
-            if(javaAgents != null && !disableJavaAgents) {
-                for(String javaAgentString : javaAgents) {
-                    int equalCharPosition = javaAgentString.indexOf('=');
-                    String hash;
-                    if(equalCharPosition < 0) {
-                        hash = javaAgentString;
-                    } else {
-                        hash = javaAgentString.substring(0, equalCharPosition);
-                    }
-                    Path agentJar = Optional.ofNullable(extractedLibraries.get(hash))
-                        .orElseThrow(() -> new IllegalStateException(String.format(
-                            "Java agent jar with hash '%s' not found Flask cache", hash)));
-                    String agentArguments = null;
-                    if(equalCharPosition > 0) {
-                        agentArguments = javaAgentString.substring(equalCharPosition + 1);
-                        log.trace("Adding Java agent '{}' with arguments '{}'", agentJar.getFileName().toString(), agentArguments);
+        Path daemonFile = cache.getDaemonDir().resolve(daemonName + ".properties");
+        phaseStart = metrics.start();
+        Integer returnCode;
+        try {
+            DaemonClient daemon = DaemonClient.read(daemonFile);
+            returnCode = (daemon != null) ? daemon.run(args) : null;
+            if (returnCode == null) {
+                try (LockFile ignored = LockFile.acquire(cache.getDaemonDir().resolve(daemonName + ".lock"), false)) {
+                    DaemonClient current = DaemonClient.read(daemonFile);
+                    if (current == null || current.equals(daemon)) {
+                        long startTime = metrics.start();
+                        daemon = startDaemon(cache, daemonName, manifest, jvmArgs, javaAgents);
+                        metrics.record("daemonStart", startTime);
                     } else {
-                        log.trace("Adding Java agent '{}'", agentJar.getFileName().toString());
+                        // Another launcher started a daemon while this one waited for the lock.
+                        daemon = current;
                     }
-                    builder.getJavaAgents().add(new JavaProcessBuilder.JavaAgent(agentJar, agentArguments));
+                }
+                if (daemon == null) {
+                    Files.write(unsupportedFile, new byte[0]);
+                    log.debug("Running the application in a child JVM of its own, because the daemon cannot intercept System.exit()");
+                    return launch(manifest, jvmArgs, javaAgents, args);
+                }
+                returnCode = daemon.run(args);
+                if (returnCode == null) {
+                    throw new IllegalStateException(String.format("Failed to connect to the flask daemon of '%s'", daemonFile));
                 }
             }
-            for(Path jarPath : extractedLibraries.values()) {
-                builder.getClasspath().add(jarPath.toString());
+        } catch (SocketTimeoutException e) {
+            log.debug("Running the application in a child JVM of its own, because the flask daemon is busy");
+            return launch(manifest, jvmArgs, javaAgents, args);
+        }
+        metrics.record("daemon", phaseStart);
+        return returnCode;
+    }
+
+    /**
+     * @return whether the child JVM may be able to install the security manager with which a daemon intercepts
+     * the application's calls to {@code System.exit()}, which Java 24 removed. A native launcher cannot tell,
+     * and so relies on its daemon exiting with {@link DaemonProtocol#EXIT_UNSUPPORTED}
+     */
+    private static boolean childJvmCanInterceptExit() {
+        return isNativeExecutable() || ClassDataArchive.javaVersion() < 24;
+    }
+
+    /**
+     * @return a client of the new daemon, or null if the daemon's JVM cannot intercept {@code System.exit()}
+     */
+    private DaemonClient startDaemon(JarCache cache, String daemonName, Manifest manifest, List<String> jvmArgs, List<String> javaAgents) throws IOException, InterruptedException {
+        Path daemonFile = cache.getDaemonDir().resolve(daemonName + ".properties");
+        // A daemon that was killed leaves its daemon file behind.
+        Files.deleteIfExists(daemonFile);
+        // Every daemon holds a shared lock on the cache for as long as it runs, and so
+        // the cache can only be evicted while no daemon runs, e.g. before this one starts.
+        long maxCacheSize = maxCacheSize();
+        if (cache.needsEviction(maxCacheSize)) {
+            long phaseStart = metrics.start();
+            cache.evict(maxCacheSize);
+            metrics.record("evict", phaseStart);
+        }
+        // The daemon's own shared lock on the cache replaces this one before it writes its daemon file.
+        try (LockFile ignored = LockFile.acquire(cache.getLockFile(), true)) {
+            Map<String, Path> extractedLibraries = cache.extract(currentJar, manifest);
+            metrics.count("librariesExtracted", cache.getLibrariesExtracted());
+            metrics.count("librariesReused", cache.getLibrariesReused());
+            cache.recordUse(extractedLibraries.values().stream().map(Path::getParent).collect(Collectors.toList()));
+            JavaProcessBuilder builder = createProcessBuilder(manifest, jvmArgs, javaAgents, extractedLibraries);
+            beforeChildJvmStart(builder);
+            // The heartbeat agent's jar contains the daemon, which invokes the application's main class for each launch.
+            builder.getCliArgs().add(0, builder.getMainClassName());
+            builder.setMainClassName(Flask.Constants.DAEMON_CLASS_NAME);
+            Path heartbeatAgentPath = extractedLibraries.get(
+                    manifest.getMainAttributes().getValue(Flask.ManifestAttributes.HEARTBEAT_AGENT_HASH));
+            builder.getJvmArgs().add("-javaagent:" + heartbeatAgentPath);
+            builder.getProperties().put(Flask.JvmProperties.DAEMON_FILE, daemonFile);
+            builder.getProperties().put(Flask.JvmProperties.CACHE_LOCK_FILE, cache.getLockFile());
+            int javaVersion = isNativeExecutable() ? 0 : ClassDataArchive.javaVersion();
+            if (javaVersion >= 18) {
+                // Java 18 and newer only let the daemon install its security manager if this allows it.
+                builder.getProperties().put("java.security.manager", "allow");
+            }
+            builder.getProperties().put(Flask.JvmProperties.DAEMON_IDLE_TIMEOUT_MILLIS, System.getProperty(
+                    Flask.JvmProperties.DAEMON_IDLE_TIMEOUT_MILLIS,
+                    Flask.Constants.DEFAULT_DAEMON_IDLE_TIMEOUT_MILLIS));
+            Path logFile = cache.getDaemonDir().resolve(daemonName + ".log");
+            Process process = builder.build()
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(logFile.toFile()))
+                    .start();
+            process.getOutputStream().close();
+            log.debug("Started flask daemon, logging to '{}'", logFile);
+            while (true) {
+                DaemonClient daemon = DaemonClient.read(daemonFile);
+                if (daemon != null) {
+                    return daemon;
+                } else if (!process.isAlive()) {
+                    if (process.exitValue() == DaemonProtocol.EXIT_UNSUPPORTED) {
+                        return null;
+                    }
+                    throw new IllegalStateException(String.format(
+                            "The flask daemon exited with code %d before it started, see '%s'", process.exitValue(), logFile));
+                }
+                Thread.sleep(10);
             }
+        }
+    }
+
+    final int launch(Manifest manifest, List<String> jvmArgs, List<String> javaAgents, List<String> args) throws IOException, InterruptedException {
+        long phaseStart = metrics.start();
+        JarCache cache = new JarCache(CACHE_FOLDER_DEFAULT_NAME);
+        metrics.record("cacheDirectory", phaseStart);
+        if(Boolean.getBoolean(Flask.JvmProperties.WIPE_CACHE)) {
+            phaseStart = metrics.start();
+            cache.wipeLibDir();
+            metrics.record("wipeCache", phaseStart);
+        }
+        phaseStart = metrics.start();
+        cache.sweepPidFiles();
+        metrics.record("sweepPidFiles", phaseStart);
+        int returnCode;
+        try(LockFile ignored = LockFile.acquire(cache.getLockFile(), true)) {
+            phaseStart = metrics.start();
+            Map<String, Path> extractedLibraries = cache.extract(currentJar, manifest);
+            metrics.record("extract", phaseStart);
+            metrics.count("librariesExtracted", cache.getLibrariesExtracted());
+            metrics.count("librariesReused", cache.getLibrariesReused());
+            // Record these libraries' use in the background, while the child JVM starts.
+            CompletableFuture<Void> indexUpdate = CompletableFuture.runAsync(() -> cache.recordUse(
+                    extractedLibraries.values().stream().map(Path::getParent).collect(Collectors.toList())));
+            JavaProcessBuilder builder = createProcessBuilder(manifest, jvmArgs, javaAgents, extractedLibraries);
             builder.getCliArgs().addAll(args);
             beforeChildJvmStart(builder);
-            builder.getProperties().put(Flask.JvmProperties.PID_FILE, cache.getPidFile());
+            ClassDataArchive classDataArchive = null;
+            if (isEnabled(manifest, Flask.JvmProperties.CLASS_DATA_SHARING, Flask.ManifestAttributes.CLASS_DATA_SHARING)) {
+                classDataArchive = ClassDataArchive.forProcess(cache.getCdsDir(), builder);
+                if (classDataArchive != null) {
+                    builder.getJvmArgs().addAll(classDataArchive.getJvmArgs());
+                }
+            }
             Path heartbeatAgentPath = extractedLibraries.get(
                     manifest.getMainAttributes().getValue(Flask.ManifestAttributes.HEARTBEAT_AGENT_HASH));
             builder.getJvmArgs().add("-javaagent:" + heartbeatAgentPath);
-            LockFile processLock = LockFile.acquire(cache.getPidFile(), false);
+            Long pid = childJvmHasProcessHandle() ? ProcessHandles.currentPid() : null;
+            Path pidFile;
+            LockFile processLock;
+            if (pid != null) {
+                // The child JVM can watch this process directly, and so needs no pid file.
+                builder.getProperties().put(Flask.JvmProperties.PARENT_PID, pid.toString());
+                pidFile = null;
+                processLock = null;
+            } else {
+                pidFile = cache.createPidFile();
+                builder.getProperties().put(Flask.JvmProperties.PID_FILE, pidFile);
+                processLock = LockFile.acquire(pidFile, false);
+            }
+            Path premainTimeFile = null;
+            if (metrics.isEnabled()) {
+                premainTimeFile = Files.createTempFile("flask", ".premain");
+                builder.getProperties().put(Flask.JvmProperties.PREMAIN_TIME_FILE, premainTimeFile);
+            }
+            long spawnTime = System.currentTimeMillis();
+            phaseStart = metrics.start();
             Process process = builder.build().inheritIO().start();
+            metrics.record("spawn", phaseStart);
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 if(process.isAlive()) {
                     process.destroy();
@@ -181,22 +447,136 @@ public class Launcher {
                         if (process.isAlive()) {
                             process.destroyForcibly();
                         }
-                        try {
-                            processLock.close();
-                        } catch (IOException ignoredEx) {
+                        if (processLock != null) {
+                            try {
+                                processLock.close();
+                            } catch (IOException ignoredEx) {
+                            }
                         }
                     }
                 }
-                try {
-                    Files.delete(cache.getPidFile());
-                } catch (Exception ex) {
-                    ex.printStackTrace();
+                if (pidFile != null) {
+                    try {
+                        Files.delete(pidFile);
+                    } catch (Exception ex) {
+                        ex.printStackTrace();
+                    }
                 }
-                cache.touchLibraries();
             }));
-            int returnCode = process.waitFor();
+            returnCode = process.waitFor();
+            metrics.record("childJvm", phaseStart);
+            if (premainTimeFile != null) {
+                recordChildJvmStartup(premainTimeFile, spawnTime);
+            }
+            if (classDataArchive != null) {
+                phaseStart = metrics.start();
+                classDataArchive.afterChildJvmExit(returnCode);
+                cache.recordUse(Collections.singletonList(classDataArchive.getArchive()));
+                metrics.record("classDataArchive", phaseStart);
+            }
+            indexUpdate.join();
             afterChildJvmExit(returnCode);
-            return returnCode;
+        }
+        // Evicting libraries in another process keeps it off both the launch's and the exit's critical paths.
+        phaseStart = metrics.start();
+        long maxCacheSize = maxCacheSize();
+        if (cache.needsEviction(maxCacheSize)) {
+            startEviction(cache, maxCacheSize);
+        }
+        metrics.record("evict", phaseStart);
+        return returnCode;
+    }
+
+    private static long maxCacheSize() {
+        return Long.parseLong(System.getProperty(Flask.JvmProperties.CACHE_MAX_SIZE, Flask.Constants.DEFAULT_CACHE_MAX_SIZE));
+    }
+
+    /**
+     * Starts a JVM that evicts libraries from this cache in the background, and which outlives this launcher.
+     * It evicts nothing if another flask process has started using the cache by then.
+     */
+    private static void startEviction(JarCache cache, long maxCacheSize) {
+        JavaProcessBuilder builder = new JavaProcessBuilder();
+        builder.getClasspath().add(currentJar.toString());
+        builder.setMainClassName(Launcher.class.getName());
+        builder.getProperties().put(Flask.JvmProperties.EVICT_CACHE, Boolean.TRUE.toString());
+        builder.getProperties().put(Flask.JvmProperties.JAR, currentJar);
+        builder.getProperties().put(Flask.JvmProperties.CACHE_DIR, cache.getPath());
+        builder.getProperties().put(Flask.JvmProperties.CACHE_MAX_SIZE, Long.toString(maxCacheSize));
+        Path logFile = cache.getPath().resolve("evict.log");
+        try {
+            Process process = builder.build()
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.to(logFile.toFile()))
+                    .start();
+            process.getOutputStream().close();
+            log.debug("Started library cache eviction, logging to '{}'", logFile);
+        } catch (IOException e) {
+            log.debug("Failed to start library cache eviction", e);
+        }
+    }
+
+    private static String applicationClassName(Manifest manifest) {
+        return Optional.ofNullable(System.getProperty(Flask.JvmProperties.MAIN_CLASS))
+                .orElse(manifest.getMainAttributes().getValue(Flask.ManifestAttributes.APPLICATION_CLASS));
+    }
+
+    /**
+     * @return a builder for a child process that runs the application with these libraries and Java agents
+     */
+    private static JavaProcessBuilder createProcessBuilder(
+            Manifest manifest, List<String> jvmArgs, List<String> javaAgents, Map<String, Path> extractedLibraries) {
+        JavaProcessBuilder builder = new JavaProcessBuilder();
+        builder.setMainClassName(applicationClassName(manifest));
+        if(jvmArgs != null) {
+            builder.getJvmArgs().addAll(jvmArgs);
+        }
+        boolean disableJavaAgents = Boolean.getBoolean(Flask.JvmProperties.NO_JAVA_AGENT);
+        if(javaAgents != null && !disableJavaAgents) {
+            for(String javaAgentString : javaAgents) {
+                int equalCharPosition = javaAgentString.indexOf('=');
+                String hash;
+                if(equalCharPosition < 0) {
+                    hash = javaAgentString;
+                } else {
+                    hash = javaAgentString.substring(0, equalCharPosition);
+                }
+                Path agentJar = Optional.ofNullable(extractedLibraries.get(hash))
+                    .orElseThrow(() -> new IllegalStateException(String.format(
+                        "Java agent jar with hash '%s' not found Flask cache", hash)));
+                String agentArguments = null;
+                if(equalCharPosition > 0) {
+                    agentArguments = javaAgentString.substring(equalCharPosition + 1);
+                    log.trace("Adding Java agent '{}' with arguments '{}'", agentJar.getFileName().toString(), agentArguments);
+                } else {
+                    log.trace("Adding Java agent '{}'", agentJar.getFileName().toString());
+                }
+                builder.getJavaAgents().add(new JavaProcessBuilder.JavaAgent(agentJar, agentArguments));
+            }
+        }
+        for(Path jarPath : extractedLibraries.values()) {
+            builder.getClasspath().add(jarPath.toString());
+        }
+        return builder;
+    }
+
+    /**
+     * The heartbeat agent writes the time at which the child JVM invoked it, which is
+     * immediately before the child JVM invokes the application's main method.
+     */
+    private static void recordChildJvmStartup(Path premainTimeFile, long spawnTime) {
+        try {
+            String premainTime = new String(Files.readAllBytes(premainTimeFile), StandardCharsets.UTF_8).trim();
+            if (!premainTime.isEmpty()) {
+                metrics.recordMillis("childJvmStartup", Long.parseLong(premainTime) - spawnTime);
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.debug("Failed to read the child JVM's startup time", e);
+        } finally {
+            try {
+                Files.deleteIfExists(premainTimeFile);
+            } catch (IOException ignored) {
+            }
         }
     }
 
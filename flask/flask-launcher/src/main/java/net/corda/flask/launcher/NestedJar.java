@@ -0,0 +1,267 @@
+package net.corda.flask.launcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * A read-only view of a library jar inside the flask jar. Libraries that the flask jar
+ * stores uncompressed are memory-mapped directly from the flask jar, and so reading
+ * them needs neither extraction to disk nor a copy onto the heap.
+ * <p>
+ * As with {@link JarFile}, a multi-release library's entries resolve to their
+ * newest versions under {@code META-INF/versions/} that this JVM supports.
+ */
+final class NestedJar {
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final String VERSIONS_PREFIX = "META-INF/versions/";
+    private static final int MINIMUM_RELEASE_VERSION = 9;
+    // Java 8 has no Attributes.Name.MULTI_RELEASE constant.
+    private static final Attributes.Name MULTI_RELEASE = new Attributes.Name("Multi-Release");
+
+    private static final class Entry {
+        final int method;
+        final int localHeaderOffset;
+        final int compressedSize;
+        final int size;
+
+        Entry(int method, int localHeaderOffset, int compressedSize, int size) {
+            this.method = method;
+            this.localHeaderOffset = localHeaderOffset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+    }
+
+    private final String name;
+    private final ByteBuffer data;
+    private final Manifest manifest;
+    private final Map<String, Entry> entries;
+
+    private NestedJar(String name, ByteBuffer data, Map<String, Entry> entries) throws IOException {
+        this.name = name;
+        this.data = data;
+        Entry manifestEntry = entries.get(JarFile.MANIFEST_NAME);
+        if (manifestEntry != null) {
+            manifest = new Manifest(new ByteArrayInputStream(read(JarFile.MANIFEST_NAME, manifestEntry)));
+        } else {
+            manifest = null;
+        }
+        if (manifest != null && Boolean.parseBoolean(manifest.getMainAttributes().getValue(MULTI_RELEASE))) {
+            this.entries = resolveVersions(entries, ClassDataArchive.javaVersion());
+        } else {
+            this.entries = entries;
+        }
+    }
+
+    /**
+     * @return the name of this library's entry inside the flask jar
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * @return this library's manifest, or null if it has none
+     */
+    Manifest getManifest() {
+        return manifest;
+    }
+
+    boolean contains(String entryName) {
+        return entries.containsKey(entryName);
+    }
+
+    /**
+     * @return the uncompressed contents of this entry, or null if this library has no such entry
+     */
+    byte[] read(String entryName) throws IOException {
+        Entry entry = entries.get(entryName);
+        return entry == null ? null : read(entryName, entry);
+    }
+
+    private byte[] read(String entryName, Entry entry) throws IOException {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(entry.localHeaderOffset) != LOCAL_HEADER_SIGNATURE) {
+            throw new ZipException(String.format("Invalid local header for '%s' in '%s'", entryName, name));
+        }
+        int dataOffset = entry.localHeaderOffset + LOCAL_HEADER_SIZE
+                + Short.toUnsignedInt(buffer.getShort(entry.localHeaderOffset + 26))
+                + Short.toUnsignedInt(buffer.getShort(entry.localHeaderOffset + 28));
+        buffer.position(dataOffset);
+        if (entry.method == ZipEntry.STORED) {
+            byte[] result = new byte[entry.size];
+            buffer.get(result);
+            return result;
+        } else if (entry.method == ZipEntry.DEFLATED) {
+            // Inflater needs an extra "dummy" byte after the compressed data when nowrap is true.
+            byte[] compressed = new byte[entry.compressedSize + 1];
+            buffer.get(compressed, 0, entry.compressedSize);
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                byte[] result = new byte[entry.size];
+                int inflated = 0;
+                while (inflated < result.length) {
+                    int count = inflater.inflate(result, inflated, result.length - inflated);
+                    if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    inflated += count;
+                }
+                if (inflated != result.length) {
+                    throw new ZipException(String.format("Entry '%s' in '%s' is truncated", entryName, name));
+                }
+                return result;
+            } catch (DataFormatException e) {
+                throw new ZipException(String.format("Entry '%s' in '%s' is corrupt: %s", entryName, name, e.getMessage()));
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new ZipException(String.format("Entry '%s' in '%s' uses unsupported compression method %d", entryName, name, entry.method));
+        }
+    }
+
+    /**
+     * Opens each of these libraries inside the flask jar, preserving their order.
+     */
+    static List<NestedJar> open(Path flaskJar, Iterable<String> jarEntryNames) throws IOException {
+        List<NestedJar> result = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(flaskJar, StandardOpenOption.READ);
+             ZipFile zipFile = new ZipFile(flaskJar.toFile())) {
+            StoredEntries storedEntries = StoredEntries.read(channel);
+            for (String jarEntryName : jarEntryNames) {
+                StoredEntries.Entry storedEntry = storedEntries.get(jarEntryName);
+                ByteBuffer data;
+                if (storedEntry != null) {
+                    data = channel.map(FileChannel.MapMode.READ_ONLY, storedEntry.getOffset(), storedEntry.getSize());
+                } else {
+                    data = readEntry(zipFile, jarEntryName);
+                }
+                result.add(new NestedJar(jarEntryName, data, readCentralDirectory(jarEntryName, data)));
+            }
+        }
+        return result;
+    }
+
+    private static ByteBuffer readEntry(ZipFile zipFile, String jarEntryName) throws IOException {
+        ZipEntry zipEntry = zipFile.getEntry(jarEntryName);
+        if (zipEntry == null) {
+            throw new ZipException(String.format("Entry '%s' missing from flask jar", jarEntryName));
+        }
+        byte[] bytes = new byte[Math.toIntExact(zipEntry.getSize())];
+        try (InputStream is = zipFile.getInputStream(zipEntry)) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int read = is.read(bytes, offset, bytes.length - offset);
+                if (read < 0) {
+                    throw new ZipException(String.format("Entry '%s' is truncated in flask jar", jarEntryName));
+                }
+                offset += read;
+            }
+        }
+        return ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Replaces each entry with its newest version for this Java release, if any.
+     */
+    private static Map<String, Entry> resolveVersions(Map<String, Entry> entries, int javaVersion) {
+        Map<String, Entry> result = new HashMap<>(entries);
+        Map<String, Integer> resolvedVersions = new HashMap<>();
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            String entryName = entry.getKey();
+            int versionEnd = entryName.indexOf('/', VERSIONS_PREFIX.length());
+            if (!entryName.startsWith(VERSIONS_PREFIX) || versionEnd < 0) {
+                continue;
+            }
+            int version;
+            try {
+                version = Integer.parseInt(entryName.substring(VERSIONS_PREFIX.length(), versionEnd));
+            } catch (NumberFormatException e) {
+                continue;
+            }
+            String baseName = entryName.substring(versionEnd + 1);
+            if (version < MINIMUM_RELEASE_VERSION || version > javaVersion || baseName.isEmpty() || baseName.startsWith("META-INF/")) {
+                continue;
+            }
+            Integer resolvedVersion = resolvedVersions.get(baseName);
+            if (resolvedVersion == null || resolvedVersion < version) {
+                resolvedVersions.put(baseName, version);
+                result.put(baseName, entry.getValue());
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    private static Map<String, Entry> readCentralDirectory(String name, ByteBuffer data) throws ZipException {
+        ByteBuffer buffer = data.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int endOffset = -1;
+        int lowest = Math.max(0, buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE);
+        for (int position = buffer.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; position >= lowest; --position) {
+            if (buffer.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                endOffset = position;
+                break;
+            }
+        }
+        if (endOffset < 0) {
+            throw new ZipException(String.format("'%s' is not a jar file", name));
+        }
+        int totalEntries = Short.toUnsignedInt(buffer.getShort(endOffset + 10));
+        long directoryOffset = Integer.toUnsignedLong(buffer.getInt(endOffset + 16));
+        if (totalEntries == 0xffff || directoryOffset >= buffer.limit()) {
+            throw new ZipException(String.format("'%s' is a zip64 archive, which cannot run in-process", name));
+        }
+
+        Map<String, Entry> entries = new HashMap<>();
+        int position = (int) directoryOffset;
+        for (int i = 0; i < totalEntries; ++i) {
+            if (buffer.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new ZipException(String.format("Invalid central directory entry in '%s'", name));
+            }
+            int method = Short.toUnsignedInt(buffer.getShort(position + 10));
+            int compressedSize = buffer.getInt(position + 20);
+            int size = buffer.getInt(position + 24);
+            int nameLength = Short.toUnsignedInt(buffer.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(position + 32));
+            int localHeaderOffset = buffer.getInt(position + 42);
+            if (compressedSize < 0 || size < 0 || localHeaderOffset < 0) {
+                throw new ZipException(String.format("'%s' is a zip64 archive, which cannot run in-process", name));
+            }
+
+            byte[] entryName = new byte[nameLength];
+            buffer.position(position + CENTRAL_DIRECTORY_HEADER_SIZE);
+            buffer.get(entryName);
+            entries.put(new String(entryName, StandardCharsets.UTF_8), new Entry(method, localHeaderOffset, compressedSize, size));
+            position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return Collections.unmodifiableMap(entries);
+    }
+}
@@ -0,0 +1,197 @@
+package net.corda.flask.launcher;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Loads classes and resources directly from the library jars inside the flask jar.
+ * Resources have "flask:" URLs, which only this class loader can open. Libraries
+ * that expect their classes to come from a jar file on disk will not work with it.
+ * Packages are defined from each library's manifest, as {@link java.net.URLClassLoader} does.
+ */
+final class NestedJarClassLoader extends ClassLoader {
+    private static final String PROTOCOL = "flask";
+    private static final String SEPARATOR = "!/";
+
+    static {
+        registerAsParallelCapable();
+    }
+
+    private static final class Library extends URLStreamHandler {
+        private final NestedJar jar;
+        private final URL location;
+        private final ProtectionDomain protectionDomain;
+
+        Library(NestedJar jar, ClassLoader classLoader) throws MalformedURLException {
+            this.jar = jar;
+            this.location = new URL(PROTOCOL, null, -1, '/' + jar.getName(), this);
+            this.protectionDomain = new ProtectionDomain(new CodeSource(location, (Certificate[]) null), null, classLoader, null);
+        }
+
+        URL getResource(String name) {
+            if (!jar.contains(name)) {
+                return null;
+            }
+            try {
+                return new URL(PROTOCOL, null, -1, '/' + jar.getName() + SEPARATOR + name, this);
+            } catch (MalformedURLException e) {
+                throw new IllegalArgumentException(e.getMessage(), e);
+            }
+        }
+
+        @Override
+        protected URLConnection openConnection(URL url) {
+            String file = url.getFile();
+            String name = file.substring(file.indexOf(SEPARATOR) + SEPARATOR.length());
+            return new URLConnection(url) {
+                private byte[] bytes;
+
+                @Override
+                public void connect() throws IOException {
+                    if (!connected) {
+                        bytes = jar.read(name);
+                        if (bytes == null) {
+                            throw new FileNotFoundException(url.toString());
+                        }
+                        connected = true;
+                    }
+                }
+
+                @Override
+                public InputStream getInputStream() throws IOException {
+                    connect();
+                    return new ByteArrayInputStream(bytes);
+                }
+
+                @Override
+                public long getContentLengthLong() {
+                    try {
+                        connect();
+                        return bytes.length;
+                    } catch (IOException e) {
+                        return -1;
+                    }
+                }
+            };
+        }
+    }
+
+    private final List<Library> libraries;
+
+    NestedJarClassLoader(List<NestedJar> jars, ClassLoader parent) throws MalformedURLException {
+        super(parent);
+        List<Library> libraries = new ArrayList<>(jars.size());
+        for (NestedJar jar : jars) {
+            libraries.add(new Library(jar, this));
+        }
+        this.libraries = Collections.unmodifiableList(libraries);
+    }
+
+    @Override
+    protected Class<?> findClass(String name) throws ClassNotFoundException {
+        String resourceName = name.replace('.', '/') + ".class";
+        for (Library library : libraries) {
+            byte[] bytes;
+            try {
+                bytes = library.jar.read(resourceName);
+            } catch (IOException e) {
+                throw new ClassNotFoundException(name, e);
+            }
+            if (bytes != null) {
+                definePackageFor(name, library);
+                return defineClass(name, bytes, 0, bytes.length, library.protectionDomain);
+            }
+        }
+        throw new ClassNotFoundException(name);
+    }
+
+    @SuppressWarnings("deprecation")
+    private void definePackageFor(String className, Library library) {
+        int lastDot = className.lastIndexOf('.');
+        if (lastDot <= 0) {
+            return;
+        }
+        String packageName = className.substring(0, lastDot);
+        Manifest manifest = library.jar.getManifest();
+        Package pkg = getPackage(packageName);
+        if (pkg == null) {
+            try {
+                definePackage(packageName, manifest, library.location);
+                return;
+            } catch (IllegalArgumentException e) {
+                // Another thread has defined this package concurrently.
+                pkg = getPackage(packageName);
+            }
+        }
+        if (pkg.isSealed()) {
+            if (!pkg.isSealed(library.location)) {
+                throw new SecurityException("sealing violation: package " + packageName + " is sealed");
+            }
+        } else if (manifest != null && "true".equalsIgnoreCase(getAttribute(manifest, packageName, Attributes.Name.SEALED))) {
+            throw new SecurityException("sealing violation: can't seal package " + packageName + ": already loaded");
+        }
+    }
+
+    private void definePackage(String packageName, Manifest manifest, URL location) {
+        if (manifest == null) {
+            definePackage(packageName, null, null, null, null, null, null, null);
+        } else {
+            URL sealBase = "true".equalsIgnoreCase(getAttribute(manifest, packageName, Attributes.Name.SEALED)) ? location : null;
+            definePackage(packageName,
+                getAttribute(manifest, packageName, Attributes.Name.SPECIFICATION_TITLE),
+                getAttribute(manifest, packageName, Attributes.Name.SPECIFICATION_VERSION),
+                getAttribute(manifest, packageName, Attributes.Name.SPECIFICATION_VENDOR),
+                getAttribute(manifest, packageName, Attributes.Name.IMPLEMENTATION_TITLE),
+                getAttribute(manifest, packageName, Attributes.Name.IMPLEMENTATION_VERSION),
+                getAttribute(manifest, packageName, Attributes.Name.IMPLEMENTATION_VENDOR),
+                sealBase);
+        }
+    }
+
+    /**
+     * @return the package's own value for this manifest attribute, or else the manifest's main value
+     */
+    private static String getAttribute(Manifest manifest, String packageName, Attributes.Name name) {
+        Attributes packageAttributes = manifest.getAttributes(packageName.replace('.', '/') + '/');
+        String value = (packageAttributes != null) ? packageAttributes.getValue(name) : null;
+        return (value != null) ? value : manifest.getMainAttributes().getValue(name);
+    }
+
+    @Override
+    protected URL findResource(String name) {
+        for (Library library : libraries) {
+            URL url = library.getResource(name);
+            if (url != null) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    protected Enumeration<URL> findResources(String name) {
+        List<URL> urls = new ArrayList<>();
+        for (Library library : libraries) {
+            URL url = library.getResource(name);
+            if (url != null) {
+                urls.add(url);
+            }
+        }
+        return Collections.enumeration(urls);
+    }
+}
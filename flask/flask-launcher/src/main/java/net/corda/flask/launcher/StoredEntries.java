@@ -0,0 +1,144 @@
+package net.corda.flask.launcher;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads the central directory of a zip file to find where the data of each
+ * {@link ZipEntry#STORED} entry begins. The flask jar stores its libraries
+ * uncompressed, and so their bytes can be copied straight out of the flask jar.
+ * Zip64 archives are not supported, and contain no {@link StoredEntries}.
+ */
+final class StoredEntries {
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+
+    static final class Entry {
+        private final long offset;
+        private final long size;
+
+        private Entry(long offset, long size) {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        /**
+         * @return the position of this entry's first byte of data within the zip file
+         */
+        long getOffset() {
+            return offset;
+        }
+
+        long getSize() {
+            return size;
+        }
+    }
+
+    private final Map<String, Entry> entries;
+
+    private StoredEntries(Map<String, Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * @return the stored entry with this name, or null if the entry is missing or compressed
+     */
+    Entry get(String name) {
+        return entries.get(name);
+    }
+
+    static StoredEntries read(FileChannel channel) throws IOException {
+        ByteBuffer end = findEndOfCentralDirectory(channel);
+        if (end == null) {
+            return new StoredEntries(Collections.emptyMap());
+        }
+        int totalEntries = Short.toUnsignedInt(end.getShort(10));
+        long directorySize = Integer.toUnsignedLong(end.getInt(12));
+        long directoryOffset = Integer.toUnsignedLong(end.getInt(16));
+        if (totalEntries == 0xffff || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+            return new StoredEntries(Collections.emptyMap());
+        }
+
+        ByteBuffer directory = readFully(channel, directoryOffset, (int) directorySize);
+        ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        Map<String, Entry> entries = new HashMap<>();
+        int position = 0;
+        for (int i = 0; i < totalEntries; ++i) {
+            if (directory.getInt(position) != CENTRAL_DIRECTORY_SIGNATURE) {
+                throw new IOException("Invalid zip central directory entry at offset " + (directoryOffset + position));
+            }
+            int method = Short.toUnsignedInt(directory.getShort(position + 10));
+            long compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+            long size = Integer.toUnsignedLong(directory.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+            long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(position + 42));
+
+            if (method == ZipEntry.STORED && compressedSize == size
+                    && size != ZIP64_MAGIC && localHeaderOffset != ZIP64_MAGIC) {
+                byte[] name = new byte[nameLength];
+                ByteBuffer nameBuffer = directory.duplicate();
+                nameBuffer.position(position + CENTRAL_DIRECTORY_HEADER_SIZE);
+                nameBuffer.get(name);
+
+                localHeader.clear();
+                readFully(channel, localHeaderOffset, localHeader);
+                if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                    throw new IOException("Invalid zip local header at offset " + localHeaderOffset);
+                }
+                long dataOffset = localHeaderOffset + LOCAL_HEADER_SIZE
+                        + Short.toUnsignedInt(localHeader.getShort(26))
+                        + Short.toUnsignedInt(localHeader.getShort(28));
+                entries.put(new String(name, StandardCharsets.UTF_8), new Entry(dataOffset, size));
+            }
+            position += CENTRAL_DIRECTORY_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return new StoredEntries(Collections.unmodifiableMap(entries));
+    }
+
+    private static ByteBuffer findEndOfCentralDirectory(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            return null;
+        }
+        int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = readFully(channel, fileSize - tailSize, tailSize);
+        for (int position = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; position >= 0; --position) {
+            if (tail.getInt(position) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                tail.position(position);
+                return tail.slice().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+        return null;
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long offset, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, offset, buffer);
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, long offset, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, offset + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of zip file");
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package net.corda.flask.launcher;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CacheIndexTest {
+
+    @TempDir
+    public Path testDir;
+
+    private static Path createLibrary(Path libDir, String hash, int size, Duration age) throws IOException {
+        Path hashDir = Files.createDirectories(libDir.resolve(hash));
+        Files.write(hashDir.resolve("library.jar"), new byte[size]);
+        Files.setLastModifiedTime(hashDir, FileTime.from(Instant.now().minus(age)));
+        return hashDir;
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() throws IOException {
+        Path libDir = testDir.resolve("lib");
+        Path oldest = createLibrary(libDir, "oldest", 100, Duration.ofDays(3));
+        Path older = createLibrary(libDir, "older", 100, Duration.ofDays(2));
+        Path recent = createLibrary(libDir, "recent", 100, Duration.ofDays(1));
+        CacheIndex index = new CacheIndex(testDir, Collections.singletonList(libDir));
+
+        // The oldest library becomes the most recently used one.
+        index.recordUse(Collections.singletonList(oldest));
+        index.evict(250);
+        assertTrue(Files.exists(oldest));
+        assertFalse(Files.exists(older));
+        assertTrue(Files.exists(recent));
+
+        index.evict(250);
+        assertTrue(Files.exists(oldest));
+        assertTrue(Files.exists(recent));
+
+        index.evict(0);
+        for (Path library : Arrays.asList(oldest, older, recent)) {
+            assertFalse(Files.exists(library));
+        }
+    }
+
+    @Test
+    public void testEvictUnindexedEntries() throws IOException {
+        Path libDir = testDir.resolve("lib");
+        Path indexed = createLibrary(libDir, "indexed", 100, Duration.ofDays(1));
+        CacheIndex index = new CacheIndex(testDir, Collections.singletonList(libDir));
+        index.recordUse(Collections.singletonList(indexed));
+        assertFalse(index.needsEviction(250));
+
+        // A launcher extracted this library, but failed to record its use.
+        Path unindexed = createLibrary(libDir, "unindexed", 200, Duration.ofDays(2));
+        assertTrue(index.needsEviction(250));
+        index.evict(250);
+        assertTrue(Files.exists(indexed));
+        assertFalse(Files.exists(unindexed));
+        assertFalse(index.needsEviction(250));
+    }
+}
@@ -0,0 +1,144 @@
+package net.corda.flask.launcher;
+
+import net.corda.flask.common.Flask;
+import net.corda.flask.launcher.cds.Agent;
+import net.corda.flask.launcher.cds.Hello;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Assumptions;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+
+public class ClassDataArchiveTest {
+
+    @TempDir
+    public Path testDir;
+
+    private Path archiveDir;
+
+    @BeforeAll
+    public static void setupLauncher() {
+        // Launcher would otherwise look for the flask jar that contains it.
+        if (System.getProperty(Flask.JvmProperties.JAR) == null) {
+            System.setProperty(Flask.JvmProperties.JAR, "flask.jar");
+        }
+    }
+
+    @BeforeEach
+    public void setup() {
+        Assumptions.assumeTrue(ClassDataArchive.javaVersion() >= 11, "Class data sharing archives require Java 11");
+        archiveDir = testDir.resolve("cds");
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private Path createJar(String name, Manifest manifest, Class<?> cls) throws IOException {
+        Path jar = testDir.resolve(name);
+        String entryName = cls.getName().replace('.', '/') + ".class";
+        try (JarOutputStream jos = new JarOutputStream(Files.newOutputStream(jar), manifest);
+             InputStream input = cls.getClassLoader().getResourceAsStream(entryName)) {
+            Assertions.assertNotNull(input, entryName);
+            jos.putNextEntry(new ZipEntry(entryName));
+            jos.write(readAll(input));
+        }
+        return jar;
+    }
+
+    private JavaProcessBuilder createProcessBuilder() throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        Path application = createJar("application.jar", manifest, Hello.class);
+        manifest.getMainAttributes().putValue("Premain-Class", Agent.class.getName());
+        Path agent = createJar("agent.jar", manifest, Agent.class);
+
+        JavaProcessBuilder builder = new JavaProcessBuilder();
+        builder.setMainClassName(Hello.class.getName());
+        builder.getClasspath().add(application.toString());
+        // An archive dumped with compressed oops cannot be mapped by a JVM without them.
+        builder.getJvmArgs().add("-XX:-UseCompressedOops");
+        builder.getJvmArgs().add("-javaagent:" + agent);
+        return builder;
+    }
+
+    private static String run(JavaProcessBuilder builder, List<String> archiveJvmArgs) throws IOException, InterruptedException {
+        JavaProcessBuilder child = new JavaProcessBuilder();
+        child.setMainClassName(builder.getMainClassName());
+        child.setClasspath(builder.getClasspath());
+        List<String> jvmArgs = new ArrayList<>(builder.getJvmArgs());
+        jvmArgs.addAll(archiveJvmArgs);
+        child.setJvmArgs(jvmArgs);
+        Process process = child.build().redirectErrorStream(true).start();
+        String output;
+        try (InputStream input = process.getInputStream()) {
+            output = new String(readAll(input), StandardCharsets.UTF_8);
+        }
+        Assertions.assertEquals(0, process.waitFor(), output);
+        return output;
+    }
+
+    @Test
+    public void testSecondLaunchUsesArchive() throws Exception {
+        JavaProcessBuilder builder = createProcessBuilder();
+
+        ClassDataArchive first = ClassDataArchive.forProcess(archiveDir, builder);
+        Assertions.assertNotNull(first);
+        List<String> recordingJvmArgs = first.getJvmArgs();
+        Assertions.assertEquals(1, recordingJvmArgs.size());
+        Assertions.assertTrue(recordingJvmArgs.get(0).startsWith("-XX:DumpLoadedClassList="), recordingJvmArgs.get(0));
+        run(builder, recordingJvmArgs);
+        first.afterChildJvmExit(0);
+        Assertions.assertTrue(Files.isRegularFile(first.getArchive()));
+        try (Stream<Path> files = Files.list(archiveDir)) {
+            Assertions.assertEquals(Collections.singletonList(first.getArchive()), files.collect(Collectors.toList()));
+        }
+
+        ClassDataArchive second = ClassDataArchive.forProcess(archiveDir, builder);
+        Assertions.assertNotNull(second);
+        Assertions.assertEquals(first.getArchive(), second.getArchive());
+        List<String> sharingJvmArgs = second.getJvmArgs();
+        Assertions.assertEquals(Collections.singletonList("-XX:SharedArchiveFile=" + first.getArchive()), sharingJvmArgs);
+        // The child JVM fails to start if it cannot map the archive.
+        List<String> requiredSharingJvmArgs = new ArrayList<>(sharingJvmArgs);
+        requiredSharingJvmArgs.add("-Xshare:on");
+        Assertions.assertTrue(run(builder, requiredSharingJvmArgs).contains("Hello"));
+    }
+
+    @Test
+    public void testFailedLaunchCreatesNoArchive() throws Exception {
+        JavaProcessBuilder builder = createProcessBuilder();
+        ClassDataArchive first = ClassDataArchive.forProcess(archiveDir, builder);
+        Assertions.assertNotNull(first);
+        run(builder, first.getJvmArgs());
+        first.afterChildJvmExit(1);
+        Assertions.assertFalse(Files.exists(first.getArchive()));
+
+        ClassDataArchive second = ClassDataArchive.forProcess(archiveDir, builder);
+        Assertions.assertNotNull(second);
+        Assertions.assertTrue(second.getJvmArgs().get(0).startsWith("-XX:DumpLoadedClassList="));
+    }
+}
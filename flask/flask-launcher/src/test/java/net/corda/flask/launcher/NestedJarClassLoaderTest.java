@@ -0,0 +1,203 @@
+package net.corda.flask.launcher;
+
+import net.corda.flask.launcher.nested.deflated.Greeter;
+import net.corda.flask.launcher.nested.stored.Greeting;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NestedJarClassLoaderTest {
+    private static final String STORED_LIBRARY = "LIB-INF/stored.jar";
+    private static final String DEFLATED_LIBRARY = "LIB-INF/deflated.jar";
+    private static final String VERSIONED_RESOURCE = "version.txt";
+
+    @TempDir
+    public Path testDir;
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static byte[] classBytes(Class<?> cls) throws IOException {
+        String resourceName = cls.getName().replace('.', '/') + ".class";
+        try (InputStream input = cls.getClassLoader().getResourceAsStream(resourceName)) {
+            assertNotNull(input, resourceName);
+            return readAll(input);
+        }
+    }
+
+    private static Manifest manifest(String... attributes) {
+        Manifest manifest = new Manifest();
+        Attributes mainAttributes = manifest.getMainAttributes();
+        mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        for (int i = 0; i < attributes.length; i += 2) {
+            mainAttributes.putValue(attributes[i], attributes[i + 1]);
+        }
+        return manifest;
+    }
+
+    private static byte[] library(Manifest manifest, Map<String, byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (JarOutputStream jar = new JarOutputStream(bytes, manifest)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                jar.putNextEntry(new ZipEntry(entry.getKey()));
+                jar.write(entry.getValue());
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private Path flaskJar(byte[] storedLibrary, byte[] deflatedLibrary) throws IOException {
+        Path flaskJar = testDir.resolve("flask.jar");
+        try (OutputStream os = Files.newOutputStream(flaskJar); ZipOutputStream zos = new ZipOutputStream(os)) {
+            ZipEntry stored = new ZipEntry(STORED_LIBRARY);
+            CRC32 crc32 = new CRC32();
+            crc32.update(storedLibrary);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(storedLibrary.length);
+            stored.setCompressedSize(storedLibrary.length);
+            stored.setCrc(crc32.getValue());
+            zos.putNextEntry(stored);
+            zos.write(storedLibrary);
+
+            zos.putNextEntry(new ZipEntry(DEFLATED_LIBRARY));
+            zos.write(deflatedLibrary);
+        }
+        return flaskJar;
+    }
+
+    private ClassLoader createClassLoader() throws IOException {
+        Manifest storedManifest = manifest(
+            "Specification-Title", "greeting",
+            "Specification-Version", "1.2",
+            "Implementation-Title", "greeting",
+            "Implementation-Version", "1.2.3",
+            "Implementation-Vendor", "Corda"
+        );
+        Attributes packageAttributes = new Attributes();
+        packageAttributes.put(Attributes.Name.IMPLEMENTATION_VENDOR, "R3");
+        storedManifest.getEntries().put(Greeting.class.getPackage().getName().replace('.', '/') + '/', packageAttributes);
+        Map<String, byte[]> storedEntries = new LinkedHashMap<>();
+        storedEntries.put(Greeting.class.getName().replace('.', '/') + ".class", classBytes(Greeting.class));
+
+        Map<String, byte[]> deflatedEntries = new LinkedHashMap<>();
+        deflatedEntries.put(Greeter.class.getName().replace('.', '/') + ".class", classBytes(Greeter.class));
+        deflatedEntries.put("greeting.txt", "Hello from a deflated library".getBytes(StandardCharsets.UTF_8));
+
+        Path flaskJar = flaskJar(
+            library(storedManifest, storedEntries),
+            library(manifest("Sealed", "true"), deflatedEntries)
+        );
+        List<NestedJar> jars = NestedJar.open(flaskJar, Arrays.asList(STORED_LIBRARY, DEFLATED_LIBRARY));
+        return new NestedJarClassLoader(jars, ClassLoader.getSystemClassLoader().getParent());
+    }
+
+    @Test
+    public void testRunStoredAndDeflatedLibraries() throws Exception {
+        ClassLoader classLoader = createClassLoader();
+        Class<?> greeter = Class.forName(Greeter.class.getName(), true, classLoader);
+        assertSame(classLoader, greeter.getClassLoader());
+        assertNotSame(Greeter.class, greeter);
+
+        Method greet = greeter.getMethod("greet", String.class);
+        assertEquals("Hello, flask!", greet.invoke(null, "flask"));
+        assertSame(classLoader, Class.forName(Greeting.class.getName(), false, classLoader).getClassLoader());
+    }
+
+    @Test
+    public void testDefinePackagesFromManifests() throws Exception {
+        ClassLoader classLoader = createClassLoader();
+        Package greetingPackage = Class.forName(Greeting.class.getName(), false, classLoader).getPackage();
+        assertEquals("greeting", greetingPackage.getSpecificationTitle());
+        assertEquals("1.2", greetingPackage.getSpecificationVersion());
+        assertEquals("1.2.3", greetingPackage.getImplementationVersion());
+        assertEquals("R3", greetingPackage.getImplementationVendor());
+        assertFalse(greetingPackage.isSealed());
+
+        Package greeterPackage = Class.forName(Greeter.class.getName(), false, classLoader).getPackage();
+        assertNull(greeterPackage.getImplementationVersion());
+        assertTrue(greeterPackage.isSealed());
+    }
+
+    @Test
+    public void testReadResources() throws Exception {
+        ClassLoader classLoader = createClassLoader();
+        URL resource = classLoader.getResource("greeting.txt");
+        assertNotNull(resource);
+        try (InputStream input = resource.openStream()) {
+            assertEquals("Hello from a deflated library", new String(readAll(input), StandardCharsets.UTF_8));
+        }
+        assertNull(classLoader.getResource("missing.txt"));
+    }
+
+    private String readVersionedResource(Manifest manifest) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put(VERSIONED_RESOURCE, "base".getBytes(StandardCharsets.UTF_8));
+        entries.put("META-INF/versions/9/" + VERSIONED_RESOURCE, "9".getBytes(StandardCharsets.UTF_8));
+        int futureVersion = ClassDataArchive.javaVersion() + 1;
+        entries.put("META-INF/versions/" + futureVersion + '/' + VERSIONED_RESOURCE, "future".getBytes(StandardCharsets.UTF_8));
+        byte[] library = library(manifest, entries);
+
+        Path flaskJar = flaskJar(library, library);
+        List<NestedJar> jars = NestedJar.open(flaskJar, Arrays.asList(STORED_LIBRARY, DEFLATED_LIBRARY));
+        ClassLoader classLoader = new NestedJarClassLoader(jars, ClassLoader.getSystemClassLoader().getParent());
+        List<URL> resources = Collections.list(classLoader.getResources(VERSIONED_RESOURCE));
+        assertEquals(2, resources.size());
+        String content = null;
+        for (URL resource : resources) {
+            try (InputStream input = resource.openStream()) {
+                String resourceContent = new String(readAll(input), StandardCharsets.UTF_8);
+                if (content != null) {
+                    assertEquals(content, resourceContent);
+                }
+                content = resourceContent;
+            }
+        }
+        return content;
+    }
+
+    @Test
+    public void testResolveMultiReleaseEntries() throws IOException {
+        String expected = (ClassDataArchive.javaVersion() >= 9) ? "9" : "base";
+        assertEquals(expected, readVersionedResource(manifest("Multi-Release", "true")));
+    }
+
+    @Test
+    public void testIgnoreVersionsWithoutMultiRelease() throws IOException {
+        assertEquals("base", readVersionedResource(manifest()));
+    }
+}
@@ -0,0 +1,68 @@
+package net.corda.flask.launcher;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class StoredEntriesTest {
+
+    @TempDir
+    public Path testDir;
+
+    private static void putStoredEntry(ZipOutputStream zos, String name, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        CRC32 crc32 = new CRC32();
+        crc32.update(data);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setCrc(crc32.getValue());
+        entry.setExtra(new byte[] { (byte) 0xca, (byte) 0xfe, 0, 0 });
+        zos.putNextEntry(entry);
+        zos.write(data);
+    }
+
+    @Test
+    public void testLocateStoredEntries() throws IOException {
+        byte[] first = "first library".getBytes(StandardCharsets.UTF_8);
+        byte[] second = "second library".getBytes(StandardCharsets.UTF_8);
+        Path zipFile = testDir.resolve("test.jar");
+        try (OutputStream os = Files.newOutputStream(zipFile); ZipOutputStream zos = new ZipOutputStream(os)) {
+            putStoredEntry(zos, "LIB-INF/first.jar", first);
+            zos.putNextEntry(new ZipEntry("LIB-INF/compressed.txt"));
+            zos.write("compressed".getBytes(StandardCharsets.UTF_8));
+            putStoredEntry(zos, "LIB-INF/second.jar", second);
+            zos.setComment("flask");
+        }
+
+        try (FileChannel channel = FileChannel.open(zipFile)) {
+            StoredEntries storedEntries = StoredEntries.read(channel);
+            assertNull(storedEntries.get("LIB-INF/compressed.txt"));
+            assertNull(storedEntries.get("LIB-INF/missing.jar"));
+            assertArrayEquals(first, read(channel, storedEntries.get("LIB-INF/first.jar")));
+            assertArrayEquals(second, read(channel, storedEntries.get("LIB-INF/second.jar")));
+        }
+    }
+
+    private static byte[] read(FileChannel channel, StoredEntries.Entry entry) throws IOException {
+        assertNotNull(entry);
+        ByteBuffer buffer = ByteBuffer.allocate((int) entry.getSize());
+        assertEquals(entry.getSize(), channel.read(buffer, entry.getOffset()));
+        return buffer.array();
+    }
+}
@@ -0,0 +1,6 @@
+package net.corda.flask.launcher.cds;
+
+public class Agent {
+    public static void premain(String args) {
+    }
+}
@@ -0,0 +1,7 @@
+package net.corda.flask.launcher.cds;
+
+public class Hello {
+    public static void main(String[] args) {
+        System.out.println("Hello");
+    }
+}
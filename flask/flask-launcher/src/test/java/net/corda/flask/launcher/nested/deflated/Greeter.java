@@ -0,0 +1,16 @@
+package net.corda.flask.launcher.nested.deflated;
+
+import net.corda.flask.launcher.nested.stored.Greeting;
+
+/**
+ * Packaged into a library that the flask jar compresses,
+ * and which depends upon the uncompressed library.
+ */
+public final class Greeter {
+    private Greeter() {
+    }
+
+    public static String greet(String name) {
+        return Greeting.text() + ", " + name + '!';
+    }
+}
@@ -0,0 +1,13 @@
+package net.corda.flask.launcher.nested.stored;
+
+/**
+ * Packaged into a library that the flask jar stores uncompressed.
+ */
+public final class Greeting {
+    private Greeting() {
+    }
+
+    public static String text() {
+        return "Hello";
+    }
+}
@@ -1,11 +1,12 @@
 package net.corda.gradle.flask;
 
 import net.corda.flask.common.Flask;
-import net.corda.flask.common.ThrowingSupplier;
+import net.corda.flask.common.ThrowingConsumer;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
 import org.gradle.api.NamedDomainObjectCollection;
 import org.gradle.api.NamedDomainObjectContainer;
+import org.gradle.api.file.FileTreeElement;
 import org.gradle.api.internal.file.CopyActionProcessingStreamAction;
 import org.gradle.api.internal.file.copy.CopyAction;
 import org.gradle.api.internal.file.copy.CopyActionProcessingStream;
@@ -13,14 +14,19 @@ import org.gradle.api.internal.file.copy.FileCopyDetailsInternal;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.plugins.BasePluginConvention;
 import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.provider.SetProperty;
+import org.gradle.api.resources.ReadableResource;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Nested;
 import org.gradle.api.tasks.WorkResult;
 import org.gradle.api.tasks.bundling.AbstractArchiveTask;
+import org.gradle.api.tasks.util.PatternSet;
 import org.gradle.util.GradleVersion;
-import org.gradle.work.DisableCachingByDefault;
 
 import javax.annotation.Nonnull;
 import javax.inject.Inject;
@@ -28,18 +34,25 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.UncheckedIOException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.Attributes;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 import java.util.zip.ZipOutputStream;
 
 import static java.util.zip.Deflater.BEST_COMPRESSION;
@@ -54,7 +67,7 @@ import static net.corda.flask.common.Flask.Constants.METADATA_FOLDER;
 import static net.corda.flask.common.Flask.Constants.ZIP_ENTRIES_DEFAULT_TIMESTAMP;
 
 @SuppressWarnings("unused")
-@DisableCachingByDefault
+@CacheableTask
 public class FlaskJarTask extends AbstractArchiveTask {
 
     private static final String MINIMUM_GRADLE_VERSION = "7.0";
@@ -87,6 +100,74 @@ public class FlaskJarTask extends AbstractArchiveTask {
         return jvmArgs;
     }
 
+    private final Property<Boolean> inProcess;
+
+    /**
+     * Whether the application should run inside the launcher's own JVM by default,
+     * loading its libraries directly from the flask jar instead of extracting them.
+     */
+    @Input
+    public Property<Boolean> getInProcess() {
+        return inProcess;
+    }
+
+    private final Property<Boolean> classDataSharing;
+
+    /**
+     * Whether the child JVM should use a class data sharing archive by default.
+     * The launcher creates this archive the first time that it runs the application.
+     */
+    @Input
+    public Property<Boolean> getClassDataSharing() {
+        return classDataSharing;
+    }
+
+    private final Property<Boolean> daemon;
+
+    /**
+     * Whether the application should run in a daemon child JVM by default,
+     * which later launches of the flask jar can then reuse.
+     */
+    @Input
+    public Property<Boolean> getDaemon() {
+        return daemon;
+    }
+
+    private final SetProperty<String> storedExtensions;
+
+    /**
+     * The extensions of files that are already compressed, such as archives and images,
+     * which the flask jar stores as they are rather than deflating them again.
+     */
+    @Input
+    public SetProperty<String> getStoredExtensions() {
+        return storedExtensions;
+    }
+
+    private final Property<Integer> compressionLevel;
+
+    /**
+     * The deflate level, from 1 to 9, of every other entry of the flask jar, or 0 to store these entries instead.
+     * Lower levels build the flask jar faster, and its launcher extracts their entries faster,
+     * at the cost of a larger flask jar.
+     */
+    @Input
+    public Property<Integer> getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    private final MapProperty<String, Integer> compressionLevels;
+
+    /**
+     * The deflate levels of the entries that match these Ant-style patterns, which override both
+     * {@link #getStoredExtensions()} and {@link #getCompressionLevel()}. An entry takes the level of
+     * the first pattern that it matches. Libraries are always stored, so that the launcher can read them in place.
+     */
+    @Input
+    public MapProperty<String, Integer> getCompressionLevels() {
+        return compressionLevels;
+    }
+
     public void includeLibraries(Object... files) {
         into(LIBRARIES_FOLDER, (copySpec) -> copySpec.from(files));
     }
@@ -110,9 +191,19 @@ public class FlaskJarTask extends AbstractArchiveTask {
         getDestinationDirectory().set(basePluginConvention.getLibsDirectory());
         getArchiveBaseName().convention(getProject().getName());
         getArchiveExtension().convention("jar");
+        // Identical inputs produce an identical flask jar, which Gradle can then restore from its build cache.
+        setPreserveFileTimestamps(false);
+        setReproducibleFileOrder(true);
         launcherClassName = objects.property(String.class).convention(DEFAULT_LAUNCHER_NAME);
         mainClassName = objects.property(String.class);
         jvmArgs = objects.listProperty(String.class);
+        inProcess = objects.property(Boolean.class).convention(false);
+        classDataSharing = objects.property(Boolean.class).convention(false);
+        daemon = objects.property(Boolean.class).convention(false);
+        storedExtensions = objects.setProperty(String.class)
+                .convention(Arrays.asList("jar", "war", "zip", "gz", "tgz", "bz2", "xz", "png", "jpg", "jpeg", "gif"));
+        compressionLevel = objects.property(Integer.class).convention(BEST_COMPRESSION);
+        compressionLevels = objects.mapProperty(String.class, Integer.class);
         javaAgents = objects.domainObjectContainer(JavaAgent.class);
         from(getProject().tarTree(LauncherResource.instance), copySpec -> exclude(JarFile.MANIFEST_NAME));
 
@@ -126,73 +217,157 @@ public class FlaskJarTask extends AbstractArchiveTask {
         includeLibraries(heartbeatJarProvider);
     }
 
+    /**
+     * The launcher and heartbeat agent are resources of this plugin, and so cannot change
+     * while its classes are loaded. Their hashes are therefore computed only once,
+     * rather than every time that Gradle checks whether this task is up-to-date.
+     */
+    private static final class ResourceHashes {
+        static final String LAUNCHER_ARCHIVE = hashOf(LauncherResource.instance);
+        static final String HEARTBEAT_AGENT = hashOf(HeartbeatAgentResource.instance);
+
+        private static String hashOf(ReadableResource resource) {
+            try {
+                return Flask.bytes2Hex(Flask.computeSHA256Digest(resource::read));
+            } catch (IOException | NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+    }
+
     @Input
-    public String getLauncherArchiveHash() throws IOException, NoSuchAlgorithmException {
-        return Flask.bytes2Hex(Flask.computeSHA256Digest(LauncherResource.instance::read));
+    public String getLauncherArchiveHash() {
+        return ResourceHashes.LAUNCHER_ARCHIVE;
     }
 
     @Input
-    public String getHeartbeatAgentHash() throws IOException, NoSuchAlgorithmException {
-        return Flask.bytes2Hex(Flask.computeSHA256Digest(HeartbeatAgentResource.instance::read));
+    public String getHeartbeatAgentHash() {
+        return ResourceHashes.HEARTBEAT_AGENT;
     }
 
-    private static class StreamAction implements CopyActionProcessingStreamAction {
-
-        private final ZipOutputStream zoos;
-        private final Manifest manifest;
-        private final MessageDigest md;
-        private final ZipEntryFactory zipEntryFactory;
-        private final byte[] buffer;
-
-        StreamAction(
-            ZipOutputStream zoos,
-            Manifest manifest,
-            MessageDigest md,
-            ZipEntryFactory zipEntryFactory,
-            byte[] buffer
-        ) {
-            this.zoos = zoos;
-            this.manifest = manifest;
-            this.md = md;
-            this.zipEntryFactory = zipEntryFactory;
-            this.buffer = buffer;
+    /**
+     * A file or directory to write into the flask jar. Each library's SHA-256 digest and each
+     * uncompressed entry's size and CRC-32 are computed together, by reading that file just once.
+     */
+    private static final class ArchiveEntry {
+        final String name;
+        final long lastModified;
+        final File file;
+        final boolean library;
+        final int level;
+        final boolean stored;
+        byte[] digest;
+        long size;
+        long crc;
+
+        ArchiveEntry(String name, long lastModified, File file, boolean library, int level) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.file = file;
+            this.library = library;
+            this.level = level;
+            this.stored = level == NO_COMPRESSION;
         }
 
-        @Override
-        public void processFile(FileCopyDetailsInternal fileCopyDetails) {
-            try {
-                String entryName = fileCopyDetails.getRelativePath().toString();
-                if (!fileCopyDetails.isDirectory() && entryName.startsWith(LIBRARIES_FOLDER)) {
-                    ThrowingSupplier<InputStream> streamSupplier = () -> Flask.read(fileCopyDetails.getFile(), false);
-                    Attributes attr = manifest.getEntries().computeIfAbsent(entryName, it -> new Attributes());
-                    md.reset();
-                    attr.putValue(Flask.ManifestAttributes.ENTRY_HASH,
-                            Base64.getEncoder().encodeToString(Flask.computeDigest(streamSupplier, md, buffer)));
-                }
-                if (METADATA_FOLDER.equals(entryName)) return;
-                if (fileCopyDetails.isDirectory()) {
-                    ZipEntry zipEntry = zipEntryFactory.createDirectoryEntry(entryName, fileCopyDetails.getLastModified());
-                    zoos.putNextEntry(zipEntry);
-                } else {
-                    ZipEntry zipEntry = zipEntryFactory.createZipEntry(entryName, fileCopyDetails.getLastModified());
-                    boolean compressed = Flask.splitExtension(fileCopyDetails.getSourceName())
-                            .map(entry -> ".jar".equals(entry.getValue()))
-                            .orElse(false);
-                    if (!compressed) {
-                        zipEntry.setMethod(ZipEntry.DEFLATED);
-                    } else {
-                        try (InputStream is = Flask.read(fileCopyDetails.getFile(), false)) {
-                            Flask.computeSizeAndCrc32(zipEntry, is, buffer);
-                        }
-                        zipEntry.setMethod(ZipEntry.STORED);
+        boolean isDirectory() {
+            return file == null;
+        }
+
+        void summarize() throws IOException, NoSuchAlgorithmException {
+            MessageDigest md = library ? MessageDigest.getInstance("SHA-256") : null;
+            CRC32 crc32 = stored ? new CRC32() : null;
+            byte[] buffer = new byte[BUFFER_SIZE];
+            long sz = 0L;
+            try (InputStream is = Flask.read(file, false)) {
+                while (true) {
+                    int read = is.read(buffer);
+                    if (read < 0) break;
+                    sz += read;
+                    if (md != null) {
+                        md.update(buffer, 0, read);
                     }
-                    zoos.putNextEntry(zipEntry);
-                    try (InputStream is = Flask.read(fileCopyDetails.getFile(), false)) {
-                        Flask.write2Stream(is, zoos, buffer);
+                    if (crc32 != null) {
+                        crc32.update(buffer, 0, read);
                     }
                 }
-            } catch (IOException e) {
-                throw new UncheckedIOException(e);
+            }
+            size = sz;
+            if (md != null) {
+                digest = md.digest();
+            }
+            if (crc32 != null) {
+                crc = crc32.getValue();
+            }
+        }
+    }
+
+    /**
+     * Decides the deflate level of each file in the flask jar, where {@link java.util.zip.Deflater#NO_COMPRESSION}
+     * means that the file is stored.
+     */
+    private static final class CompressionPolicy {
+        private final Set<String> storedExtensions = new HashSet<>();
+        private final int defaultLevel;
+        private final List<Map.Entry<Spec<FileTreeElement>, Integer>> levels = new ArrayList<>();
+
+        CompressionPolicy(Set<String> storedExtensions, int defaultLevel, Map<String, Integer> levels) {
+            for (String extension : storedExtensions) {
+                this.storedExtensions.add(normalizeExtension(extension));
+            }
+            this.defaultLevel = checkLevel(defaultLevel, "compressionLevel");
+            for (Map.Entry<String, Integer> entry : levels.entrySet()) {
+                Spec<FileTreeElement> spec = new PatternSet().include(entry.getKey()).getAsSpec();
+                this.levels.add(new AbstractMap.SimpleImmutableEntry<>(spec,
+                        checkLevel(entry.getValue(), "compressionLevels['" + entry.getKey() + "']")));
+            }
+        }
+
+        private static String normalizeExtension(String extension) {
+            return (extension.startsWith(".") ? extension.substring(1) : extension).toLowerCase(Locale.ROOT);
+        }
+
+        private static int checkLevel(int level, String name) {
+            if (level < NO_COMPRESSION || level > BEST_COMPRESSION) {
+                throw new GradleException(String.format("Invalid %s %d, which must be between %d and %d",
+                        name, level, NO_COMPRESSION, BEST_COMPRESSION));
+            }
+            return level;
+        }
+
+        int levelOf(FileCopyDetailsInternal fileCopyDetails) {
+            if (fileCopyDetails.getRelativePath().toString().startsWith(LIBRARIES_FOLDER)) {
+                return NO_COMPRESSION;
+            }
+            for (Map.Entry<Spec<FileTreeElement>, Integer> entry : levels) {
+                if (entry.getKey().isSatisfiedBy(fileCopyDetails)) {
+                    return entry.getValue();
+                }
+            }
+            boolean stored = Flask.splitExtension(fileCopyDetails.getSourceName())
+                    .map(entry -> storedExtensions.contains(normalizeExtension(entry.getValue())))
+                    .orElse(false);
+            return stored ? NO_COMPRESSION : defaultLevel;
+        }
+    }
+
+    private static final class CollectingAction implements CopyActionProcessingStreamAction {
+        private final List<ArchiveEntry> entries = new ArrayList<>();
+        private final CompressionPolicy compressionPolicy;
+
+        CollectingAction(CompressionPolicy compressionPolicy) {
+            this.compressionPolicy = compressionPolicy;
+        }
+
+        @Override
+        public void processFile(FileCopyDetailsInternal fileCopyDetails) {
+            String entryName = fileCopyDetails.getRelativePath().toString();
+            if (METADATA_FOLDER.equals(entryName)) return;
+            if (fileCopyDetails.isDirectory()) {
+                entries.add(new ArchiveEntry(entryName, fileCopyDetails.getLastModified(), null, false, NO_COMPRESSION));
+            } else {
+                // Calling getFile() now unpacks entries of archives while they are still open.
+                entries.add(new ArchiveEntry(entryName, fileCopyDetails.getLastModified(), fileCopyDetails.getFile(),
+                        entryName.startsWith(LIBRARIES_FOLDER), compressionPolicy.levelOf(fileCopyDetails)));
             }
         }
     }
@@ -234,20 +409,6 @@ public class FlaskJarTask extends AbstractArchiveTask {
         ZipEntry createDirectoryEntry(@Nonnull String entryName) {
             return createDirectoryEntry(entryName, defaultLastModifiedTime);
         }
-
-        @Nonnull
-        ZipEntry copyOf(@Nonnull ZipEntry zipEntry) {
-            if (zipEntry.getMethod() == ZipEntry.STORED) {
-                return new ZipEntry(zipEntry);
-            } else {
-                ZipEntry newEntry = new ZipEntry(zipEntry.getName());
-                newEntry.setMethod(ZipEntry.DEFLATED);
-                newEntry.setTime(zipEntry.getTime());
-                newEntry.setExtra(zipEntry.getExtra());
-                newEntry.setComment(zipEntry.getComment());
-                return newEntry;
-            }
-        }
     }
 
     @Override
@@ -275,33 +436,51 @@ public class FlaskJarTask extends AbstractArchiveTask {
                      */
                     String mainClass = mainClassName.getOrNull();
                     mainAttributes.putValue(Flask.ManifestAttributes.APPLICATION_CLASS, mainClass);
+                    if (inProcess.get()) {
+                        mainAttributes.putValue(Flask.ManifestAttributes.IN_PROCESS, Boolean.TRUE.toString());
+                    }
+                    if (classDataSharing.get()) {
+                        mainAttributes.putValue(Flask.ManifestAttributes.CLASS_DATA_SHARING, Boolean.TRUE.toString());
+                    }
+                    if (daemon.get()) {
+                        mainAttributes.putValue(Flask.ManifestAttributes.DAEMON, Boolean.TRUE.toString());
+                    }
                     MessageDigest md = MessageDigest.getInstance("SHA-256");
                     byte[] buffer = new byte[BUFFER_SIZE];
-                    mainAttributes.putValue(Flask.ManifestAttributes.HEARTBEAT_AGENT_HASH,
-                        Flask.bytes2Hex(Flask.computeDigest(HeartbeatAgentResource.instance::read, md, buffer)));
+                    mainAttributes.putValue(Flask.ManifestAttributes.HEARTBEAT_AGENT_HASH, ResourceHashes.HEARTBEAT_AGENT);
 
                     /**
                      * The manifest has to be the first zip entry in a jar archive, as an example,
                      * {@link java.util.jar.JarInputStream} assumes the manifest is the first (or second at most)
                      * entry in the jar and simply returns a null manifest if that is not the case.
-                     * In this case the manifest has to contain the hash of all the jar entries, so it cannot
-                     * be computed in advance, we write all the entries to a temporary zip archive while computing the manifest,
-                     * then we write the manifest to the final zip file as the first entry and, finally,
-                     * we copy all the other entries from the temporary archive.
-                     *
-                     * The {@link org.gradle.api.Task#getTemporaryDir} directory is guaranteed
-                     * to be unique per instance of this task.
+                     * In this case the manifest has to contain the hash of all the jar entries, so we first
+                     * collect all the entries, then read each of their files concurrently to compute their hashes,
+                     * and finally write the manifest followed by all the other entries in a single pass.
                      */
-                    File temporaryJar = new File(getTemporaryDir(), "premature.zip");
-                    try (ZipOutputStream zipOutputStream = new ZipOutputStream(Flask.write(temporaryJar, true))) {
-                        zipOutputStream.setLevel(NO_COMPRESSION);
-                        StreamAction streamAction = new StreamAction(zipOutputStream, manifest, md, zipEntryFactory, buffer);
-                        copyActionProcessingStream.process(streamAction);
+                    int defaultLevel = compressionLevel.get();
+                    CollectingAction collectingAction = new CollectingAction(
+                            new CompressionPolicy(storedExtensions.get(), defaultLevel, compressionLevels.get()));
+                    copyActionProcessingStream.process(collectingAction);
+                    List<ArchiveEntry> entries = collectingAction.entries;
+                    Map<File, byte[]> digests = new ConcurrentHashMap<>();
+                    entries.parallelStream()
+                        .filter(entry -> entry.library || entry.stored)
+                        .forEach((ThrowingConsumer<ArchiveEntry>) entry -> {
+                            entry.summarize();
+                            if (entry.digest != null) {
+                                digests.put(entry.file.getAbsoluteFile(), entry.digest);
+                            }
+                        });
+                    for (ArchiveEntry entry : entries) {
+                        if (entry.library && !entry.isDirectory()) {
+                            Attributes attr = manifest.getEntries().computeIfAbsent(entry.name, it -> new Attributes());
+                            attr.putValue(Flask.ManifestAttributes.ENTRY_HASH, Base64.getEncoder().encodeToString(entry.digest));
+                        }
                     }
 
-                    try (ZipOutputStream zipOutputStream = new ZipOutputStream(Flask.write(destination, true));
-                         ZipInputStream zipInputStream = new ZipInputStream(Flask.read(temporaryJar, true))) {
-                        zipOutputStream.setLevel(BEST_COMPRESSION);
+                    try (ZipOutputStream zipOutputStream = new ZipOutputStream(Flask.write(destination, true))) {
+                        // The flask jar's own metadata is always deflated, even when its other entries are stored.
+                        zipOutputStream.setLevel(defaultLevel == NO_COMPRESSION ? BEST_COMPRESSION : defaultLevel);
                         ZipEntry zipEntry = zipEntryFactory.createDirectoryEntry(METADATA_FOLDER);
                         zipOutputStream.putNextEntry(zipEntry);
                         zipEntry = zipEntryFactory.createZipEntry(JarFile.MANIFEST_NAME);
@@ -327,10 +506,14 @@ public class FlaskJarTask extends AbstractArchiveTask {
                             Properties javaAgentPropertyFile = new Properties();
                             int index = 0;
                             for(JavaAgent javaAgent : javaAgents) {
-                                md.reset();
-                                ThrowingSupplier<InputStream> streamSupplier = () -> Flask.read(javaAgent.getJar().get().getAsFile(), false);
+                                File javaAgentJar = javaAgent.getJar().get().getAsFile();
+                                byte[] digest = digests.get(javaAgentJar.getAbsoluteFile());
+                                if (digest == null) {
+                                    md.reset();
+                                    digest = Flask.computeDigest(() -> Flask.read(javaAgentJar, false), md, buffer);
+                                }
                                 StringBuilder sb = new StringBuilder();
-                                sb.append(Flask.bytes2Hex(Flask.computeDigest(streamSupplier, md, buffer)));
+                                sb.append(Flask.bytes2Hex(digest));
                                 if (javaAgent.getArgs().isPresent()) {
                                     sb.append('=');
                                     sb.append(javaAgent.getArgs().get());
@@ -343,13 +526,25 @@ public class FlaskJarTask extends AbstractArchiveTask {
                             Flask.storeProperties(javaAgentPropertyFile, zipOutputStream);
                         }
 
-                        while (true) {
-                            zipEntry = zipInputStream.getNextEntry();
-                            if (zipEntry == null) break;
-                            // Create a new ZipEntry explicitly, without relying on
-                            // subtle (undocumented?) behaviour of ZipInputStream.
-                            zipOutputStream.putNextEntry(zipEntryFactory.copyOf(zipEntry));
-                            Flask.write2Stream(zipInputStream, zipOutputStream, buffer);
+                        for (ArchiveEntry entry : entries) {
+                            if (entry.isDirectory()) {
+                                zipOutputStream.putNextEntry(zipEntryFactory.createDirectoryEntry(entry.name, entry.lastModified));
+                                continue;
+                            }
+                            zipEntry = zipEntryFactory.createZipEntry(entry.name, entry.lastModified);
+                            if (entry.stored) {
+                                zipEntry.setMethod(ZipEntry.STORED);
+                                zipEntry.setSize(entry.size);
+                                zipEntry.setCompressedSize(entry.size);
+                                zipEntry.setCrc(entry.crc);
+                            } else {
+                                zipEntry.setMethod(ZipEntry.DEFLATED);
+                                zipOutputStream.setLevel(entry.level);
+                            }
+                            zipOutputStream.putNextEntry(zipEntry);
+                            try (InputStream is = Flask.read(entry.file, false)) {
+                                Flask.write2Stream(is, zipOutputStream, buffer);
+                            }
                         }
                         return () -> true;
                     }
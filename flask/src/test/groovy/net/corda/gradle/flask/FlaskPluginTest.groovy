@@ -3,13 +3,16 @@ package net.corda.gradle.flask
 
 import groovy.transform.CompileStatic
 import net.corda.flask.common.Flask
+import org.gradle.testkit.runner.BuildResult
 import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testkit.runner.TaskOutcome
 import org.junit.jupiter.api.BeforeEach
 import org.junit.jupiter.api.DisplayName
 import org.junit.jupiter.api.Test
 import org.junit.jupiter.api.Timeout
 import org.junit.jupiter.api.io.TempDir
 
+import java.nio.file.DirectoryStream
 import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.StandardCopyOption
@@ -82,13 +85,15 @@ class FlaskPluginTest {
         installResource("testProject", "testAgent/src/main/java/net/corda/gradle/flask/test/agent/JavaAgent.java", testProjectDir)
     }
 
-    void invokeGradle(String... taskName) {
+    BuildResult invokeGradle(String... taskName) {
         GradleRunner runner = GradleRunner.create()
                 .withDebug(true)
                 .withProjectDir(testProjectDir.toFile())
                 .withArguments(taskName + ["-s", "--info", "-g", testGradleHomeDir])
                 .withPluginClasspath()
-        println(runner.build().getOutput())
+        BuildResult result = runner.build()
+        println(result.getOutput())
+        return result
     }
 
     static long consumeEntry(InputStream input) {
@@ -106,7 +111,8 @@ class FlaskPluginTest {
         invokeGradle("flaskJar")
 
         //Check that all zip entries have timestamp equal to Flask.Constants.ZIP_ENTRIES_DEFAULT_TIMESTAMP,
-        //that directories and jars have been STORED, and everything else has been DEFLATED.
+        //that directories, jars and the entries whose compressionLevel is 0 have been STORED,
+        //and everything else has been DEFLATED.
         Path flaskJar = testProjectDir.resolve("build/flask.jar")
         new ZipInputStream(Files.newInputStream(flaskJar)).withStream { zipInputStream ->
             ZipEntry zipEntry
@@ -121,7 +127,7 @@ class FlaskPluginTest {
                     assertThat(zipEntry.compressedSize).isZero()
                     assertThat(zipEntry.size).isZero()
                     assertThat(zipEntry.crc).isZero()
-                } else if (zipEntry.name.endsWith(".jar")) {
+                } else if (zipEntry.name.endsWith(".jar") || zipEntry.name.endsWith("/Launcher.class")) {
                     assertEquals(ZipEntry.STORED, zipEntry.method, zipEntry.name)
                     assertThat(zipEntry.compressedSize).isEqualTo(actualSize)
                     assertThat(zipEntry.crc).isNotZero()
@@ -150,6 +156,21 @@ class FlaskPluginTest {
         assertArrayEquals(digest1, digest2)
     }
 
+    @Test
+    void restoreFlaskJarFromBuildCache() {
+        invokeGradle("flaskJar", "--build-cache")
+        Path flaskJar = testProjectDir.resolve("build/flask.jar")
+        byte[] buffer = new byte[BUFFER_SIZE]
+        MessageDigest md = MessageDigest.getInstance("SHA-256")
+        byte[] digest1 = Flask.computeDigest( { Files.newInputStream(flaskJar) }, md, buffer)
+
+        BuildResult result = invokeGradle("clean", "flaskJar", "--build-cache")
+        assertEquals(TaskOutcome.FROM_CACHE, result.task(":flaskJar")?.outcome)
+        md.reset()
+        byte[] digest2 = Flask.computeDigest( { Files.newInputStream(flaskJar) }, md, buffer)
+        assertArrayEquals(digest1, digest2)
+    }
+
     @Test
     void runFlaskJar() {
         invokeGradle("flaskRun")
@@ -180,6 +201,27 @@ class FlaskPluginTest {
         invokeGradle("flaskRunDisableJavaAgent")
     }
 
+    private static Properties readDaemonFile(Path daemonDir) {
+        Path daemonFile = Files.newDirectoryStream(daemonDir, "*.properties").withCloseable { DirectoryStream<Path> files ->
+            files.iterator().next()
+        }
+        Files.newBufferedReader(daemonFile).withCloseable { reader ->
+            new Properties().tap {
+                load(reader)
+            }
+        }
+    }
+
+    @Test
+    void runFlaskJarInDaemon() {
+        Path daemonDir = testProjectDir.resolve("build/flaskCache/daemon")
+        invokeGradle("flaskRunDaemon")
+        Properties daemon = readDaemonFile(daemonDir)
+        // The second launch reuses the daemon that the first one started.
+        invokeGradle("flaskRunDaemon")
+        assertEquals(daemon, readDaemonFile(daemonDir))
+    }
+
     @Test
     @DisplayName("Check that shutdown hooks are executed on flask jars")
     void shutdownHookTest() {